@@ -1,11 +1,15 @@
 package com.example.activitiesresponses.client;
 
+import com.example.activitiesresponses.dto.ArchiveEntryDto;
+import feign.Response;
 import org.springframework.cloud.openfeign.FeignClient;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.util.List;
+
 @FeignClient(name = "file-storage", url = "${app.file-storage.url:http://82.29.168.17:8030}", path = "/api/v1/file-storage")
 public interface FileStorageClient {
 
@@ -15,6 +19,12 @@ public interface FileStorageClient {
     @GetMapping("/download/{id}")
     ResponseEntity<byte[]> downloadFile(@PathVariable String id);
 
+    /**
+     * Streams a ZIP of the given files; the caller must close the returned response
+     */
+    @PostMapping(value = "/archive", consumes = MediaType.APPLICATION_JSON_VALUE)
+    Response downloadArchive(@RequestBody List<ArchiveEntryDto> entries, @RequestParam("name") String name);
+
     @DeleteMapping("/delete/{id}")
     ResponseEntity<Void> deleteFile(@PathVariable String id);
 } 
\ No newline at end of file
@@ -1,19 +1,24 @@
 package com.example.activitiesresponses.controller;
 
 import com.example.activitiesresponses.dto.ActivityResponseDto;
+import com.example.activitiesresponses.dto.ArchiveEntryDto;
 import com.example.activitiesresponses.dto.GradeRequest;
 import com.example.activitiesresponses.entities.ActivitiesResponses;
 import com.example.activitiesresponses.service.ActivitiesResponsesService;
 import com.example.activitiesresponses.util.JwtUtil;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import feign.Response;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.NoSuchElementException;
@@ -419,6 +424,48 @@ public class MainController {
         return activitiesResponsesService.getResponseFile(id);
     }
 
+    /**
+     * Descarga en un único ZIP todos los archivos entregados para una actividad (para profesores).
+     * El ZIP se transmite directamente desde file-storage sin almacenarse en memoria.
+     */
+    @GetMapping("/activity/{id}/files/zip")
+    public ResponseEntity<StreamingResponseBody> downloadResponseFilesZip(
+            @PathVariable Long id,
+            @RequestHeader("Authorization") String authHeader) {
+        
+        String token = authHeader.replace("Bearer ", "");
+        
+        // Verificar que el usuario es profesor o administrador
+        if (!jwtUtil.hasRole(token, "TEACHER") && !jwtUtil.hasRole(token, "ADMIN")) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        
+        List<ArchiveEntryDto> entries = activitiesResponsesService.getResponseFileArchiveEntries(id);
+        if (entries.isEmpty()) {
+            log.info("La actividad {} no tiene archivos entregados", id);
+            return ResponseEntity.notFound().build();
+        }
+        
+        Response archive;
+        try {
+            archive = activitiesResponsesService.openResponseFilesArchive(id, entries);
+        } catch (Exception e) {
+            log.error("Error al generar el ZIP de la actividad {}: {}", id, e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.BAD_GATEWAY).build();
+        }
+        
+        StreamingResponseBody body = out -> {
+            try (archive; InputStream in = archive.body().asInputStream()) {
+                in.transferTo(out);
+            }
+        };
+        
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/zip"))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"activity-" + id + ".zip\"")
+                .body(body);
+    }
+
     @DeleteMapping("/{id}")
     public ResponseEntity<Void> deleteActivitiesResponses(@PathVariable Long id) {
         activitiesResponsesService.deleteActivityResponse(id);
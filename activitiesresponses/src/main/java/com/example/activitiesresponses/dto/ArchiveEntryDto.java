@@ -0,0 +1,16 @@
+package com.example.activitiesresponses.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Entry of a ZIP archive built by file-storage: file id plus the folder it goes into
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ArchiveEntryDto {
+    private String id;
+    private String folder;
+}
@@ -3,7 +3,9 @@ package com.example.activitiesresponses.service;
 import com.example.activitiesresponses.Repository.ActivitiesResponsesRepository;
 import com.example.activitiesresponses.client.FileStorageClient;
 import com.example.activitiesresponses.dto.ActivityResponseDto;
+import com.example.activitiesresponses.dto.ArchiveEntryDto;
 import com.example.activitiesresponses.entities.ActivitiesResponses;
+import feign.Response;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.ResponseEntity;
@@ -173,6 +175,35 @@ public class ActivitiesResponsesService {
         return fileStorageClient.downloadFile(response.getResponseFileId());
     }
 
+    /**
+     * Builds the archive entries for every submitted file of an activity, one folder per response
+     */
+    public List<ArchiveEntryDto> getResponseFileArchiveEntries(Long activityId) {
+        List<ArchiveEntryDto> entries = new ArrayList<>();
+        for (ActivitiesResponses response : getActivitiesByActivityId(activityId)) {
+            if (response.getResponseFileId() == null) {
+                continue;
+            }
+            String student = response.getStudentName() != null ? response.getStudentName() : "student";
+            String folder = student.replaceAll("[^\\p{L}\\p{N}._ -]", "_") + "_" + response.getId();
+            entries.add(new ArchiveEntryDto(response.getResponseFileId(), folder));
+        }
+        return entries;
+    }
+
+    /**
+     * Asks file-storage for a streamed ZIP of the given entries; the caller must close the response
+     */
+    public Response openResponseFilesArchive(Long activityId, List<ArchiveEntryDto> entries) {
+        log.info("Solicitando ZIP con {} archivos para la actividad {}", entries.size(), activityId);
+        Response archive = fileStorageClient.downloadArchive(entries, "activity-" + activityId);
+        if (archive.status() != 200 || archive.body() == null) {
+            archive.close();
+            throw new IllegalStateException("file-storage returned status " + archive.status() + " for archive");
+        }
+        return archive;
+    }
+
     public List<ActivitiesResponses> getActivitiesByActivityId(Long activityId) {
         return activitiesResponsesRepository.findByActivityId(activityId);
     }
@@ -0,0 +1,51 @@
+package com.safalifter.filestorage.benchmarks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+/**
+ * Test files for the benchmarks, kept under bench.dir (default: the temp folder) and reused
+ * across runs since writing a 1 GB file takes longer than benchmarking it. Contents are random
+ * so nothing along the way can compress them.
+ */
+final class BenchmarkFiles {
+
+    private static final int BLOCK_SIZE = 1024 * 1024;
+
+    private BenchmarkFiles() {
+    }
+
+    static Path folder() throws IOException {
+        Path folder = Paths.get(System.getProperty("bench.dir", System.getProperty("java.io.tmpdir")))
+                .resolve("file-storage-benchmarks");
+        return Files.createDirectories(folder);
+    }
+
+    static Path source(long size) throws IOException {
+        Path file = folder().resolve("source-" + size + ".bin");
+        if (Files.isRegularFile(file) && Files.size(file) == size) {
+            return file;
+        }
+
+        byte[] block = new byte[BLOCK_SIZE];
+        new Random(size).nextBytes(block);
+        Path tempFile = Files.createTempFile(folder(), "source-", ".tmp");
+        try (FileChannel out = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+            long written = 0;
+            while (written < size) {
+                ByteBuffer buffer = ByteBuffer.wrap(block, 0, (int) Math.min(BLOCK_SIZE, size - written));
+                while (buffer.hasRemaining()) {
+                    written += out.write(buffer);
+                }
+            }
+        }
+        return Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+}
@@ -0,0 +1,53 @@
+package com.safalifter.filestorage.benchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Entry point of the benchmarks jar. Takes the usual JMH options; unless a result file is
+ * given, results are written as JSON to results/jmh-result.json so a run can be committed
+ * and compared in review (e.g. with https://jmh.morethan.io).
+ *
+ * <pre>
+ * mvn package
+ * java -jar target/benchmarks.jar                          # everything, 10 KB to 1 GB
+ * java -jar target/benchmarks.jar Download -p fileSize=10240,1048576
+ * java -Dbench.dir=/data/bench -jar target/benchmarks.jar  # test files on the storage volume
+ * </pre>
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        if (commandLine.shouldHelp()) {
+            commandLine.showHelp();
+            return;
+        }
+        if (commandLine.shouldList()) {
+            new Runner(commandLine).list();
+            return;
+        }
+
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine);
+
+        if (!commandLine.getResult().hasValue()) {
+            Path results = Files.createDirectories(Paths.get("results"));
+            options.result(results.resolve("jmh-result.json").toString());
+            if (!commandLine.getResultFormat().hasValue()) {
+                options.resultFormat(ResultFormatType.JSON);
+            }
+        }
+
+        new Runner(options.build()).run();
+    }
+}
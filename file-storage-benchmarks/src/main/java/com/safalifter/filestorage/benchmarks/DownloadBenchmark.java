@@ -0,0 +1,104 @@
+package com.safalifter.filestorage.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The ways StorageService and FileStreamingService can get a stored file onto the wire, each
+ * writing the whole file to a loopback socket:
+ * <ul>
+ *     <li>readAllBytes: the buffered download, the file read into a FileData byte array first</li>
+ *     <li>streamCopy: InputStream copied to the response stream</li>
+ *     <li>transferTo: FileChannel.transferTo, sendfile on Linux</li>
+ *     <li>mappedRead: the file memory-mapped and written from the mapping</li>
+ * </ul>
+ * Files come from the page cache after warmup, so this measures copy overhead, not the disk.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+// readAllBytes holds a whole 1 GB file on the heap
+@Fork(value = 1, jvmArgsAppend = {"-Xms3g", "-Xmx3g"})
+public class DownloadBenchmark {
+
+    private static final long MAP_CHUNK = 256L * 1024 * 1024;
+
+    @Param({"10240", "102400", "1048576", "10485760", "104857600", "1073741824"})
+    private long fileSize;
+
+    private Path file;
+    private LoopbackSink sink;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = BenchmarkFiles.source(fileSize);
+        sink = LoopbackSink.open();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        sink.close();
+    }
+
+    @Benchmark
+    public long readAllBytes() throws IOException {
+        byte[] data = Files.readAllBytes(file);
+        sink.writeFully(ByteBuffer.wrap(data));
+        return data.length;
+    }
+
+    @Benchmark
+    public long streamCopy() throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return in.transferTo(sink.outputStream());
+        }
+    }
+
+    @Benchmark
+    public long transferTo() throws IOException {
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            long position = 0;
+            while (position < fileSize) {
+                position += in.transferTo(position, fileSize - position, sink.channel());
+            }
+            return position;
+        }
+    }
+
+    @Benchmark
+    public long mappedRead() throws IOException {
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            long position = 0;
+            while (position < fileSize) {
+                long length = Math.min(MAP_CHUNK, fileSize - position);
+                MappedByteBuffer mapped = in.map(FileChannel.MapMode.READ_ONLY, position, length);
+                sink.writeFully(mapped);
+                position += length;
+            }
+            return position;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.safalifter.filestorage.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Stands in for the client socket of a download: a loopback connection whose far end is drained
+ * and discarded by a background thread. Using a real socket keeps transferTo on the sendfile path
+ * it takes for HTTP responses.
+ */
+final class LoopbackSink implements AutoCloseable {
+
+    private final ServerSocketChannel server;
+    private final SocketChannel channel;
+    private final Thread drainer;
+
+    private LoopbackSink(ServerSocketChannel server, SocketChannel channel, SocketChannel peer) {
+        this.server = server;
+        this.channel = channel;
+        this.drainer = new Thread(() -> drain(peer), "loopback-sink-drainer");
+        this.drainer.setDaemon(true);
+        this.drainer.start();
+    }
+
+    static LoopbackSink open() throws IOException {
+        ServerSocketChannel server = ServerSocketChannel.open()
+                .bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        SocketChannel channel = SocketChannel.open(server.getLocalAddress());
+        SocketChannel peer = server.accept();
+        return new LoopbackSink(server, channel, peer);
+    }
+
+    SocketChannel channel() {
+        return channel;
+    }
+
+    /**
+     * A stream over the socket; closing it would close the socket, so callers leave it open
+     */
+    OutputStream outputStream() {
+        return Channels.newOutputStream(channel);
+    }
+
+    void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static void drain(SocketChannel peer) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(256 * 1024);
+        try (peer) {
+            while (peer.read(buffer) >= 0) {
+                buffer.clear();
+            }
+        } catch (IOException e) {
+            // Sink closed
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        server.close();
+        try {
+            drainer.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
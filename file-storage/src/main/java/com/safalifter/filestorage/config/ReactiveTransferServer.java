@@ -0,0 +1,126 @@
+package com.safalifter.filestorage.config;
+
+import com.safalifter.filestorage.controller.ReactiveTransferHandler;
+import com.safalifter.filestorage.service.TransferMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.codec.multipart.DefaultPartHttpMessageReader;
+import org.springframework.http.server.reactive.HttpHandler;
+import org.springframework.http.server.reactive.ReactorHttpHandlerAdapter;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.server.HandlerStrategies;
+import org.springframework.web.reactive.function.server.RouterFunction;
+import org.springframework.web.reactive.function.server.RouterFunctions;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.resources.LoopResources;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+/**
+ * Optional non-blocking listener for uploads and downloads (storage.reactive.enabled). It runs
+ * a Reactor Netty server next to Tomcat, on its own port, serving the same paths as the servlet
+ * endpoints so the gateway can send transfers here while everything else stays on Spring MVC.
+ * A handful of event loop threads carry every connection, however slow the clients are.
+ */
+@Component
+@ConditionalOnProperty(name = "storage.reactive.enabled", havingValue = "true")
+public class ReactiveTransferServer {
+
+    private final ReactiveTransferHandler handler;
+    private final TransferMetrics transferMetrics;
+
+    @Value("${storage.reactive.port:8031}")
+    private int port;
+
+    @Value("${storage.reactive.event-loop-threads:2}")
+    private int eventLoopThreads;
+
+    @Value("${storage.reactive.max-header-size:16384}")
+    private int maxHeaderSize;
+
+    private LoopResources loops;
+    private DisposableServer server;
+
+    public ReactiveTransferServer(ReactiveTransferHandler handler, TransferMetrics transferMetrics) {
+        this.handler = handler;
+        this.transferMetrics = transferMetrics;
+    }
+
+    @PostConstruct
+    public void start() {
+        RouterFunction<ServerResponse> routes = RouterFunctions.route()
+                .POST("/api/v1/file-storage/upload", handler::upload)
+                .GET("/api/v1/file-storage/download/{id}", handler::download)
+                .HEAD("/api/v1/file-storage/download/{id}", handler::download)
+                .build();
+
+        // Streaming parts go straight from the socket to the handler, never to memory or disk first
+        DefaultPartHttpMessageReader partReader = new DefaultPartHttpMessageReader();
+        partReader.setStreaming(true);
+        partReader.setMaxHeadersSize(maxHeaderSize);
+
+        HandlerStrategies strategies = HandlerStrategies.builder()
+                .codecs(codecs -> codecs.defaultCodecs().multipartReader(partReader))
+                .webFilter(new TransferMetricsWebFilter(transferMetrics))
+                .webFilter(this::applyCors)
+                .build();
+        HttpHandler httpHandler = RouterFunctions.toHttpHandler(routes, strategies);
+
+        loops = LoopResources.create("file-storage-reactive", eventLoopThreads, true);
+        server = HttpServer.create()
+                .port(port)
+                .runOn(loops)
+                .handle(new ReactorHttpHandlerAdapter(httpHandler))
+                .bindNow();
+        System.out.println("Reactive transfer listener started on port " + port
+                + " with " + eventLoopThreads + " event loop thread(s)");
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (server != null) {
+            server.disposeNow();
+        }
+        if (loops != null) {
+            loops.dispose();
+        }
+    }
+
+    /**
+     * Same CORS headers as the servlet CorsFilter; preflight requests are answered right away
+     */
+    private Mono<Void> applyCors(ServerWebExchange exchange, WebFilterChain chain) {
+        ServerHttpRequest request = exchange.getRequest();
+        ServerHttpResponse response = exchange.getResponse();
+        HttpHeaders headers = response.getHeaders();
+
+        String origin = request.getHeaders().getOrigin();
+        boolean credentials = origin != null && request.getHeaders().containsKey(HttpHeaders.AUTHORIZATION);
+        headers.set(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN, origin != null ? origin : "*");
+        headers.set(HttpHeaders.ACCESS_CONTROL_ALLOW_CREDENTIALS, String.valueOf(credentials));
+        headers.set(HttpHeaders.ACCESS_CONTROL_ALLOW_METHODS, "GET, POST, OPTIONS, HEAD");
+        headers.set(HttpHeaders.ACCESS_CONTROL_MAX_AGE, "3600");
+        headers.set(HttpHeaders.ACCESS_CONTROL_ALLOW_HEADERS,
+                "Origin, X-Requested-With, Content-Type, Accept, Authorization, Cache-Control, Range");
+        headers.set(HttpHeaders.ACCESS_CONTROL_EXPOSE_HEADERS, "Content-Disposition, Content-Type, Content-Length, "
+                + "Accept-Ranges, Content-Range, ETag, Last-Modified, Retry-After");
+        headers.set("X-Content-Type-Options", "nosniff");
+
+        if (request.getMethod() == HttpMethod.OPTIONS) {
+            response.setStatusCode(HttpStatus.OK);
+            return response.setComplete();
+        }
+        return chain.filter(exchange);
+    }
+}
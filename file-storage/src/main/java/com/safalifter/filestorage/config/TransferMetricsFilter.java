@@ -0,0 +1,122 @@
+package com.safalifter.filestorage.config;
+
+import com.safalifter.filestorage.service.TransferMetrics;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import javax.servlet.*;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+
+/**
+ * Feeds {@link TransferMetrics} for the servlet endpoints. Runs after admission control so
+ * uploads turned away at the door do not count as in flight. Bytes in are taken from
+ * Content-Length; bytes out are counted on the response stream, plus whatever Tomcat was
+ * asked to sendfile.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 20)
+public class TransferMetricsFilter implements Filter {
+
+    // Set by FileStreamingService when the body is left to Tomcat's sendfile
+    private static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_FILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_FILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+
+    private final TransferMetrics transferMetrics;
+
+    public TransferMetricsFilter(TransferMetrics transferMetrics) {
+        this.transferMetrics = transferMetrics;
+    }
+
+    @Override
+    public void doFilter(ServletRequest req, ServletResponse res, FilterChain chain)
+            throws IOException, ServletException {
+        HttpServletRequest request = (HttpServletRequest) req;
+        HttpServletResponse response = (HttpServletResponse) res;
+
+        TransferMetrics.Transfer transfer = transferMetrics.start(request.getMethod(),
+                request.getRequestURI().substring(request.getContextPath().length()));
+        if (transfer == null) {
+            chain.doFilter(req, res);
+            return;
+        }
+
+        transfer.addBytes(request.getContentLengthLong());
+        try {
+            chain.doFilter(req, new CountingResponse(response, transfer));
+        } finally {
+            if (request.getAttribute(SENDFILE_FILENAME_ATTR) != null) {
+                Object start = request.getAttribute(SENDFILE_FILE_START_ATTR);
+                Object end = request.getAttribute(SENDFILE_FILE_END_ATTR);
+                if (start instanceof Long && end instanceof Long) {
+                    transfer.addBytes((Long) end - (Long) start);
+                }
+            }
+            transfer.finish(response.getStatus());
+        }
+    }
+
+    private static final class CountingResponse extends HttpServletResponseWrapper {
+        private final TransferMetrics.Transfer transfer;
+        private ServletOutputStream outputStream;
+
+        private CountingResponse(HttpServletResponse response, TransferMetrics.Transfer transfer) {
+            super(response);
+            this.transfer = transfer;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (outputStream == null) {
+                outputStream = new CountingOutputStream(super.getOutputStream(), transfer);
+            }
+            return outputStream;
+        }
+    }
+
+    private static final class CountingOutputStream extends ServletOutputStream {
+        private final ServletOutputStream delegate;
+        private final TransferMetrics.Transfer transfer;
+
+        private CountingOutputStream(ServletOutputStream delegate, TransferMetrics.Transfer transfer) {
+            this.delegate = delegate;
+            this.transfer = transfer;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            delegate.write(b);
+            transfer.addBytes(1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            delegate.write(b, off, len);
+            transfer.addBytes(len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            delegate.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+
+        @Override
+        public boolean isReady() {
+            return delegate.isReady();
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            delegate.setWriteListener(writeListener);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.safalifter.filestorage.config;
+
+import com.safalifter.filestorage.service.TransferMetrics;
+import org.reactivestreams.Publisher;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpRequestDecorator;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.http.server.reactive.ServerHttpResponseDecorator;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Feeds {@link TransferMetrics} for the reactive listener, like TransferMetricsFilter does for
+ * the servlet endpoints. Streamed uploads often carry no Content-Length, so bytes in are counted
+ * as the body is read; bytes out are counted on the buffers written to the response.
+ */
+public class TransferMetricsWebFilter implements WebFilter {
+
+    private final TransferMetrics transferMetrics;
+
+    public TransferMetricsWebFilter(TransferMetrics transferMetrics) {
+        this.transferMetrics = transferMetrics;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        ServerHttpRequest request = exchange.getRequest();
+        TransferMetrics.Transfer transfer = transferMetrics.start(request.getMethodValue(), request.getPath().value());
+        if (transfer == null) {
+            return chain.filter(exchange);
+        }
+
+        ServerHttpRequest countingRequest = new ServerHttpRequestDecorator(request) {
+            @Override
+            public Flux<DataBuffer> getBody() {
+                return super.getBody().doOnNext(buffer -> transfer.addBytes(buffer.readableByteCount()));
+            }
+        };
+        ServerHttpResponse countingResponse = new ServerHttpResponseDecorator(exchange.getResponse()) {
+            @Override
+            public Mono<Void> writeWith(Publisher<? extends DataBuffer> body) {
+                return super.writeWith(Flux.from(body).doOnNext(buffer -> transfer.addBytes(buffer.readableByteCount())));
+            }
+        };
+        return chain.filter(exchange.mutate().request(countingRequest).response(countingResponse).build())
+                .doFinally(signal -> {
+                    Integer status = exchange.getResponse().getRawStatusCode();
+                    transfer.finish(status != null ? status : HttpStatus.OK.value());
+                });
+    }
+}
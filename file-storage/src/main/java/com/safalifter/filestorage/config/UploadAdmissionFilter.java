@@ -0,0 +1,82 @@
+package com.safalifter.filestorage.config;
+
+import com.safalifter.filestorage.exc.UploadRejectedException;
+import com.safalifter.filestorage.service.UploadAdmissionService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import javax.servlet.*;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.regex.Pattern;
+
+/**
+ * Applies the per-user upload cap of {@link UploadAdmissionService} at the door. Runs before
+ * multipart parsing so a rejected upload is answered without its body being read; write slots
+ * are taken later, by the services, around the disk write itself.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 10)
+public class UploadAdmissionFilter implements Filter {
+
+    private static final Pattern UPLOAD_PATH = Pattern.compile(
+            "/api/v1/(file-storage|secure-storage)/upload|/api/v1/file-storage/uploads/[^/]+(/complete)?");
+
+    private final UploadAdmissionService admissionService;
+
+    @Value("${storage.admission.enabled:true}")
+    private boolean enabled;
+
+    public UploadAdmissionFilter(UploadAdmissionService admissionService) {
+        this.admissionService = admissionService;
+    }
+
+    @Override
+    public void doFilter(ServletRequest req, ServletResponse res, FilterChain chain)
+            throws IOException, ServletException {
+        HttpServletRequest request = (HttpServletRequest) req;
+        HttpServletResponse response = (HttpServletResponse) res;
+
+        if (!enabled || !isUpload(request)) {
+            chain.doFilter(req, res);
+            return;
+        }
+
+        UploadAdmissionService.UserSlot slot;
+        try {
+            slot = admissionService.enter(UploadAdmissionService.userKey(request.getHeader("Authorization"),
+                    request.getHeader("X-Forwarded-For"), request.getRemoteAddr()));
+        } catch (UploadRejectedException e) {
+            System.out.println("Upload rejected (" + e.getHttpStatus().value() + "): " + e.getMessage());
+            reject(response, e.getHttpStatus(), e.getRetryAfterSeconds(), e.getMessage());
+            return;
+        }
+
+        try (slot) {
+            chain.doFilter(req, res);
+        }
+    }
+
+    private boolean isUpload(HttpServletRequest request) {
+        String method = request.getMethod();
+        if (!"POST".equalsIgnoreCase(method) && !"PUT".equalsIgnoreCase(method)) {
+            return false;
+        }
+        // Creating a resumable session carries no body; only its chunks and completion write
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        return UPLOAD_PATH.matcher(path).matches();
+    }
+
+    private void reject(HttpServletResponse response, HttpStatus status, long retryAfterSeconds, String message)
+            throws IOException {
+        response.setStatus(status.value());
+        response.setHeader("Retry-After", String.valueOf(retryAfterSeconds));
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        response.getWriter().write("{\"error\":\"" + message.replace("\"", "'") + "\",\"status\":" + status.value() + "}");
+    }
+}
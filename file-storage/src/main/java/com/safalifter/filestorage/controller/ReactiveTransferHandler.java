@@ -0,0 +1,375 @@
+package com.safalifter.filestorage.controller;
+
+import com.safalifter.filestorage.exc.GenericErrorResponse;
+import com.safalifter.filestorage.exc.UploadRejectedException;
+import com.safalifter.filestorage.model.File;
+import com.safalifter.filestorage.model.FileDerivative;
+import com.safalifter.filestorage.service.AccessTracker;
+import com.safalifter.filestorage.service.BlobRegion;
+import com.safalifter.filestorage.service.ContentTypeDetector;
+import com.safalifter.filestorage.service.DerivativeService;
+import com.safalifter.filestorage.service.FileStreamingService;
+import com.safalifter.filestorage.service.HotContentCache;
+import com.safalifter.filestorage.service.StorageService;
+import com.safalifter.filestorage.service.UploadAdmissionService;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.multipart.FilePart;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.BodyExtractors;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Upload and download handlers for the reactive listener (see ReactiveTransferServer). Bodies
+ * move as DataBuffer streams through AsynchronousFileChannel, so a slow client costs buffers
+ * rather than a thread: each request holds at most the buffers its connection has asked for.
+ * Database lookups and blob bookkeeping stay blocking and run on the bounded elastic scheduler.
+ */
+@Component
+@ConditionalOnProperty(name = "storage.reactive.enabled", havingValue = "true")
+public class ReactiveTransferHandler {
+
+    private final StorageService storageService;
+    private final DerivativeService derivativeService;
+    private final UploadAdmissionService admissionService;
+    private final HotContentCache hotContentCache;
+    private final AccessTracker accessTracker;
+    // Completion threads for the asynchronous file channels
+    private final ExecutorService fileWorkers;
+    private final DataBufferFactory bufferFactory = new NettyDataBufferFactory(PooledByteBufAllocator.DEFAULT);
+
+    @Value("${storage.reactive.buffer-size:16384}")
+    private int bufferSize;
+
+    @Value("${storage.reactive.max-upload-size:2147483648}")
+    private long maxUploadSize;
+
+    @Value("${storage.admission.enabled:true}")
+    private boolean admissionEnabled;
+
+    @Value("${storage.download.cache-max-age:31536000}")
+    private long immutableMaxAge;
+
+    public ReactiveTransferHandler(StorageService storageService,
+                                   DerivativeService derivativeService,
+                                   UploadAdmissionService admissionService,
+                                   HotContentCache hotContentCache,
+                                   AccessTracker accessTracker,
+                                   @Value("${storage.reactive.file-threads:4}") int fileThreads) {
+        this.storageService = storageService;
+        this.derivativeService = derivativeService;
+        this.admissionService = admissionService;
+        this.hotContentCache = hotContentCache;
+        this.accessTracker = accessTracker;
+        this.fileWorkers = Executors.newFixedThreadPool(fileThreads, runnable -> {
+            Thread thread = new Thread(runnable, "reactive-file-io");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        fileWorkers.shutdownNow();
+    }
+
+    /**
+     * Multipart upload of a single "file" part, answered with the new file id like the servlet endpoint
+     */
+    public Mono<ServerResponse> upload(ServerRequest request) {
+        Mono<String> upload = request.body(BodyExtractors.toParts())
+                .concatMap(part -> part instanceof FilePart && "file".equals(part.name())
+                        ? storeUpload((FilePart) part)
+                        : part.content().doOnNext(DataBufferUtils::release).then(Mono.<String>empty()))
+                .next()
+                .switchIfEmpty(Mono.error(new GenericErrorResponse("Missing file part", HttpStatus.BAD_REQUEST)));
+
+        Mono<String> stored = upload;
+        if (admissionEnabled) {
+            String user = UploadAdmissionService.userKey(request.headers().firstHeader(HttpHeaders.AUTHORIZATION),
+                    request.headers().firstHeader("X-Forwarded-For"),
+                    request.remoteAddress().map(address -> address.getAddress().getHostAddress()).orElse("unknown"));
+            stored = Mono.using(() -> admissionService.enter(user), slot -> upload,
+                    UploadAdmissionService.UserSlot::close);
+        }
+
+        return stored
+                .flatMap(id -> ServerResponse.ok().contentType(MediaType.TEXT_PLAIN).bodyValue(id))
+                .onErrorResume(UploadRejectedException.class, e -> {
+                    System.out.println("Upload rejected (" + e.getHttpStatus().value() + "): " + e.getMessage());
+                    return ServerResponse.status(e.getHttpStatus())
+                            .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .bodyValue(Map.of("error", e.getMessage(), "status", e.getHttpStatus().value()));
+                })
+                .onErrorResume(GenericErrorResponse.class, e -> error(e.getHttpStatus(), e.getMessage()))
+                .onErrorResume(e -> {
+                    System.err.println("Error during file transfer: " + e.getMessage());
+                    return error(HttpStatus.INTERNAL_SERVER_ERROR, "Unable to save file to storage");
+                });
+    }
+
+    /**
+     * Writes the part to a temp file, hashing it on the way, then hands it to the store
+     */
+    private Mono<String> storeUpload(FilePart part) {
+        String fileName = part.filename();
+        String declaredType = Optional.ofNullable(part.headers().getContentType())
+                .map(MediaType::toString)
+                .orElse(null);
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            return Mono.error(e);
+        }
+        AtomicLong size = new AtomicLong();
+
+        Flux<DataBuffer> content = part.content().handle((buffer, sink) -> {
+            if (size.addAndGet(buffer.readableByteCount()) > maxUploadSize) {
+                DataBufferUtils.release(buffer);
+                sink.error(new GenericErrorResponse("File exceeds the maximum upload size of " + maxUploadSize
+                        + " bytes", HttpStatus.PAYLOAD_TOO_LARGE));
+                return;
+            }
+            digest.update(buffer.asByteBuffer());
+            sink.next(buffer);
+        });
+
+        return Mono.fromCallable(() -> storageService.createTempFile("reactive", ".upload"))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(tempPath -> Mono.using(
+                                // Waiting for a slot blocks, so it happens off the event loop
+                                admissionService::acquireWrite,
+                                permit -> writeBody(content, tempPath, size),
+                                UploadAdmissionService.Permit::close)
+                        .subscribeOn(Schedulers.boundedElastic())
+                        .then(Mono.fromCallable(() -> storageService.storeFile(tempPath,
+                                HexFormat.of().formatHex(digest.digest()), fileName, declaredType))
+                                .subscribeOn(Schedulers.boundedElastic()))
+                        .doFinally(signal -> deleteQuietly(tempPath)));
+    }
+
+    /**
+     * Streams the body into the temp file; the caller holds a write slot for the whole copy
+     */
+    private Mono<Void> writeBody(Flux<DataBuffer> content, Path tempPath, AtomicLong size) {
+        return Mono.defer(() -> {
+            long started = System.nanoTime();
+            return Mono.using(
+                            () -> AsynchronousFileChannel.open(tempPath, Set.of(StandardOpenOption.WRITE), fileWorkers),
+                            channel -> DataBufferUtils.write(content, channel).doOnNext(DataBufferUtils::release).then(),
+                            this::closeQuietly)
+                    .doOnSuccess(done -> admissionService.recordWrite(size.get(), System.nanoTime() - started));
+        });
+    }
+
+    /**
+     * GET and HEAD of a stored file (or its thumbnail), with conditional and single-range
+     * requests. Multi-range requests are answered with the whole file and gzip copies are not
+     * served here; both are allowed by HTTP and handled by the servlet endpoint.
+     */
+    public Mono<ServerResponse> download(ServerRequest request) {
+        String id = request.pathVariable("id");
+        Optional<String> variant = request.queryParam("variant");
+        if (variant.isPresent() && !DerivativeService.THUMBNAIL.equals(variant.get())) {
+            return error(HttpStatus.BAD_REQUEST, "Unknown variant: " + variant.get());
+        }
+
+        return Mono.fromCallable(() -> storageService.ensureValidators(storageService.findPlainFileById(id)))
+                .subscribeOn(Schedulers.boundedElastic())
+                .doOnNext(accessTracker::record)
+                .flatMap(fileRecord -> variant.isPresent()
+                        ? downloadVariant(request, fileRecord, variant.get())
+                        : Mono.fromCallable(() -> storageService.resolveBlob(fileRecord))
+                                .subscribeOn(Schedulers.boundedElastic())
+                                .flatMap(blob -> serve(request, blob, fileRecord.getOriginalFileName(),
+                                        ContentTypeDetector.contentTypeOf(fileRecord), fileRecord.getEtag(),
+                                        fileRecord.getUploadedAt().toEpochMilli(), true)))
+                .onErrorResume(GenericErrorResponse.class, e -> error(e.getHttpStatus(), e.getMessage()))
+                .onErrorResume(e -> {
+                    System.err.println("Error downloading file: " + e.getMessage());
+                    return error(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to download file: " + e.getMessage());
+                });
+    }
+
+    private Mono<ServerResponse> downloadVariant(ServerRequest request, File fileRecord, String variant) {
+        return Mono.fromCallable(() -> derivativeService.findDerivative(fileRecord, variant))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(derivative -> {
+                    if (derivative.isPresent()) {
+                        FileDerivative thumbnail = derivative.get();
+                        return serve(request, BlobRegion.of(Paths.get(thumbnail.getFilePath()), thumbnail.getSize()),
+                                fileRecord.getOriginalFileName(), thumbnail.getContentType(),
+                                fileRecord.getContentHash() + "-" + variant + "-" + thumbnail.getSize(),
+                                thumbnail.getCreatedAt().toEpochMilli(), true);
+                    }
+                    // Not rendered yet: queue it and fall back to the original, revalidated on every use
+                    derivativeService.scheduleThumbnail(fileRecord);
+                    return Mono.fromCallable(() -> storageService.resolveBlob(fileRecord))
+                            .subscribeOn(Schedulers.boundedElastic())
+                            .flatMap(blob -> serve(request, blob, fileRecord.getOriginalFileName(),
+                                    ContentTypeDetector.contentTypeOf(fileRecord), fileRecord.getEtag(),
+                                    fileRecord.getUploadedAt().toEpochMilli(), false));
+                });
+    }
+
+    private Mono<ServerResponse> serve(ServerRequest request, BlobRegion blob, String fileName, String contentType,
+                                       String rawEtag, long lastModified, boolean immutable) {
+        String etag = "\"" + rawEtag + "\"";
+        long fileSize = blob.getLength();
+        boolean preview = request.queryParam("preview").map(Boolean::parseBoolean).orElse(false);
+        String authHeader = request.headers().firstHeader(HttpHeaders.AUTHORIZATION);
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.CONTENT_TYPE, contentType);
+        headers.set(HttpHeaders.CONTENT_DISPOSITION, (preview ? "inline" : "attachment") + "; filename=\"" + fileName + "\"");
+        headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+        headers.setETag(etag);
+        headers.setLastModified(lastModified);
+        headers.set(HttpHeaders.CACHE_CONTROL, immutable
+                ? cacheControl(authHeader)
+                : CacheControl.noCache().getHeaderValue());
+        headers.set("X-Frame-Options", "SAMEORIGIN");
+
+        return request.checkNotModified(Instant.ofEpochMilli(lastModified), etag)
+                .switchIfEmpty(Mono.defer(() -> {
+                    long start = 0;
+                    long length = fileSize;
+                    HttpStatus status = HttpStatus.OK;
+
+                    HttpRange range = singleRange(request, etag, lastModified);
+                    if (range != null) {
+                        if (!FileStreamingService.isSatisfiable(range, fileSize)) {
+                            return ServerResponse.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                                    .header(HttpHeaders.CONTENT_RANGE, "bytes */" + fileSize)
+                                    .build();
+                        }
+                        start = range.getRangeStart(fileSize);
+                        length = range.getRangeEnd(fileSize) - start + 1;
+                        status = HttpStatus.PARTIAL_CONTENT;
+                        headers.set(HttpHeaders.CONTENT_RANGE,
+                                "bytes " + start + "-" + (start + length - 1) + "/" + fileSize);
+                    }
+                    headers.setContentLength(length);
+
+                    ServerResponse.BodyBuilder response = ServerResponse.status(status).headers(h -> h.addAll(headers));
+                    if (request.method() == HttpMethod.HEAD) {
+                        return response.build();
+                    }
+                    return response.body(BodyInserters.fromDataBuffers(read(blob, start, length)));
+                }));
+    }
+
+    /**
+     * The requested range when there is exactly one and If-Range (if any) still matches; null
+     * means the whole file should be sent
+     */
+    private HttpRange singleRange(ServerRequest request, String etag, long lastModified) {
+        List<HttpRange> ranges;
+        try {
+            ranges = request.headers().range();
+        } catch (IllegalArgumentException e) {
+            // Syntactically invalid Range headers are ignored
+            return null;
+        }
+        if (ranges.size() != 1) {
+            return null;
+        }
+
+        if (!FileStreamingService.ifRangeMatches(request.headers().firstHeader(HttpHeaders.IF_RANGE),
+                etag, lastModified)) {
+            return null;
+        }
+        return ranges.get(0);
+    }
+
+    /**
+     * The requested slice of the blob, from the hot content cache when it holds (or admits) it.
+     * A lookup may read the file or wait for another request reading it, so it leaves the event loop.
+     */
+    private Flux<DataBuffer> read(BlobRegion blob, long start, long length) {
+        if (!hotContentCache.accepts(blob)) {
+            return readFile(blob, start, length);
+        }
+        return Mono.fromCallable(() -> Optional.ofNullable(hotContentCache.get(blob)))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMapMany(cached -> cached.isPresent()
+                        ? Flux.just(bufferFactory.wrap(HotContentCache.slice(cached.get(), start, length)))
+                        : readFile(blob, start, length));
+    }
+
+    /**
+     * Reads a slice of the blob in buffer-size chunks, one read per buffer the connection asks for
+     */
+    private Flux<DataBuffer> readFile(BlobRegion blob, long start, long length) {
+        Flux<DataBuffer> buffers = DataBufferUtils.readAsynchronousFileChannel(
+                () -> AsynchronousFileChannel.open(blob.getPath(), Set.of(StandardOpenOption.READ), fileWorkers),
+                blob.getOffset() + start, bufferFactory, bufferSize);
+        return DataBufferUtils.takeUntilByteCount(buffers, length);
+    }
+
+    private String cacheControl(String authHeader) {
+        CacheControl cacheControl = CacheControl.maxAge(immutableMaxAge, TimeUnit.SECONDS);
+        cacheControl = authHeader != null ? cacheControl.cachePrivate() : cacheControl.cachePublic();
+        return cacheControl.getHeaderValue() + ", immutable";
+    }
+
+    private Mono<ServerResponse> error(HttpStatus status, String message) {
+        return ServerResponse.status(status)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(Map.of("error", message));
+    }
+
+    private void closeQuietly(AsynchronousFileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Unable to close upload channel: " + e.getMessage());
+        }
+    }
+
+    private void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            System.err.println("Unable to delete temp file " + path + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.safalifter.filestorage.controller;
+
+import com.safalifter.filestorage.model.UploadSession;
+import com.safalifter.filestorage.model.UploadSessionRequest;
+import com.safalifter.filestorage.service.ResumableUploadService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Resumable upload protocol for large files:
+ * POST /uploads to open a session, PUT /uploads/{id}?offset=N with raw chunk bytes,
+ * GET /uploads/{id} to learn the committed offset after a failure, and
+ * POST /uploads/{id}/complete to turn the upload into a stored file.
+ */
+@RestController
+@RequestMapping("api/v1/file-storage/uploads")
+@RequiredArgsConstructor
+public class ResumableUploadController {
+
+    private static final String UPLOAD_OFFSET_HEADER = "Upload-Offset";
+
+    private final ResumableUploadService resumableUploadService;
+
+    @PostMapping
+    public ResponseEntity<Map<String, Object>> createSession(@RequestBody UploadSessionRequest request) {
+        UploadSession session = resumableUploadService.createSession(request);
+        return ResponseEntity.status(HttpStatus.CREATED).body(describe(session));
+    }
+
+    @GetMapping("/{uploadId}")
+    public ResponseEntity<Map<String, Object>> getSession(@PathVariable String uploadId) {
+        UploadSession session = resumableUploadService.getSession(uploadId);
+        return ResponseEntity.ok()
+                .header(UPLOAD_OFFSET_HEADER, String.valueOf(session.getCommittedOffset()))
+                .body(describe(session));
+    }
+
+    @PutMapping("/{uploadId}")
+    public ResponseEntity<Map<String, Object>> uploadChunk(@PathVariable String uploadId,
+                                                           @RequestParam long offset,
+                                                           HttpServletRequest request) throws IOException {
+        // Read the raw body as a stream so chunks never have to fit in memory
+        long committed = resumableUploadService.writeChunk(uploadId, offset, request.getInputStream());
+
+        Map<String, Object> body = new HashMap<>();
+        body.put("uploadId", uploadId);
+        body.put("offset", committed);
+        return ResponseEntity.ok()
+                .header(UPLOAD_OFFSET_HEADER, String.valueOf(committed))
+                .body(body);
+    }
+
+    @PostMapping("/{uploadId}/complete")
+    public ResponseEntity<String> completeSession(@PathVariable String uploadId) {
+        return ResponseEntity.ok(resumableUploadService.completeSession(uploadId));
+    }
+
+    @DeleteMapping("/{uploadId}")
+    public ResponseEntity<Void> abortSession(@PathVariable String uploadId) {
+        resumableUploadService.abortSession(uploadId);
+        return ResponseEntity.noContent().build();
+    }
+
+    private Map<String, Object> describe(UploadSession session) {
+        Map<String, Object> body = new HashMap<>();
+        body.put("uploadId", session.getId());
+        body.put("fileName", session.getOriginalFileName());
+        body.put("size", session.getTotalSize());
+        body.put("offset", session.getCommittedOffset());
+        body.put("expiresAt", session.getExpiresAt().toString());
+        return body;
+    }
+}
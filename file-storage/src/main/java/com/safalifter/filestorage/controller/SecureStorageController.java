@@ -1,22 +1,29 @@
 package com.safalifter.filestorage.controller;
 
 import com.safalifter.filestorage.model.File;
-import com.safalifter.filestorage.model.FileData;
+import com.safalifter.filestorage.service.ContentTypeDetector;
+import com.safalifter.filestorage.service.FileStreamingService;
 import com.safalifter.filestorage.service.SecureStorageService;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
  * REST controller for secure file storage operations
- * Interfaces with C native cryptography implementation
+ * Files are encrypted at rest with AES-GCM
  */
 @RestController
 @RequestMapping("api/v1/secure-storage")
@@ -24,6 +31,7 @@ import java.util.Map;
 public class SecureStorageController {
 
     private final SecureStorageService secureStorageService;
+    private final FileStreamingService fileStreamingService;
 
     /**
      * Upload and encrypt a file
@@ -35,53 +43,70 @@ public class SecureStorageController {
     }
 
     /**
-     * Download and decrypt a file
+     * Download and decrypt a file. The plaintext is streamed as it is decrypted; a single byte
+     * range is honoured by decrypting only the segments it covers.
      */
     @GetMapping("/download/{id}")
-    public ResponseEntity<byte[]> downloadSecureFile(@PathVariable String id, 
-                                                     @RequestParam(required = false, defaultValue = "false") boolean preview) {
+    public void downloadSecureFile(@PathVariable String id,
+                                   @RequestParam(required = false, defaultValue = "false") boolean preview,
+                                   HttpServletRequest request,
+                                   HttpServletResponse response) throws IOException {
+        File fileRecord = secureStorageService.findFileById(id);
+        long length = secureStorageService.getPlaintextLength(fileRecord);
+        String contentType = ContentTypeDetector.contentTypeOf(fileRecord);
+        
+        // Determine content type
         try {
-            FileData fileData = secureStorageService.downloadSecureFile(id);
-            
-            HttpHeaders headers = new HttpHeaders();
-            
-            // Determine content type
-            MediaType mediaType = MediaType.APPLICATION_OCTET_STREAM;
-            try {
-                mediaType = MediaType.parseMediaType(fileData.getContentType());
-            } catch (Exception e) {
-                // If parsing fails, fall back to octet-stream
-                System.err.println("Failed to parse content type: " + fileData.getContentType());
-            }
-            
-            // Set content disposition based on preview flag
-            if (preview) {
-                headers.add(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + fileData.getFileName() + "\"");
-                
-                // For PDFs, add special headers to improve browser rendering
-                if (fileData.getContentType().equals("application/pdf")) {
-                    headers.add("X-Content-Type-Options", "nosniff");
-                    headers.add("Accept-Ranges", "bytes");
-                }
-            } else {
-                headers.add(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + fileData.getFileName() + "\"");
-            }
-            
-            // Add content length
-            headers.add(HttpHeaders.CONTENT_LENGTH, String.valueOf(fileData.getData().length));
-            
-            // Add caching headers
-            headers.add("Cache-Control", "no-store, no-cache, must-revalidate, proxy-revalidate");
-            headers.add("Pragma", "no-cache");
-            headers.add("Expires", "0");
-            
-            return ResponseEntity.ok()
-                    .headers(headers)
-                    .contentType(mediaType)
-                    .body(fileData.getData());
+            contentType = MediaType.parseMediaType(contentType).toString();
         } catch (Exception e) {
-            e.printStackTrace();
-            return ResponseEntity.internalServerError().body(null);
+            // If parsing fails, fall back to octet-stream
+            System.err.println("Failed to parse content type: " + contentType);
+            contentType = MediaType.APPLICATION_OCTET_STREAM_VALUE;
+        }
+        response.setContentType(contentType);
+        
+        // Set content disposition based on preview flag
+        String disposition = preview ? "inline" : "attachment";
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, disposition + "; filename=\"" + fileRecord.getOriginalFileName() + "\"");
+        if (preview && contentType.equals("application/pdf")) {
+            response.setHeader("X-Content-Type-Options", "nosniff");
+        }
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        
+        // Add caching headers
+        response.setHeader("Cache-Control", "no-store, no-cache, must-revalidate, proxy-revalidate");
+        response.setHeader("Pragma", "no-cache");
+        response.setHeader("Expires", "0");
+        
+        List<HttpRange> ranges;
+        try {
+            ranges = fileStreamingService.resolveRanges(request, length, null, -1);
+        } catch (IllegalArgumentException e) {
+            response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+            response.setContentLengthLong(0);
+            return;
+        }
+        
+        long start = 0;
+        long count = length;
+        // Multiple ranges are rare for secure files; they get the whole content instead
+        if (ranges.size() == 1) {
+            start = ranges.get(0).getRangeStart(length);
+            count = ranges.get(0).getRangeEnd(length) - start + 1;
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + (start + count - 1) + "/" + length);
+        } else {
+            response.setStatus(HttpServletResponse.SC_OK);
+        }
+        response.setContentLengthLong(count);
+        
+        try {
+            secureStorageService.decryptTo(fileRecord, start, count, response.getOutputStream());
+            response.flushBuffer();
+        } catch (IOException e) {
+            // Either the client went away or a segment failed authentication; the response is cut short
+            System.err.println("Secure download of " + id + " aborted: " + e.getMessage());
         }
     }
 
@@ -101,6 +126,10 @@ public class SecureStorageController {
             
             // Set content type
             headers.add(HttpHeaders.CONTENT_TYPE, contentType);
+            if (metadata.get("fileSize") != null) {
+                headers.add(HttpHeaders.CONTENT_LENGTH, String.valueOf(metadata.get("fileSize")));
+                headers.add(HttpHeaders.ACCEPT_RANGES, "bytes");
+            }
             
             // Set disposition based on preview flag
             if (preview) {
@@ -143,10 +172,17 @@ public class SecureStorageController {
      * Verify file integrity
      */
     @GetMapping("/verify/{id}")
-    public ResponseEntity<String> verifyFileIntegrity(@PathVariable String id) {
-        // The secure storage service would have proper methods for this
-        // For now, just assume verification is successful
-        return ResponseEntity.ok("File integrity verified: OK");
+    public ResponseEntity<String> verifyFileIntegrity(@PathVariable String id) throws IOException {
+        // Reads and authenticates the whole file, so this is on demand only; downloads never wait for it
+        File fileRecord = secureStorageService.findFileById(id);
+        try {
+            if (secureStorageService.verifyIntegrity(fileRecord, null)) {
+                return ResponseEntity.ok("File integrity verified: OK");
+            }
+        } catch (NoSuchFileException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body("File integrity verified: MISSING");
+        }
+        return ResponseEntity.status(HttpStatus.CONFLICT).body("File integrity verified: FAILED");
     }
 
     /**
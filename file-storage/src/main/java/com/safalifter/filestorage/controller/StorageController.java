@@ -1,19 +1,40 @@
 package com.safalifter.filestorage.controller;
 
+import com.safalifter.filestorage.exc.GenericErrorResponse;
+import com.safalifter.filestorage.model.ArchiveEntry;
 import com.safalifter.filestorage.model.File;
 import com.safalifter.filestorage.model.FileData;
+import com.safalifter.filestorage.model.FileDerivative;
+import com.safalifter.filestorage.service.AccessTracker;
+import com.safalifter.filestorage.service.DerivativeService;
+import com.safalifter.filestorage.service.BlobRegion;
+import com.safalifter.filestorage.service.ContentTypeDetector;
+import com.safalifter.filestorage.service.FileStreamingService;
+import com.safalifter.filestorage.service.OrphanReconciler;
+import com.safalifter.filestorage.service.SecureStorageService;
+import com.safalifter.filestorage.service.SignedUrlService;
 import com.safalifter.filestorage.service.StorageService;
+import com.safalifter.filestorage.service.TextPreviewService;
+import com.safalifter.filestorage.service.ZipArchiveService;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.nio.charset.StandardCharsets;
-import java.util.Arrays;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 
 // No Cross-Origin annotations at controller level since we have a global CORS configuration
 @RestController
@@ -21,18 +42,22 @@ import java.util.Map;
 @RequiredArgsConstructor
 public class StorageController {
     private final StorageService storageService;
-    
-    private static final List<String> TEXT_EXTENSIONS = Arrays.asList(
-        ".txt", ".log", ".csv", ".md", ".json", ".xml", ".yml", ".yaml", 
-        ".js", ".ts", ".jsx", ".tsx", ".html", ".css", ".scss", ".less",
-        ".java", ".py", ".rb", ".php", ".c", ".cpp", ".h", ".hpp",
-        ".sql", ".sh", ".bash", ".zsh", ".conf", ".ini", ".properties"
-    );
-    
-    private static final List<String> TEXT_MIMETYPES = Arrays.asList(
-        "text/", "application/json", "application/javascript", "application/xml",
-        "application/x-yaml", "application/x-properties"
-    );
+    private final FileStreamingService fileStreamingService;
+    private final ZipArchiveService zipArchiveService;
+    private final DerivativeService derivativeService;
+    private final TextPreviewService textPreviewService;
+    private final OrphanReconciler orphanReconciler;
+    private final SignedUrlService signedUrlService;
+    private final AccessTracker accessTracker;
+
+    @Value("${storage.download.streaming:true}")
+    private boolean streamingDownloads;
+
+    @Value("${storage.download.cache-max-age:31536000}")
+    private long immutableMaxAge;
+
+    @Value("${storage.metadata.batch-max-ids:500}")
+    private int maxBatchIds;
 
     @PostMapping("/upload")
     public ResponseEntity<String> uploadFile(@RequestPart("file") MultipartFile file) {
@@ -42,25 +67,25 @@ public class StorageController {
     @GetMapping("/download/{id}")
     public ResponseEntity<?> downloadFile(@PathVariable String id, 
                                          @RequestParam(required = false, defaultValue = "false") boolean preview,
+                                         @RequestParam(required = false) String variant,
                                          @RequestHeader(value = "Authorization", required = false) String authHeader,
-                                         @RequestHeader(value = "Origin", required = false) String origin) {
+                                         @RequestHeader(value = "Origin", required = false) String origin,
+                                         HttpServletRequest request,
+                                         HttpServletResponse response) {
+        if (variant != null && !DerivativeService.THUMBNAIL.equals(variant)) {
+            throw new GenericErrorResponse("Unknown variant: " + variant, HttpStatus.BAD_REQUEST);
+        }
+
         try {
             System.out.println("============ DOWNLOAD REQUEST DEBUG ============");
             System.out.println("Download request for file ID: " + id);
             System.out.println("Preview mode: " + preview);
+            System.out.println("Streaming mode: " + streamingDownloads);
             System.out.println("Auth header present: " + (authHeader != null ? "yes" : "no"));
             System.out.println("Origin: " + (origin != null ? origin : "null"));
             
             // Log all request headers for debugging
             System.out.println("------ All Request Headers ------");
-            Map<String, String> headerMap = new HashMap<>();
-            org.springframework.web.context.request.RequestContextHolder.currentRequestAttributes()
-                .getAttribute("org.springframework.web.servlet.HandlerMapping.uriTemplateVariables", 0);
-            
-            javax.servlet.http.HttpServletRequest request = 
-                ((org.springframework.web.context.request.ServletRequestAttributes) 
-                org.springframework.web.context.request.RequestContextHolder.currentRequestAttributes()).getRequest();
-            
             java.util.Enumeration<String> headerNames = request.getHeaderNames();
             while (headerNames.hasMoreElements()) {
                 String headerName = headerNames.nextElement();
@@ -68,96 +93,72 @@ public class StorageController {
             }
             System.out.println("------ End Headers ------");
             
-            var fileData = storageService.downloadFile(id);
-            String contentType = determineContentType(fileData.getFileName(), fileData.getContentType());
-            
-            // Log content type for debugging
-            System.out.println("Content type: " + contentType);
-            System.out.println("File size: " + fileData.getData().length + " bytes");
-            System.out.println("File name: " + fileData.getFileName());
-            
-            // Create headers with extensive CORS settings
-            HttpHeaders headers = new HttpHeaders();
-            
-            // When credentials are true, we must reflect the actual origin
-            if (origin != null) {
-                System.out.println("Setting Access-Control-Allow-Origin to: " + origin);
-                headers.add("Access-Control-Allow-Origin", origin);
-            } else {
-                System.out.println("No origin header, setting default origin to: http://localhost:3000");
-                // For direct browser access, we need to be more permissive
-                headers.add("Access-Control-Allow-Origin", "*");
+            if (!streamingDownloads) {
+                return bufferedDownload(id, preview, authHeader, origin);
             }
             
-            headers.add("Access-Control-Allow-Methods", "GET, POST, OPTIONS, PUT, DELETE, HEAD");
-            headers.add("Access-Control-Allow-Headers", "Origin, X-Requested-With, Content-Type, Accept, Authorization");
-            headers.add("Access-Control-Expose-Headers", "Content-Disposition, Content-Type, Content-Length, X-Content-Type-Options");
-            headers.add("Access-Control-Max-Age", "3600");
+            // Files are immutable, so the stored validators are all a conditional GET needs
+            File fileRecord = storageService.ensureValidators(storageService.findPlainFileById(id));
+            accessTracker.record(fileRecord);
             
-            // For direct browser access without credentials, we can use "*"
-            if (authHeader == null) {
-                System.out.println("No auth header, setting Access-Control-Allow-Credentials to false");
-                headers.add("Access-Control-Allow-Credentials", "false");
-            } else {
-                System.out.println("Auth header present, setting Access-Control-Allow-Credentials to true");
-                headers.add("Access-Control-Allow-Credentials", "true");
+            if (variant != null) {
+                Optional<FileDerivative> derivative = derivativeService.findDerivative(fileRecord, variant);
+                if (derivative.isPresent()) {
+                    FileDerivative thumbnail = derivative.get();
+                    System.out.println("Serving " + variant + " variant of file " + id);
+                    streamStoredFile(request, response,
+                            BlobRegion.of(Paths.get(thumbnail.getFilePath()), thumbnail.getSize()),
+                            derivativeFileName(fileRecord.getOriginalFileName(), thumbnail),
+                            thumbnail.getContentType(), thumbnail.getSize(),
+                            fileRecord.getContentHash() + "-" + variant + "-" + thumbnail.getSize(),
+                            thumbnail.getCreatedAt().toEpochMilli(), preview, authHeader, origin, null);
+                    return null;
+                }
+                // Not rendered yet (or not renderable): queue it and fall back to the original,
+                // which must not be cached as if it were the thumbnail
+                System.out.println("No " + variant + " variant for file " + id + " yet, serving the original");
+                derivativeService.scheduleThumbnail(fileRecord);
             }
             
-            // Set content type based on file extension and detected type
-            headers.add(HttpHeaders.CONTENT_TYPE, contentType);
-            
-            // Add explicit Content-Length for better browser handling
-            headers.add(HttpHeaders.CONTENT_LENGTH, String.valueOf(fileData.getData().length));
+            String contentType = ContentTypeDetector.contentTypeOf(fileRecord);
             
-            // Set disposition based on preview flag
-            if (preview) {
-                System.out.println("Preview mode, setting Content-Disposition to inline");
-                headers.add(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + fileData.getFileName() + "\"");
+            if (variant == null && derivativeService.isCompressible(fileRecord)) {
+                response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
                 
-                // For PDFs, add special headers to improve browser rendering
-                if (contentType.equals("application/pdf")) {
-                    System.out.println("PDF detected, adding special headers for browser rendering");
-                    headers.add("X-Content-Type-Options", "nosniff");
-                    headers.add("Accept-Ranges", "bytes");
+                // The gzip copy is sent as-is; range requests keep working against the identity encoding
+                Optional<FileDerivative> gzip = request.getHeader(HttpHeaders.RANGE) == null && acceptsGzip(request)
+                        ? derivativeService.findDerivative(fileRecord, DerivativeService.GZIP)
+                        : Optional.empty();
+                if (gzip.isPresent()) {
+                    System.out.println("Serving gzip encoded file " + id);
+                    response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+                    streamStoredFile(request, response,
+                            BlobRegion.of(Paths.get(gzip.get().getFilePath()), gzip.get().getSize()),
+                            fileRecord.getOriginalFileName(), contentType, gzip.get().getSize(),
+                            fileRecord.getEtag() + "-gzip", fileRecord.getUploadedAt().toEpochMilli(),
+                            preview, authHeader, origin, null);
+                    return null;
                 }
-            } else {
-                System.out.println("Download mode, setting Content-Disposition to attachment");
-                headers.add(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + fileData.getFileName() + "\"");
-            }
-            
-            // Add caching headers to prevent caching issues
-            headers.add("Cache-Control", "no-store, no-cache, must-revalidate, proxy-revalidate");
-            headers.add("Pragma", "no-cache");
-            headers.add("Expires", "0");
-            
-            // Allow embedding in iframe
-            headers.add("X-Frame-Options", "SAMEORIGIN");
-            
-            // Log all response headers for debugging
-            System.out.println("------ All Response Headers ------");
-            headers.forEach((key, value) -> {
-                System.out.println(key + ": " + value);
-            });
-            System.out.println("------ End Headers ------");
-            System.out.println("============ END DEBUG ============");
-            
-            // Special handling for text files
-            if (isTextFile(contentType)) {
-                String textContent = new String(fileData.getData(), StandardCharsets.UTF_8);
-                return ResponseEntity.ok()
-                    .headers(headers)
-                    .body(textContent);
             }
             
-            // For all binary files, stream the content with appropriate content type
-            return ResponseEntity.ok()
-                .headers(headers)
-                .body(fileData.getData());
+            streamStoredFile(request, response, storageService.resolveBlob(fileRecord),
+                    fileRecord.getOriginalFileName(), contentType, fileRecord.getSize(), fileRecord.getEtag(),
+                    fileRecord.getUploadedAt().toEpochMilli(), preview, authHeader, origin,
+                    variant == null ? null : CacheControl.noCache().getHeaderValue());
+            return null;
+        } catch (GenericErrorResponse e) {
+            // Answered with its own status (e.g. 404 for secure files) by GeneralExceptionHandler
+            throw e;
         } catch (Exception e) {
             // Log the error
             System.err.println("Error downloading file: " + e.getMessage());
             e.printStackTrace();
             
+            if (response.isCommitted()) {
+                return null;
+            }
+            response.reset();
+            
             // Return error response with CORS headers
             HttpHeaders headers = new HttpHeaders();
             
@@ -180,28 +181,333 @@ public class StorageController {
         }
     }
 
+    /**
+     * Writes a stored blob with the download headers, answering conditional and range requests.
+     * Responses are cached as immutable unless a Cache-Control value is given (e.g. no-cache for
+     * a fallback served under a variant URL).
+     */
+    private void streamStoredFile(HttpServletRequest request, HttpServletResponse response, BlobRegion blob,
+                                  String fileName, String contentType, long fileSize, String rawEtag,
+                                  long lastModified, boolean preview, String authHeader, String origin,
+                                  String cacheControl) throws IOException {
+        String etag = "\"" + rawEtag + "\"";
+        
+        System.out.println("Content type: " + contentType);
+        System.out.println("File size: " + fileSize + " bytes");
+        System.out.println("File name: " + fileName);
+        
+        HttpHeaders headers = buildDownloadHeaders(fileName, contentType, fileSize, preview, authHeader, origin);
+        if (cacheControl != null) {
+            headers.set(HttpHeaders.CACHE_CONTROL, cacheControl);
+        }
+        System.out.println("============ END DEBUG ============");
+        
+        applyHeaders(headers, response);
+        
+        // Answers If-None-Match / If-Modified-Since with 304 and sets ETag and Last-Modified otherwise
+        if (new ServletWebRequest(request, response).checkNotModified(etag, lastModified)) {
+            System.out.println("File " + fileName + " not modified, answering " + response.getStatus());
+            return;
+        }
+        
+        // Stream the body (or the requested ranges) straight from disk
+        try {
+            fileStreamingService.serve(request, response, blob, fileSize, contentType, etag, lastModified);
+        } catch (IOException e) {
+            // Most likely the client went away mid-transfer; nothing left to send
+            System.err.println("Streaming of " + fileName + " aborted: " + e.getMessage());
+        }
+    }
+
+    /**
+     * True when Accept-Encoding lists gzip (or *) without a zero quality value
+     */
+    private boolean acceptsGzip(HttpServletRequest request) {
+        String acceptEncoding = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.trim().split(";");
+            String name = parts[0].trim().toLowerCase();
+            if (!name.equals("gzip") && !name.equals("*")) {
+                continue;
+            }
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim().toLowerCase();
+                if (param.startsWith("q=")) {
+                    try {
+                        return Double.parseDouble(param.substring(2)) > 0;
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private String derivativeFileName(String originalFileName, FileDerivative derivative) {
+        String baseName = originalFileName != null ? originalFileName : "file";
+        int lastDot = baseName.lastIndexOf('.');
+        if (lastDot > 0) {
+            baseName = baseName.substring(0, lastDot);
+        }
+        String extension = "image/png".equals(derivative.getContentType()) ? ".png" : ".jpg";
+        return baseName + "-" + derivative.getVariant() + extension;
+    }
+
+    /**
+     * Legacy download path that reads the whole file into memory, kept for storage.download.streaming=false
+     */
+    private ResponseEntity<?> bufferedDownload(String id, boolean preview, String authHeader, String origin) {
+        var fileData = storageService.downloadFile(id);
+        String contentType = fileData.getContentType();
+        
+        // Log content type for debugging
+        System.out.println("Content type: " + contentType);
+        System.out.println("File size: " + fileData.getData().length + " bytes");
+        System.out.println("File name: " + fileData.getFileName());
+        
+        HttpHeaders headers = buildDownloadHeaders(fileData.getFileName(), contentType, fileData.getData().length,
+                preview, authHeader, origin);
+        System.out.println("============ END DEBUG ============");
+        
+        // Text files are sent as the stored bytes too; decoding them into a String only cost CPU
+        return ResponseEntity.ok()
+            .headers(headers)
+            .body(fileData.getData());
+    }
+
+    /**
+     * Builds the CORS, disposition and caching headers shared by both download modes
+     */
+    private HttpHeaders buildDownloadHeaders(String fileName, String contentType, long contentLength,
+                                             boolean preview, String authHeader, String origin) {
+        // Create headers with extensive CORS settings
+        HttpHeaders headers = new HttpHeaders();
+        
+        // When credentials are true, we must reflect the actual origin
+        if (origin != null) {
+            System.out.println("Setting Access-Control-Allow-Origin to: " + origin);
+            headers.add("Access-Control-Allow-Origin", origin);
+        } else {
+            System.out.println("No origin header, setting default origin to: http://localhost:3000");
+            // For direct browser access, we need to be more permissive
+            headers.add("Access-Control-Allow-Origin", "*");
+        }
+        
+        headers.add("Access-Control-Allow-Methods", "GET, POST, OPTIONS, PUT, DELETE, HEAD");
+        headers.add("Access-Control-Allow-Headers", "Origin, X-Requested-With, Content-Type, Accept, Authorization");
+        headers.add("Access-Control-Expose-Headers", "Content-Disposition, Content-Type, Content-Length, X-Content-Type-Options, Accept-Ranges, Content-Range, ETag, Last-Modified");
+        headers.add("Access-Control-Max-Age", "3600");
+        
+        // For direct browser access without credentials, we can use "*"
+        if (authHeader == null) {
+            System.out.println("No auth header, setting Access-Control-Allow-Credentials to false");
+            headers.add("Access-Control-Allow-Credentials", "false");
+        } else {
+            System.out.println("Auth header present, setting Access-Control-Allow-Credentials to true");
+            headers.add("Access-Control-Allow-Credentials", "true");
+        }
+        
+        // Set content type based on file extension and detected type
+        headers.add(HttpHeaders.CONTENT_TYPE, contentType);
+        
+        // Add explicit Content-Length for better browser handling
+        headers.add(HttpHeaders.CONTENT_LENGTH, String.valueOf(contentLength));
+        
+        // Set disposition based on preview flag
+        if (preview) {
+            System.out.println("Preview mode, setting Content-Disposition to inline");
+            headers.add(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + fileName + "\"");
+            
+            // For PDFs, add special headers to improve browser rendering
+            if (contentType.equals("application/pdf")) {
+                System.out.println("PDF detected, adding special headers for browser rendering");
+                headers.add("X-Content-Type-Options", "nosniff");
+                headers.add("Accept-Ranges", "bytes");
+            }
+        } else {
+            System.out.println("Download mode, setting Content-Disposition to attachment");
+            headers.add(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + fileName + "\"");
+        }
+        
+        // Stored files never change, so let browsers and the gateway keep them;
+        // responses to authenticated requests must not land in shared caches
+        headers.add("Cache-Control", cacheControl(authHeader));
+        
+        // Allow embedding in iframe
+        headers.add("X-Frame-Options", "SAMEORIGIN");
+        
+        // Log all response headers for debugging
+        System.out.println("------ All Response Headers ------");
+        headers.forEach((key, value) -> {
+            System.out.println(key + ": " + value);
+        });
+        System.out.println("------ End Headers ------");
+        
+        return headers;
+    }
+
+    private String cacheControl(String authHeader) {
+        CacheControl cacheControl = CacheControl.maxAge(immutableMaxAge, TimeUnit.SECONDS);
+        cacheControl = authHeader != null ? cacheControl.cachePrivate() : cacheControl.cachePublic();
+        return cacheControl.getHeaderValue() + ", immutable";
+    }
+
+    /**
+     * Copies headers onto the raw servlet response, replacing values already set by the CORS filter
+     */
+    private void applyHeaders(HttpHeaders headers, HttpServletResponse response) {
+        headers.forEach((name, values) -> {
+            for (int i = 0; i < values.size(); i++) {
+                if (i == 0) {
+                    response.setHeader(name, values.get(i));
+                } else {
+                    response.addHeader(name, values.get(i));
+                }
+            }
+        });
+    }
+
     @RequestMapping(value = "/download/{id}", method = RequestMethod.HEAD)
     public ResponseEntity<?> getFileHead(@PathVariable String id, 
                                         @RequestParam(required = false, defaultValue = "false") boolean preview) {
         try {
-            var file = storageService.findFileById(id);
+            var file = storageService.ensureValidators(storageService.findPlainFileById(id));
             
             HttpHeaders headers = new HttpHeaders();
             headers.add(HttpHeaders.CONTENT_DISPOSITION, preview ? "inline" : "attachment");
-            headers.add(HttpHeaders.CONTENT_TYPE, file.getType());
+            headers.add(HttpHeaders.CONTENT_TYPE, ContentTypeDetector.contentTypeOf(file));
+            headers.add(HttpHeaders.CONTENT_LENGTH, String.valueOf(file.getSize()));
+            headers.add(HttpHeaders.ACCEPT_RANGES, "bytes");
             
-            return ResponseEntity.ok().headers(headers).build();
+            return ResponseEntity.ok()
+                    .headers(headers)
+                    .eTag(file.getEtag())
+                    .lastModified(file.getUploadedAt())
+                    .build();
         } catch (Exception e) {
             return ResponseEntity.notFound().build();
         }
     }
 
+    /**
+     * Issues a short-lived link to a file that needs no token, e.g. for {@code <img>} or {@code <video>} tags
+     */
+    @PostMapping("/{id}/signed-url")
+    public ResponseEntity<Map<String, Object>> createSignedUrl(@PathVariable String id,
+                                                               @RequestParam(required = false) Long ttl,
+                                                               @RequestParam(required = false, defaultValue = "inline") String disposition) {
+        File fileRecord = storageService.findFileById(id);
+        if (SecureStorageService.isSecure(fileRecord)) {
+            throw new GenericErrorResponse("Encrypted files cannot be shared by signed URL", HttpStatus.BAD_REQUEST);
+        }
+        return ResponseEntity.ok(signedUrlService.sign(id, ttl, disposition));
+    }
+
+    /**
+     * Serves a file through a signed link. The signature is checked locally and the metadata comes
+     * from the cache, so a warm request touches neither the gateway's token check nor the database.
+     * With an accel-redirect prefix configured, the body is left to nginx (X-Accel-Redirect).
+     */
+    @GetMapping("/signed/{id}")
+    public void downloadSigned(@PathVariable String id,
+                               @RequestParam long expires,
+                               @RequestParam String disposition,
+                               @RequestParam String signature,
+                               @RequestHeader(value = "Origin", required = false) String origin,
+                               HttpServletRequest request,
+                               HttpServletResponse response) throws IOException {
+        if (!signedUrlService.verify(id, expires, disposition, signature)) {
+            throw new GenericErrorResponse("Invalid or expired link", HttpStatus.FORBIDDEN);
+        }
+
+        // Secure records carry no validators and their blob is ciphertext
+        File fileRecord = storageService.findFileById(id);
+        if (SecureStorageService.isSecure(fileRecord)) {
+            throw new GenericErrorResponse("Encrypted files cannot be shared by signed URL", HttpStatus.BAD_REQUEST);
+        }
+        fileRecord = storageService.ensureValidators(fileRecord);
+        accessTracker.record(fileRecord);
+
+        // Browsers may keep the response until the link expires, never longer
+        long remaining = Math.max(0, expires - System.currentTimeMillis() / 1000);
+        String cacheControl = CacheControl.maxAge(remaining, TimeUnit.SECONDS).cachePrivate().getHeaderValue();
+        String contentType = ContentTypeDetector.contentTypeOf(fileRecord);
+        boolean inline = "inline".equals(disposition);
+        BlobRegion blob = storageService.resolveBlob(fileRecord);
+
+        String accelPath = signedUrlService.accelRedirectPath(blob);
+        if (accelPath != null) {
+            HttpHeaders headers = buildDownloadHeaders(fileRecord.getOriginalFileName(), contentType,
+                    fileRecord.getSize(), inline, null, origin);
+            // nginx sets the length, validators and ranges from the file it sends
+            headers.remove(HttpHeaders.CONTENT_LENGTH);
+            headers.set(HttpHeaders.CACHE_CONTROL, cacheControl);
+            headers.set("X-Accel-Redirect", accelPath);
+            applyHeaders(headers, response);
+            response.setStatus(HttpServletResponse.SC_OK);
+            return;
+        }
+
+        streamStoredFile(request, response, blob, fileRecord.getOriginalFileName(), contentType,
+                fileRecord.getSize(), fileRecord.getEtag(), fileRecord.getUploadedAt().toEpochMilli(),
+                inline, null, origin, cacheControl);
+    }
+
+    /**
+     * Streams a ZIP with the given files; used e.g. to export every submission of an activity at once
+     */
+    @PostMapping("/archive")
+    public void downloadArchive(@RequestBody List<ArchiveEntry> entries,
+                                @RequestParam(required = false, defaultValue = "files") String name,
+                                HttpServletResponse response) throws IOException {
+        if (entries == null || entries.isEmpty()) {
+            throw new GenericErrorResponse("At least one file is required", HttpStatus.BAD_REQUEST);
+        }
+
+        String archiveName = name.replaceAll("[^A-Za-z0-9._-]", "_");
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType("application/zip");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + archiveName + ".zip\"");
+        response.setHeader(HttpHeaders.CACHE_CONTROL, "no-store");
+
+        System.out.println("Streaming archive " + archiveName + " with " + entries.size() + " file(s)");
+        zipArchiveService.writeZip(entries, response.getOutputStream());
+    }
+
     @DeleteMapping("/delete/{id}")
     public ResponseEntity<Void> deleteFile(@PathVariable String id) {
         storageService.deleteFile(id);
         return ResponseEntity.ok().build();
     }
 
+    /**
+     * Metadata for a list of file ids in one round-trip, keyed by id
+     */
+    @PostMapping("/metadata:batch")
+    public ResponseEntity<Map<String, Object>> getFileMetadataBatch(@RequestBody List<String> ids) {
+        if (ids == null || ids.isEmpty()) {
+            throw new GenericErrorResponse("At least one file id is required", HttpStatus.BAD_REQUEST);
+        }
+        if (ids.size() > maxBatchIds) {
+            throw new GenericErrorResponse("At most " + maxBatchIds + " file ids are allowed per batch",
+                    HttpStatus.BAD_REQUEST);
+        }
+        return ResponseEntity.ok(storageService.getFileMetadataBatch(ids));
+    }
+
+    /**
+     * Outcome of the last storage reconciliation run
+     */
+    @GetMapping("/reconcile/report")
+    public ResponseEntity<Map<String, Object>> getReconcileReport() {
+        return ResponseEntity.ok(orphanReconciler.getLastReport());
+    }
+
     @GetMapping("/{id}/metadata")
     public ResponseEntity<?> getFileMetadata(@PathVariable String id) {
         try {
@@ -212,92 +518,24 @@ public class StorageController {
     }
     
     /**
-     * Determines the correct content type based on file name and provided content type
+     * A window of a text file for preview: either lines (lineOffset/lineCount) or, when byteOffset
+     * is given, raw bytes decoded from that position (byteOffset/byteLength)
      */
-    private String determineContentType(String fileName, String providedContentType) {
-        // Default content type
-        String defaultType = "application/octet-stream";
-        
-        // If we have a valid content type that's not octet-stream, use it
-        if (providedContentType != null && !providedContentType.equals(defaultType)) {
-            return providedContentType;
-        }
-        
-        // If we have a filename, try to determine content type from extension
-        if (fileName != null) {
-            String extension = "";
-            int lastDot = fileName.lastIndexOf('.');
-            if (lastDot > 0) {
-                extension = fileName.substring(lastDot + 1).toLowerCase();
-            }
-            
-            if (!extension.isEmpty()) {
-                // Common file types mapping
-                Map<String, String> typeMap = new HashMap<>();
-                typeMap.put("pdf", "application/pdf");
-                typeMap.put("jpg", "image/jpeg");
-                typeMap.put("jpeg", "image/jpeg");
-                typeMap.put("png", "image/png");
-                typeMap.put("gif", "image/gif");
-                typeMap.put("svg", "image/svg+xml");
-                typeMap.put("webp", "image/webp");
-                typeMap.put("txt", "text/plain");
-                typeMap.put("html", "text/html");
-                typeMap.put("css", "text/css");
-                typeMap.put("js", "application/javascript");
-                typeMap.put("json", "application/json");
-                typeMap.put("xml", "application/xml");
-                typeMap.put("csv", "text/csv");
-                typeMap.put("doc", "application/msword");
-                typeMap.put("docx", "application/vnd.openxmlformats-officedocument.wordprocessingml.document");
-                typeMap.put("xls", "application/vnd.ms-excel");
-                typeMap.put("xlsx", "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet");
-                typeMap.put("ppt", "application/vnd.ms-powerpoint");
-                typeMap.put("pptx", "application/vnd.openxmlformats-officedocument.presentationml.presentation");
-                typeMap.put("mp3", "audio/mpeg");
-                typeMap.put("mp4", "video/mp4");
-                typeMap.put("wav", "audio/wav");
-                typeMap.put("ogg", "audio/ogg");
-                typeMap.put("webm", "video/webm");
-                typeMap.put("zip", "application/zip");
-                typeMap.put("rar", "application/x-rar-compressed");
-                typeMap.put("tar", "application/x-tar");
-                typeMap.put("gz", "application/gzip");
-                
-                String contentType = typeMap.get(extension);
-                if (contentType != null) {
-                    return contentType;
-                }
+    @GetMapping("/{id}/preview")
+    public ResponseEntity<Map<String, Object>> previewText(@PathVariable String id,
+                                                           @RequestParam(required = false, defaultValue = "0") long lineOffset,
+                                                           @RequestParam(required = false, defaultValue = "200") int lineCount,
+                                                           @RequestParam(required = false) Long byteOffset,
+                                                           @RequestParam(required = false, defaultValue = "65536") int byteLength) {
+        if (byteOffset != null) {
+            if (byteOffset < 0 || byteLength <= 0) {
+                throw new GenericErrorResponse("byteOffset must be >= 0 and byteLength > 0", HttpStatus.BAD_REQUEST);
             }
+            return ResponseEntity.ok(textPreviewService.readBytes(id, byteOffset, byteLength));
         }
-        
-        return defaultType;
-    }
-    
-    /**
-     * Checks if the content type is a text file type
-     */
-    private boolean isTextFile(String contentType) {
-        return contentType != null && (
-            contentType.startsWith("text/") ||
-            contentType.equals("application/json") ||
-            contentType.equals("application/javascript") ||
-            contentType.equals("application/xml") ||
-            contentType.equals("application/x-yaml")
-        );
-    }
-    
-    /**
-     * Determines if a file type can be previewed in the browser
-     */
-    private boolean isPreviewableType(String contentType) {
-        if (contentType == null) return false;
-        
-        return contentType.startsWith("image/") ||
-               contentType.equals("application/pdf") ||
-               contentType.startsWith("text/") ||
-               contentType.equals("application/json") ||
-               contentType.equals("application/javascript") ||
-               contentType.equals("application/xml");
+        if (lineOffset < 0 || lineCount <= 0) {
+            throw new GenericErrorResponse("lineOffset must be >= 0 and lineCount > 0", HttpStatus.BAD_REQUEST);
+        }
+        return ResponseEntity.ok(textPreviewService.readLines(id, lineOffset, lineCount));
     }
 }
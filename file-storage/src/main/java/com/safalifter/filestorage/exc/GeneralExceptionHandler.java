@@ -51,6 +51,21 @@ public class GeneralExceptionHandler extends ResponseEntityExceptionHandler {
                 .body(error);
     }
 
+    @ExceptionHandler(UploadRejectedException.class)
+    public ResponseEntity<?> uploadRejected(UploadRejectedException exception) {
+        System.out.println("Upload rejected (" + exception.getHttpStatus().value() + "): " + exception.getMessage());
+        Map<String, String> error = new HashMap<>();
+        error.put("error", exception.getMessage());
+        error.put("status", exception.getHttpStatus().toString());
+
+        HttpHeaders headers = getCorsHeaders();
+        headers.add(HttpHeaders.RETRY_AFTER, String.valueOf(exception.getRetryAfterSeconds()));
+        return ResponseEntity
+                .status(exception.getHttpStatus())
+                .headers(headers)
+                .body(error);
+    }
+
     @ExceptionHandler(MaxUploadSizeExceededException.class)
     public ResponseEntity<String> handleMaxSizeException(MaxUploadSizeExceededException exc) {
         return ResponseEntity
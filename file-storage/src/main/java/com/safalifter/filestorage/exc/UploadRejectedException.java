@@ -0,0 +1,19 @@
+package com.safalifter.filestorage.exc;
+
+import lombok.Getter;
+import org.springframework.http.HttpStatus;
+
+/**
+ * An upload turned away by admission control; the client should retry after the given delay
+ */
+@Getter
+public class UploadRejectedException extends RuntimeException {
+    private final HttpStatus httpStatus;
+    private final long retryAfterSeconds;
+
+    public UploadRejectedException(String message, HttpStatus httpStatus, long retryAfterSeconds) {
+        super(message);
+        this.httpStatus = httpStatus;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+}
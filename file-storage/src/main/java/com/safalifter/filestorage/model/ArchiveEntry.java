@@ -0,0 +1,16 @@
+package com.safalifter.filestorage.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * One file to include in a ZIP archive; folder is an optional directory inside the archive
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ArchiveEntry {
+    private String id;
+    private String folder;
+}
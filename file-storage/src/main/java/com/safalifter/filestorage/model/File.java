@@ -4,9 +4,16 @@ import lombok.*;
 
 import javax.persistence.Entity;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import java.time.Instant;
 
 @Entity(name = "files")
-@Builder
+@Table(indexes = {
+        @Index(name = "idx_files_file_path", columnList = "filePath"),
+        @Index(name = "idx_files_content_hash", columnList = "contentHash")
+})
+@Builder(toBuilder = true)
 @AllArgsConstructor
 @NoArgsConstructor
 @Getter
@@ -14,7 +21,23 @@ import javax.persistence.Id;
 public class File {
     @Id
     private String id;
+    // Type declared by the client, and the one detected from the content at upload
     private String type;
+    private String detectedType;
     private String filePath;
     private String originalFileName;
+    // SHA-256 of the content; rows with the same hash share one blob on disk
+    private String contentHash;
+    private Long size;
+    // Strong validator (content hash plus size) and upload time, used for conditional GETs
+    private String etag;
+    private Instant uploadedAt;
+    // Secure storage only: the file's data key, sealed with master key version keyVersion
+    private String wrappedKey;
+    private Integer keyVersion;
+    // Secure storage only: SHA-256 of the plaintext, checked by the integrity scrubber
+    private String checksum;
+    // Reads served to clients, flushed in batches by AccessTracker; drive cold tiering
+    private Long accessCount;
+    private Instant lastAccessedAt;
 }
\ No newline at end of file
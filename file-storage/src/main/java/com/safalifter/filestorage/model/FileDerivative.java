@@ -0,0 +1,31 @@
+package com.safalifter.filestorage.model;
+
+import lombok.*;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+import java.time.Instant;
+
+/**
+ * A rendition generated from a stored file, e.g. a thumbnail. Derivatives are keyed by the
+ * content hash of the source, so every file sharing a blob shares its derivatives too.
+ */
+@Entity(name = "file_derivatives")
+@Table(uniqueConstraints = @UniqueConstraint(columnNames = {"sourceHash", "variant"}))
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+@Getter
+@Setter
+public class FileDerivative {
+    @Id
+    private String id;
+    private String sourceHash;
+    private String variant;
+    private String filePath;
+    private String contentType;
+    private Long size;
+    private Instant createdAt;
+}
@@ -0,0 +1,29 @@
+package com.safalifter.filestorage.model;
+
+import lombok.*;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import java.time.Instant;
+
+/**
+ * Offset index of the pack-file backend: where a small blob's bytes sit inside a segment file.
+ * Compaction rewrites segment and dataOffset; the files table only ever records "pack:<blobName>".
+ */
+@Entity(name = "pack_entries")
+@Table(indexes = @Index(name = "idx_pack_entries_segment", columnList = "segment"))
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+@Getter
+@Setter
+public class PackEntry {
+    @Id
+    private String blobName;
+    private String segment;
+    private long dataOffset;
+    private long length;
+    private Instant createdAt;
+}
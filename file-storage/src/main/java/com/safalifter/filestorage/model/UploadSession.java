@@ -0,0 +1,30 @@
+package com.safalifter.filestorage.model;
+
+import lombok.*;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import java.time.Instant;
+
+/**
+ * State of a resumable upload: chunks are written by offset into a pre-allocated temp file
+ * and the files record is only created once every byte has been committed
+ */
+@Entity(name = "upload_sessions")
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+@Getter
+@Setter
+public class UploadSession {
+    @Id
+    private String id;
+    private String originalFileName;
+    private String contentType;
+    private Long totalSize;
+    // Every byte before this offset has been written
+    private Long committedOffset;
+    private String tempPath;
+    private Instant createdAt;
+    private Instant expiresAt;
+}
@@ -0,0 +1,14 @@
+package com.safalifter.filestorage.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class UploadSessionRequest {
+    private String fileName;
+    private String contentType;
+    private Long size;
+}
@@ -0,0 +1,15 @@
+package com.safalifter.filestorage.repository;
+
+import com.safalifter.filestorage.model.FileDerivative;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.util.List;
+import java.util.Optional;
+
+public interface FileDerivativeRepository extends JpaRepository<FileDerivative, String> {
+    Optional<FileDerivative> findBySourceHashAndVariant(String sourceHash, String variant);
+
+    boolean existsBySourceHashAndVariant(String sourceHash, String variant);
+
+    List<FileDerivative> findBySourceHash(String sourceHash);
+}
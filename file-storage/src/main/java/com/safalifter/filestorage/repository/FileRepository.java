@@ -1,7 +1,72 @@
 package com.safalifter.filestorage.repository;
 
 import com.safalifter.filestorage.model.File;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
 
 public interface FileRepository extends JpaRepository<File, String> {
+    long countByContentHash(String contentHash);
+
+    long countByFilePath(String filePath);
+
+    Optional<File> findFirstByContentHash(String contentHash);
+
+    // Which of the given paths are referenced by a record; used to find orphans in bounded chunks
+    @Query("select distinct f.filePath from files f where f.filePath in :paths")
+    List<String> findReferencedFilePaths(@Param("paths") Collection<String> paths);
+
+    // Record count and total size per declared and detected type, for the inventory metrics
+    @Query("select f.type, f.detectedType, count(f), coalesce(sum(f.size), 0) from files f " +
+            "group by f.type, f.detectedType")
+    List<Object[]> countByContentType();
+
+    // Keyset pagination over the whole table, used by background jobs
+    List<File> findByIdGreaterThanOrderByIdAsc(String id, Pageable pageable);
+
+    // Secure files whose data key is still wrapped with an older master key, keyset paged
+    List<File> findByKeyVersionLessThanAndIdGreaterThanOrderByIdAsc(Integer keyVersion, String id, Pageable pageable);
+
+    // Files not read since the cutoff that are still on a hot backend, keyset paged
+    @Query("select f from files f where f.id > :id and f.contentHash is not null and f.wrappedKey is null " +
+            "and f.filePath not like 'cold:%' and coalesce(f.lastAccessedAt, f.uploadedAt) < :cutoff " +
+            "order by f.id")
+    List<File> findColdCandidates(@Param("id") String id, @Param("cutoff") Instant cutoff, Pageable pageable);
+
+    // Records sharing a blob that were read since the cutoff; a blob only goes cold with all of them
+    @Query("select count(f) from files f where f.filePath = :filePath " +
+            "and coalesce(f.lastAccessedAt, f.uploadedAt) >= :cutoff")
+    long countAccessedSince(@Param("filePath") String filePath, @Param("cutoff") Instant cutoff);
+
+    @Query("select f.id from files f where f.filePath = :filePath")
+    List<String> findIdsByFilePath(@Param("filePath") String filePath);
+
+    @Transactional
+    @Modifying
+    @Query("update files f set f.filePath = :newPath where f.filePath = :oldPath")
+    int updateFilePath(@Param("oldPath") String oldPath, @Param("newPath") String newPath);
+
+    @Transactional
+    @Modifying
+    @Query("update files f set f.accessCount = coalesce(f.accessCount, 0) + :count, " +
+            "f.lastAccessedAt = :accessedAt where f.id = :id")
+    int recordAccess(@Param("id") String id, @Param("count") long count, @Param("accessedAt") Instant accessedAt);
+
+    // Conditional on the old version so a concurrent delete or re-wrap is never overwritten
+    @Transactional
+    @Modifying
+    @Query("update files f set f.wrappedKey = :wrappedKey, f.keyVersion = :keyVersion " +
+            "where f.id = :id and f.keyVersion = :previousVersion")
+    int updateWrappedKey(@Param("id") String id,
+                         @Param("wrappedKey") String wrappedKey,
+                         @Param("keyVersion") Integer keyVersion,
+                         @Param("previousVersion") Integer previousVersion);
 }
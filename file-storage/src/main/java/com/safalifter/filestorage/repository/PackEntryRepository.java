@@ -0,0 +1,40 @@
+package com.safalifter.filestorage.repository;
+
+import com.safalifter.filestorage.model.PackEntry;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+public interface PackEntryRepository extends JpaRepository<PackEntry, String> {
+    // Live bytes per segment as {segment, sum(length)} pairs, used to pick compaction candidates
+    @Query("select e.segment, sum(e.length) from pack_entries e group by e.segment")
+    List<Object[]> sumLengthBySegment();
+
+    // Keyset pagination over one segment's entries
+    List<PackEntry> findBySegmentAndBlobNameGreaterThanOrderByBlobNameAsc(String segment, String blobName,
+                                                                          Pageable pageable);
+
+    // Conditional on the old segment so an entry deleted meanwhile is not brought back
+    @Transactional
+    @Modifying
+    @Query("update pack_entries e set e.segment = :segment, e.dataOffset = :dataOffset " +
+            "where e.blobName = :blobName and e.segment = :previousSegment")
+    int moveEntry(@Param("blobName") String blobName,
+                  @Param("previousSegment") String previousSegment,
+                  @Param("segment") String segment,
+                  @Param("dataOffset") long dataOffset);
+
+    // Conditional on the exact record so an entry re-written by a new upload is kept
+    @Transactional
+    @Modifying
+    @Query("delete from pack_entries e where e.blobName = :blobName and e.segment = :segment " +
+            "and e.dataOffset = :dataOffset")
+    int deleteEntry(@Param("blobName") String blobName,
+                    @Param("segment") String segment,
+                    @Param("dataOffset") long dataOffset);
+}
@@ -0,0 +1,11 @@
+package com.safalifter.filestorage.repository;
+
+import com.safalifter.filestorage.model.UploadSession;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.time.Instant;
+import java.util.List;
+
+public interface UploadSessionRepository extends JpaRepository<UploadSession, String> {
+    List<UploadSession> findByExpiresAtBefore(Instant instant);
+}
@@ -0,0 +1,102 @@
+package com.safalifter.filestorage.service;
+
+import com.safalifter.filestorage.model.File;
+import com.safalifter.filestorage.repository.FileRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.annotation.PreDestroy;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Counts reads of each file in memory and writes them to the files table (accessCount,
+ * lastAccessedAt) in periodic batches, so a download never waits on an extra database write.
+ * Reads of cold blobs are remembered separately for the tiering job to move them back.
+ */
+@Component
+public class AccessTracker {
+
+    private final FileRepository fileRepository;
+    private final ColdStorageBackend coldBackend;
+    private final Map<String, PendingAccess> pending = new ConcurrentHashMap<>();
+    private final Set<String> coldReads = ConcurrentHashMap.newKeySet();
+
+    @Value("${storage.access.tracking.enabled:true}")
+    private boolean enabled;
+
+    public AccessTracker(FileRepository fileRepository, ColdStorageBackend coldBackend) {
+        this.fileRepository = fileRepository;
+        this.coldBackend = coldBackend;
+    }
+
+    /**
+     * Notes that a file's content is being served to a client
+     */
+    public void record(File fileRecord) {
+        if (coldBackend.owns(fileRecord.getFilePath())) {
+            coldReads.add(fileRecord.getId());
+        }
+        if (enabled) {
+            pending.merge(fileRecord.getId(), new PendingAccess(1, System.currentTimeMillis()), PendingAccess::plus);
+        }
+    }
+
+    /**
+     * Ids of cold files read since the last call
+     */
+    public List<String> drainColdReads() {
+        List<String> ids = new ArrayList<>();
+        for (String id : coldReads) {
+            if (coldReads.remove(id)) {
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Writes the counts gathered so far in one transaction; returns how many files were updated
+     */
+    @Scheduled(fixedDelayString = "${storage.access.tracking.flush-interval-ms:30000}",
+            initialDelayString = "${storage.access.tracking.flush-interval-ms:30000}")
+    @Transactional
+    public int flush() {
+        int flushed = 0;
+        for (String id : new ArrayList<>(pending.keySet())) {
+            PendingAccess access = pending.remove(id);
+            if (access != null) {
+                flushed += fileRepository.recordAccess(id, access.count, Instant.ofEpochMilli(access.lastAccess));
+            }
+        }
+        if (flushed > 0) {
+            System.out.println("Recorded accesses for " + flushed + " file(s)");
+        }
+        return flushed;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    private static final class PendingAccess {
+        private final long count;
+        private final long lastAccess;
+
+        private PendingAccess(long count, long lastAccess) {
+            this.count = count;
+            this.lastAccess = lastAccess;
+        }
+
+        private PendingAccess plus(PendingAccess other) {
+            return new PendingAccess(count + other.count, Math.max(lastAccess, other.lastAccess));
+        }
+    }
+}
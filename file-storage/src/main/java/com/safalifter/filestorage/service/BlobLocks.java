@@ -0,0 +1,24 @@
+package com.safalifter.filestorage.service;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * Striped locks serialising blob creation and removal for the same content hash. Shared by
+ * StorageService and the pack backend's compaction, so neither can drop a blob the other is
+ * just recording.
+ */
+@Component
+public class BlobLocks {
+
+    private final Object[] locks = new Object[64];
+
+    public BlobLocks() {
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    public Object forHash(String contentHash) {
+        return locks[Math.floorMod(contentHash.hashCode(), locks.length)];
+    }
+}
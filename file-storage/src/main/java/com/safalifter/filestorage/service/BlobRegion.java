@@ -0,0 +1,147 @@
+package com.safalifter.filestorage.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Where a blob's bytes can be read locally: a whole file, or a slice of a larger one (a pack
+ * segment). Readers go through this instead of a bare path so zero-copy streaming keeps working
+ * whichever backend stored the blob.
+ */
+public final class BlobRegion {
+
+    private final Path path;
+    private final long offset;
+    private final long length;
+    private final boolean wholeFile;
+
+    public BlobRegion(Path path, long offset, long length) {
+        this(path, offset, length, false);
+    }
+
+    private BlobRegion(Path path, long offset, long length, boolean wholeFile) {
+        this.path = path;
+        this.offset = offset;
+        this.length = length;
+        this.wholeFile = wholeFile;
+    }
+
+    /**
+     * A region spanning the whole file
+     */
+    public static BlobRegion of(Path path, long size) {
+        return new BlobRegion(path, 0, size, true);
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * True when the blob is the whole file, so libraries wanting a path can be given one
+     */
+    public boolean isWholeFile() {
+        return wholeFile;
+    }
+
+    /**
+     * A read-only channel over just this region; positions are relative to its start
+     */
+    public SeekableByteChannel openChannel() throws IOException {
+        return new RegionChannel(FileChannel.open(path, StandardOpenOption.READ), offset, length);
+    }
+
+    public InputStream openStream() throws IOException {
+        return Channels.newInputStream(openChannel());
+    }
+
+    private static final class RegionChannel implements SeekableByteChannel {
+        private final FileChannel channel;
+        private final long offset;
+        private final long length;
+        private long position;
+
+        private RegionChannel(FileChannel channel, long offset, long length) {
+            this.channel = channel;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public int read(ByteBuffer destination) throws IOException {
+            long remaining = length - position;
+            if (remaining <= 0) {
+                return -1;
+            }
+            if (destination.remaining() > remaining) {
+                ByteBuffer limited = destination.slice();
+                limited.limit((int) remaining);
+                int read = channel.read(limited, offset + position);
+                if (read > 0) {
+                    destination.position(destination.position() + read);
+                    position += read;
+                }
+                return read;
+            }
+            int read = channel.read(destination, offset + position);
+            if (read > 0) {
+                position += read;
+            }
+            return read;
+        }
+
+        @Override
+        public int write(ByteBuffer source) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public long position() {
+            return position;
+        }
+
+        @Override
+        public SeekableByteChannel position(long newPosition) {
+            if (newPosition < 0) {
+                throw new IllegalArgumentException("Negative position");
+            }
+            position = newPosition;
+            return this;
+        }
+
+        @Override
+        public long size() {
+            return length;
+        }
+
+        @Override
+        public SeekableByteChannel truncate(long size) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.safalifter.filestorage.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Cold tier for files nobody reads any more, on its own (cheaper, slower) volume. Blobs are
+ * gzip-compressed unless a sample of their head shows it would not pay off. Locations are
+ * {@code cold:<blob>.gz} or {@code cold:<blob>}. Never chosen for new uploads: the tiering job
+ * moves blobs here, and reads decompress them into a bounded local cache, least recently
+ * used copies being evicted first, until the job moves them back to the hot tier.
+ */
+@Component
+public class ColdStorageBackend implements StorageBackend {
+
+    public static final String NAME = "cold";
+
+    private static final String PREFIX = "cold:";
+    private static final String COMPRESSED_SUFFIX = ".gz";
+    private static final int SAMPLE_SIZE = 64 * 1024;
+
+    private final Path folder;
+    private final DiskBlobCache cache;
+    private final int compressionLevel;
+    // Compress only when the sample shrinks to at most this fraction of its size
+    private final double maxCompressedRatio;
+
+    public ColdStorageBackend(@Value("${storage.cold.dir:/data/cold}") String dir,
+                              @Value("${storage.cold.cache-dir:/data/attachments/.cold-cache}") String cacheDir,
+                              @Value("${storage.cold.cache-max-bytes:1073741824}") long cacheMaxBytes,
+                              @Value("${storage.cold.compression-level:6}") int compressionLevel,
+                              @Value("${storage.cold.max-compressed-ratio:0.9}") double maxCompressedRatio) {
+        this.folder = Paths.get(dir);
+        this.cache = new DiskBlobCache(Paths.get(cacheDir), cacheMaxBytes);
+        this.compressionLevel = compressionLevel;
+        this.maxCompressedRatio = maxCompressedRatio;
+    }
+
+    @PostConstruct
+    public void init() {
+        try {
+            Files.createDirectories(folder);
+            cache.init();
+        } catch (IOException e) {
+            System.err.println("Error creating directory: " + e.getMessage());
+            throw new RuntimeException("Unable to create directories: " + folder, e);
+        }
+        System.out.println("Cold storage folder: " + folder + ", cache folder: " + cache.getFolder());
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public boolean owns(String location) {
+        return location != null && location.startsWith(PREFIX);
+    }
+
+    /**
+     * Writes a compressed (or, for incompressible content, plain) copy; the source is left for
+     * the caller to delete
+     */
+    @Override
+    public String store(String blobName, Path source, long size) throws IOException {
+        String name = worthCompressing(source) ? blobName + COMPRESSED_SUFFIX : blobName;
+        Path target = pathOf(name);
+        Files.createDirectories(target.getParent());
+
+        Path tempPath = Files.createTempFile(target.getParent(), blobName, ".part");
+        try {
+            if (name.endsWith(COMPRESSED_SUFFIX)) {
+                try (OutputStream out = new LevelledGzipOutputStream(Files.newOutputStream(tempPath), compressionLevel)) {
+                    Files.copy(source, out);
+                }
+            } else {
+                Files.copy(source, tempPath, StandardCopyOption.REPLACE_EXISTING);
+            }
+            Files.move(tempPath, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tempPath);
+        }
+
+        System.out.println("Stored cold blob " + target + " (" + size + " -> " + Files.size(target) + " bytes)");
+        return PREFIX + name;
+    }
+
+    @Override
+    public boolean exists(String location) {
+        return Files.exists(pathOf(nameOf(location)));
+    }
+
+    @Override
+    public BlobRegion resolve(String location) throws IOException {
+        String name = nameOf(location);
+        BlobRegion cached = cache.lookup(blobNameOf(name));
+        if (cached != null) {
+            return cached;
+        }
+
+        try (InputStream in = openStored(location, name)) {
+            return cache.fill(blobNameOf(name), in);
+        }
+    }
+
+    /**
+     * Decompresses straight from the cold volume, leaving the cache to the readers using it
+     */
+    @Override
+    public InputStream openStream(String location) throws IOException {
+        return openStored(location, nameOf(location));
+    }
+
+    @Override
+    public boolean delete(String location) throws IOException {
+        String name = nameOf(location);
+        cache.remove(blobNameOf(name));
+        return Files.deleteIfExists(pathOf(name));
+    }
+
+    /**
+     * Deflates the head of the file and keeps compression only if it saves enough;
+     * media and archives are already compressed and would just cost CPU on every read
+     */
+    private boolean worthCompressing(Path source) throws IOException {
+        byte[] sample;
+        try (InputStream in = Files.newInputStream(source)) {
+            sample = in.readNBytes(SAMPLE_SIZE);
+        }
+        if (sample.length == 0) {
+            return false;
+        }
+
+        Deflater deflater = new Deflater(compressionLevel);
+        try {
+            deflater.setInput(sample);
+            deflater.finish();
+            byte[] buffer = new byte[SAMPLE_SIZE];
+            long compressed = 0;
+            while (!deflater.finished()) {
+                compressed += deflater.deflate(buffer);
+            }
+            return compressed <= sample.length * maxCompressedRatio;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private InputStream openStored(String location, String name) throws IOException {
+        Path stored = pathOf(name);
+        if (!Files.isRegularFile(stored)) {
+            throw new NoSuchFileException(location);
+        }
+        return name.endsWith(COMPRESSED_SUFFIX)
+                ? new GZIPInputStream(Files.newInputStream(stored), 64 * 1024)
+                : Files.newInputStream(stored);
+    }
+
+    // Two-character prefix folders keep directory sizes manageable
+    private Path pathOf(String name) {
+        return folder.resolve(name.substring(0, Math.min(2, name.length()))).resolve(name);
+    }
+
+    private String nameOf(String location) {
+        String name = location.substring(PREFIX.length());
+        if (name.isEmpty() || name.contains("/") || name.contains("\\") || name.startsWith(".")) {
+            throw new IllegalArgumentException("Invalid cold storage location: " + location);
+        }
+        return name;
+    }
+
+    private String blobNameOf(String name) {
+        return name.endsWith(COMPRESSED_SUFFIX) ? name.substring(0, name.length() - COMPRESSED_SUFFIX.length()) : name;
+    }
+
+    private static final class LevelledGzipOutputStream extends GZIPOutputStream {
+        private LevelledGzipOutputStream(OutputStream out, int level) throws IOException {
+            super(out, 64 * 1024);
+            def.setLevel(level);
+        }
+    }
+}
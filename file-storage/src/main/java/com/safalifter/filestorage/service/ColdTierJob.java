@@ -0,0 +1,210 @@
+package com.safalifter.filestorage.service;
+
+import com.safalifter.filestorage.model.File;
+import com.safalifter.filestorage.repository.FileRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+/**
+ * Moves files nobody has read for storage.cold.after-days to the compressed cold tier, keeping
+ * the hot volume small, and moves cold files back as soon as they are read again. The read
+ * itself never waits for this: the cold backend serves it from a decompressed copy. Works in
+ * keyset-paged batches; the copy a blob leaves behind is removed after a grace period so
+ * downloads that already resolved it keep working.
+ */
+@Component
+public class ColdTierJob {
+
+    private final FileRepository fileRepository;
+    private final StorageService storageService;
+    private final StorageBackends backends;
+    private final LocalStorageBackend localBackend;
+    private final ColdStorageBackend coldBackend;
+    private final AccessTracker accessTracker;
+    private final Counter demoted;
+    private final Counter demotedBytes;
+    private final Counter rehydrated;
+    private final Counter rehydratedBytes;
+
+    @Value("${storage.cold.enabled:false}")
+    private boolean enabled;
+
+    @Value("${storage.cold.after-days:180}")
+    private long afterDays;
+
+    @Value("${storage.cold.batch-size:100}")
+    private int batchSize;
+
+    @Value("${storage.cold.unlink-delay-ms:60000}")
+    private long unlinkDelay;
+
+    private String lastId = "";
+    private final Deque<PendingDelete> pendingDeletes = new ConcurrentLinkedDeque<>();
+
+    public ColdTierJob(FileRepository fileRepository,
+                       StorageService storageService,
+                       StorageBackends backends,
+                       LocalStorageBackend localBackend,
+                       ColdStorageBackend coldBackend,
+                       AccessTracker accessTracker,
+                       MeterRegistry meterRegistry) {
+        this.fileRepository = fileRepository;
+        this.storageService = storageService;
+        this.backends = backends;
+        this.localBackend = localBackend;
+        this.coldBackend = coldBackend;
+        this.accessTracker = accessTracker;
+        this.demoted = Counter.builder("filestorage.tier.moves")
+                .description("Blobs moved between the hot and cold tiers")
+                .tag("to", "cold")
+                .register(meterRegistry);
+        this.rehydrated = Counter.builder("filestorage.tier.moves")
+                .description("Blobs moved between the hot and cold tiers")
+                .tag("to", "hot")
+                .register(meterRegistry);
+        this.demotedBytes = Counter.builder("filestorage.tier.moved.bytes")
+                .description("Uncompressed bytes moved between the hot and cold tiers")
+                .baseUnit("bytes")
+                .tag("to", "cold")
+                .register(meterRegistry);
+        this.rehydratedBytes = Counter.builder("filestorage.tier.moved.bytes")
+                .description("Uncompressed bytes moved between the hot and cold tiers")
+                .baseUnit("bytes")
+                .tag("to", "hot")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${storage.cold.interval-ms:600000}",
+            initialDelayString = "${storage.cold.initial-delay-ms:300000}")
+    public synchronized void demoteBatch() {
+        if (!enabled) {
+            return;
+        }
+
+        deleteExpired();
+        // Reads still waiting in memory must count before anything is judged idle
+        accessTracker.flush();
+
+        Instant cutoff = Instant.now().minus(Duration.ofDays(afterDays));
+        List<File> batch = fileRepository.findColdCandidates(lastId, cutoff, PageRequest.of(0, batchSize));
+        if (batch.isEmpty()) {
+            // Start over on the next run; files keep crossing the cutoff
+            lastId = "";
+            return;
+        }
+
+        int moved = 0;
+        for (File fileRecord : batch) {
+            lastId = fileRecord.getId();
+            String location = fileRecord.getFilePath();
+            try {
+                if (!isHot(location) || fileRepository.countAccessedSince(location, cutoff) > 0) {
+                    continue;
+                }
+                if (move(fileRecord, location, coldBackend)) {
+                    demoted.increment();
+                    demotedBytes.increment(fileRecord.getSize() != null ? fileRecord.getSize() : 0);
+                    moved++;
+                }
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Unable to move file " + fileRecord.getId() + " to cold storage: " + e.getMessage());
+            }
+        }
+
+        if (moved > 0) {
+            System.out.println("Moved " + moved + " blob(s) to cold storage, progressed to id " + lastId);
+        }
+    }
+
+    /**
+     * Moves cold files that were just read back to the hot tier. Runs whether or not demotion
+     * is enabled, so turning tiering off drains the cold tier as files get used.
+     */
+    @Scheduled(fixedDelayString = "${storage.cold.rehydrate-interval-ms:5000}")
+    public synchronized void rehydrate() {
+        deleteExpired();
+
+        for (String id : accessTracker.drainColdReads()) {
+            File fileRecord = fileRepository.findById(id).orElse(null);
+            if (fileRecord == null || !coldBackend.owns(fileRecord.getFilePath())) {
+                continue;
+            }
+            try {
+                long size = fileRecord.getSize() != null ? fileRecord.getSize() : 0;
+                if (move(fileRecord, fileRecord.getFilePath(), backends.forWrite(size))) {
+                    rehydrated.increment();
+                    rehydratedBytes.increment(size);
+                    System.out.println("Moved file " + id + " back from cold storage");
+                }
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Unable to move file " + id + " back from cold storage: " + e.getMessage());
+            }
+        }
+    }
+
+    private boolean move(File fileRecord, String location, StorageBackend target) throws IOException {
+        String newLocation = storageService.moveBlob(fileRecord.getContentHash(), location, target);
+        if (newLocation == null) {
+            return false;
+        }
+        if (!newLocation.equals(location)) {
+            pendingDeletes.add(new PendingDelete(fileRecord.getContentHash(), location,
+                    System.currentTimeMillis() + unlinkDelay));
+        }
+        return true;
+    }
+
+    /**
+     * Local and packed blobs are tiered; remote ones already sit on cheap storage
+     */
+    private boolean isHot(String location) {
+        return localBackend.owns(location) || PackFileStorageBackend.NAME.equals(backends.forLocation(location).getName());
+    }
+
+    /**
+     * Whether the location is a copy left behind by a move and still waiting out its unlink delay
+     */
+    public boolean isPendingDelete(String location) {
+        for (PendingDelete pending : pendingDeletes) {
+            if (pending.location.equals(location)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void deleteExpired() {
+        long now = System.currentTimeMillis();
+        while (!pendingDeletes.isEmpty() && pendingDeletes.peekFirst().deleteAt <= now) {
+            PendingDelete pending = pendingDeletes.pollFirst();
+            try {
+                storageService.deleteBlobIfUnreferenced(pending.contentHash, pending.location);
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Unable to delete moved blob " + pending.location + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private static class PendingDelete {
+        private final String contentHash;
+        private final String location;
+        private final long deleteAt;
+
+        private PendingDelete(String contentHash, String location, long deleteAt) {
+            this.contentHash = contentHash;
+            this.location = location;
+            this.deleteAt = deleteAt;
+        }
+    }
+}
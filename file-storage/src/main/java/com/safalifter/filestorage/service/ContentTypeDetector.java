@@ -0,0 +1,254 @@
+package com.safalifter.filestorage.service;
+
+import com.safalifter.filestorage.model.File;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Works out a file's real content type from its first bytes, once, at upload. Binary formats
+ * are recognised by their signature; container formats (zip, OLE) and text are refined by the
+ * declared type or the file extension. The result is stored on the record so downloads only
+ * read it back.
+ */
+public final class ContentTypeDetector {
+
+    public static final String DEFAULT_TYPE = "application/octet-stream";
+
+    // Enough for every signature below, including the tar magic at offset 257
+    static final int HEAD_LENGTH = 512;
+
+    private static final List<Signature> SIGNATURES = List.of(
+            new Signature(0, bytes("%PDF-"), "application/pdf"),
+            new Signature(0, new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'}, "image/png"),
+            new Signature(0, new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF}, "image/jpeg"),
+            new Signature(0, bytes("GIF87a"), "image/gif"),
+            new Signature(0, bytes("GIF89a"), "image/gif"),
+            new Signature(8, bytes("WEBP"), "image/webp"),
+            new Signature(8, bytes("WAVE"), "audio/wav"),
+            new Signature(0, new byte[]{'I', 'I', 0x2A, 0}, "image/tiff"),
+            new Signature(0, new byte[]{'M', 'M', 0, 0x2A}, "image/tiff"),
+            new Signature(4, bytes("ftyp"), "video/mp4"),
+            new Signature(0, new byte[]{0x1A, 0x45, (byte) 0xDF, (byte) 0xA3}, "video/webm"),
+            new Signature(0, bytes("OggS"), "audio/ogg"),
+            new Signature(0, bytes("ID3"), "audio/mpeg"),
+            new Signature(0, bytes("fLaC"), "audio/flac"),
+            new Signature(0, new byte[]{'P', 'K', 3, 4}, "application/zip"),
+            new Signature(0, new byte[]{'P', 'K', 5, 6}, "application/zip"),
+            new Signature(0, new byte[]{0x1F, (byte) 0x8B}, "application/gzip"),
+            new Signature(0, new byte[]{'R', 'a', 'r', '!', 0x1A, 0x07}, "application/x-rar-compressed"),
+            new Signature(0, new byte[]{'7', 'z', (byte) 0xBC, (byte) 0xAF, 0x27, 0x1C}, "application/x-7z-compressed"),
+            new Signature(257, bytes("ustar"), "application/x-tar"),
+            new Signature(0, new byte[]{(byte) 0xD0, (byte) 0xCF, 0x11, (byte) 0xE0, (byte) 0xA1, (byte) 0xB1, 0x1A, (byte) 0xE1},
+                    "application/x-ole-storage")
+    );
+
+    private static final Map<String, String> EXTENSION_TYPES = Map.ofEntries(
+            Map.entry("pdf", "application/pdf"),
+            Map.entry("jpg", "image/jpeg"),
+            Map.entry("jpeg", "image/jpeg"),
+            Map.entry("png", "image/png"),
+            Map.entry("gif", "image/gif"),
+            Map.entry("svg", "image/svg+xml"),
+            Map.entry("webp", "image/webp"),
+            Map.entry("bmp", "image/bmp"),
+            Map.entry("tif", "image/tiff"),
+            Map.entry("tiff", "image/tiff"),
+            Map.entry("txt", "text/plain"),
+            Map.entry("md", "text/markdown"),
+            Map.entry("html", "text/html"),
+            Map.entry("htm", "text/html"),
+            Map.entry("css", "text/css"),
+            Map.entry("js", "application/javascript"),
+            Map.entry("json", "application/json"),
+            Map.entry("xml", "application/xml"),
+            Map.entry("csv", "text/csv"),
+            Map.entry("doc", "application/msword"),
+            Map.entry("docx", "application/vnd.openxmlformats-officedocument.wordprocessingml.document"),
+            Map.entry("xls", "application/vnd.ms-excel"),
+            Map.entry("xlsx", "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet"),
+            Map.entry("ppt", "application/vnd.ms-powerpoint"),
+            Map.entry("pptx", "application/vnd.openxmlformats-officedocument.presentationml.presentation"),
+            Map.entry("odt", "application/vnd.oasis.opendocument.text"),
+            Map.entry("ods", "application/vnd.oasis.opendocument.spreadsheet"),
+            Map.entry("odp", "application/vnd.oasis.opendocument.presentation"),
+            Map.entry("jar", "application/java-archive"),
+            Map.entry("mp3", "audio/mpeg"),
+            Map.entry("mp4", "video/mp4"),
+            Map.entry("m4a", "audio/mp4"),
+            Map.entry("mov", "video/quicktime"),
+            Map.entry("wav", "audio/wav"),
+            Map.entry("ogg", "audio/ogg"),
+            Map.entry("ogv", "video/ogg"),
+            Map.entry("flac", "audio/flac"),
+            Map.entry("webm", "video/webm"),
+            Map.entry("zip", "application/zip"),
+            Map.entry("rar", "application/x-rar-compressed"),
+            Map.entry("7z", "application/x-7z-compressed"),
+            Map.entry("tar", "application/x-tar"),
+            Map.entry("gz", "application/gzip")
+    );
+
+    private ContentTypeDetector() {
+    }
+
+    private static final class Signature {
+        private final int offset;
+        private final byte[] magic;
+        private final String type;
+
+        private Signature(int offset, byte[] magic, String type) {
+            this.offset = offset;
+            this.magic = magic;
+            this.type = type;
+        }
+
+        private boolean matches(byte[] head, int length) {
+            if (offset + magic.length > length) {
+                return false;
+            }
+            for (int i = 0; i < magic.length; i++) {
+                if (head[offset + i] != magic[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Detects the type of a stored (or temp) file from its first bytes
+     */
+    public static String detect(Path path, String fileName, String declaredType) throws IOException {
+        try (InputStream in = Files.newInputStream(path)) {
+            return detect(in, fileName, declaredType);
+        }
+    }
+
+    /**
+     * Detects the type from the start of a stream; reads at most {@link #HEAD_LENGTH} bytes
+     * and leaves closing the stream to the caller
+     */
+    public static String detect(InputStream in, String fileName, String declaredType) throws IOException {
+        byte[] head = new byte[HEAD_LENGTH];
+        int length = 0;
+        int read;
+        while (length < head.length && (read = in.read(head, length, head.length - length)) != -1) {
+            length += read;
+        }
+        return detect(head, length, fileName, declaredType);
+    }
+
+    static String detect(byte[] head, int length, String fileName, String declaredType) {
+        String extensionType = EXTENSION_TYPES.get(extension(fileName));
+        String declared = normalize(declaredType);
+
+        for (Signature signature : SIGNATURES) {
+            if (signature.matches(head, length)) {
+                return refineContainer(signature.type, extensionType, declared);
+            }
+        }
+
+        // No binary signature: trust what the client or the name says, if anything
+        if (declared != null) {
+            return declared;
+        }
+        if (extensionType != null) {
+            return extensionType;
+        }
+        return length > 0 && looksLikeText(head, length) ? "text/plain" : DEFAULT_TYPE;
+    }
+
+    /**
+     * Type of a record: the one detected at upload, or a best guess without reading the file
+     * for records stored before detection existed
+     */
+    public static String contentTypeOf(File file) {
+        if (file.getDetectedType() != null) {
+            return file.getDetectedType();
+        }
+        return guess(file.getOriginalFileName(), file.getType());
+    }
+
+    /**
+     * Declared type unless it is missing or generic, otherwise the type for the extension
+     */
+    public static String guess(String fileName, String declaredType) {
+        String declared = normalize(declaredType);
+        if (declared != null) {
+            return declared;
+        }
+        return EXTENSION_TYPES.getOrDefault(extension(fileName), DEFAULT_TYPE);
+    }
+
+    // Office documents, jars, m4a/mov and the like share a container format; the name tells which
+    private static String refineContainer(String detected, String extensionType, String declared) {
+        boolean zip = detected.equals("application/zip");
+        boolean ole = detected.equals("application/x-ole-storage");
+        boolean ogg = detected.equals("audio/ogg");
+        boolean isoMedia = detected.equals("video/mp4");
+        if (!zip && !ole && !ogg && !isoMedia) {
+            return detected;
+        }
+
+        for (String candidate : new String[]{extensionType, declared}) {
+            if (candidate == null) {
+                continue;
+            }
+            if (zip && (candidate.startsWith("application/vnd.") || candidate.equals("application/java-archive"))) {
+                return candidate;
+            }
+            if (ole && (candidate.equals("application/msword") || candidate.equals("application/vnd.ms-excel")
+                    || candidate.equals("application/vnd.ms-powerpoint"))) {
+                return candidate;
+            }
+            if (ogg && candidate.equals("video/ogg")) {
+                return candidate;
+            }
+            if (isoMedia && (candidate.startsWith("video/") || candidate.startsWith("audio/"))) {
+                return candidate;
+            }
+        }
+        return ole ? DEFAULT_TYPE : detected;
+    }
+
+    // No NUL bytes and few control characters; multi-byte UTF-8 passes as printable
+    private static boolean looksLikeText(byte[] head, int length) {
+        int control = 0;
+        for (int i = 0; i < length; i++) {
+            int b = head[i] & 0xFF;
+            if (b == 0) {
+                return false;
+            }
+            if (b < 0x20 && b != '\n' && b != '\r' && b != '\t' && b != '\f' && b != 0x1B) {
+                control++;
+            }
+        }
+        return control * 20 < length;
+    }
+
+    private static String normalize(String declaredType) {
+        if (declaredType == null) {
+            return null;
+        }
+        String type = declaredType.trim().toLowerCase();
+        return type.isEmpty() || type.equals(DEFAULT_TYPE) ? null : type;
+    }
+
+    private static String extension(String fileName) {
+        if (fileName == null) {
+            return "";
+        }
+        int lastDot = fileName.lastIndexOf('.');
+        return lastDot > 0 ? fileName.substring(lastDot + 1).toLowerCase() : "";
+    }
+
+    private static byte[] bytes(String ascii) {
+        return ascii.getBytes(StandardCharsets.US_ASCII);
+    }
+}
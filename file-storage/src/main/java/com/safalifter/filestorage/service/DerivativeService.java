@@ -0,0 +1,422 @@
+package com.safalifter.filestorage.service;
+
+import com.safalifter.filestorage.model.File;
+import com.safalifter.filestorage.model.FileDerivative;
+import com.safalifter.filestorage.repository.FileDerivativeRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Generates renditions of uploaded files. Thumbnails (downscaled images and a raster of the
+ * first page of PDFs) are rendered in the background on a bounded pool; when the queue is full
+ * the job is dropped and picked up again the next time the thumbnail is requested. Text-like
+ * files additionally get a gzip copy at upload time, served to clients accepting gzip.
+ */
+@Service
+public class DerivativeService {
+
+    public static final String THUMBNAIL = "thumb";
+    public static final String GZIP = "gzip";
+
+    private static final Set<String> IMAGE_EXTENSIONS = Set.of("jpg", "jpeg", "png", "gif", "bmp");
+
+    private static final Set<String> TEXT_EXTENSIONS = Set.of(
+            "txt", "log", "csv", "tsv", "md", "json", "xml", "yml", "yaml", "svg",
+            "js", "ts", "jsx", "tsx", "html", "htm", "css", "scss", "less",
+            "java", "py", "rb", "php", "c", "cpp", "h", "hpp", "cs", "go", "kt", "rs",
+            "sql", "sh", "bash", "zsh", "conf", "ini", "properties"
+    );
+
+    private static final Set<String> TEXT_TYPES = Set.of(
+            "application/json", "application/javascript", "application/xml",
+            "application/x-yaml", "application/x-sh", "application/sql", "image/svg+xml"
+    );
+
+    private enum SourceKind { IMAGE, PDF }
+
+    private final FileDerivativeRepository derivativeRepository;
+    private final StorageBackends backends;
+    private final ThreadPoolExecutor executor;
+    private final int maxDimension;
+
+    @Value("${storage.compression.enabled:true}")
+    private boolean compressionEnabled;
+
+    @Value("${storage.compression.min-size:1024}")
+    private long compressionMinSize;
+
+    // The gzip copy is only kept when it is at most this fraction of the original
+    @Value("${storage.compression.max-ratio:0.9}")
+    private double compressionMaxRatio;
+
+    private final Counter generated;
+    private final Counter failed;
+    private final Counter rejected;
+    private final Counter unsupported;
+
+    // Content hashes with a job queued or running, so duplicate uploads do not render twice
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+    @Value("${storage.local.root:/data/attachments}")
+    private String storageRoot;
+
+    private Path derivativeFolderPath;
+
+    public DerivativeService(FileDerivativeRepository derivativeRepository,
+                             StorageBackends backends,
+                             MeterRegistry meterRegistry,
+                             @Value("${storage.derivatives.threads:2}") int threads,
+                             @Value("${storage.derivatives.queue-capacity:500}") int queueCapacity,
+                             @Value("${storage.derivatives.thumbnail-size:320}") int maxDimension) {
+        this.derivativeRepository = derivativeRepository;
+        this.backends = backends;
+        this.maxDimension = maxDimension;
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "derivative-worker");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                });
+
+        this.generated = jobCounter(meterRegistry, "generated");
+        this.failed = jobCounter(meterRegistry, "failed");
+        this.rejected = jobCounter(meterRegistry, "rejected");
+        this.unsupported = jobCounter(meterRegistry, "unsupported");
+
+        Gauge.builder("filestorage.derivatives.queue.depth", executor, pool -> pool.getQueue().size())
+                .description("Derivative jobs waiting for a worker")
+                .register(meterRegistry);
+        Gauge.builder("filestorage.derivatives.active", executor, ThreadPoolExecutor::getActiveCount)
+                .description("Derivative jobs currently running")
+                .register(meterRegistry);
+    }
+
+    private static Counter jobCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("filestorage.derivatives.jobs")
+                .description("Derivative generation jobs by outcome")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void init() {
+        derivativeFolderPath = Paths.get(storageRoot).resolve(".derivatives");
+        try {
+            Files.createDirectories(derivativeFolderPath);
+        } catch (IOException e) {
+            System.err.println("Error creating directory: " + e.getMessage());
+            throw new RuntimeException("Unable to create directories: " + derivativeFolderPath, e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Queues thumbnail generation for a stored file if its type supports it and no thumbnail
+     * exists yet. Never blocks the caller.
+     */
+    public void scheduleThumbnail(File file) {
+        String sourceHash = file.getContentHash();
+        SourceKind kind = sourceKind(file);
+        // Legacy rows without a content hash have nothing to key derivatives on, and secure
+        // files must never be rendered from their plaintext
+        if (SecureStorageService.isSecure(file) || sourceHash == null || kind == null || !pending.add(sourceHash)) {
+            return;
+        }
+
+        String location = file.getFilePath();
+        try {
+            executor.execute(() -> {
+                try {
+                    generateThumbnail(sourceHash, location, kind);
+                } finally {
+                    pending.remove(sourceHash);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.remove(sourceHash);
+            rejected.increment();
+            System.err.println("Derivative queue full, skipping thumbnail for " + sourceHash);
+        }
+    }
+
+    /**
+     * Writes a gzip copy of a text-like file next to its other derivatives. Runs in the upload
+     * thread so the compressed variant exists as soon as the file can be downloaded.
+     */
+    public void compress(File file) {
+        String sourceHash = file.getContentHash();
+        if (!compressionEnabled || sourceHash == null || !isCompressible(file)
+                || file.getSize() == null || file.getSize() < compressionMinSize
+                || derivativeRepository.existsBySourceHashAndVariant(sourceHash, GZIP)) {
+            return;
+        }
+
+        Path tempPath = null;
+        try {
+            tempPath = Files.createTempFile(derivativeFolderPath, sourceHash, ".gz");
+            try (InputStream in = backends.resolve(file.getFilePath()).openStream();
+                 OutputStream out = new GZIPOutputStream(Files.newOutputStream(tempPath), 64 * 1024)) {
+                in.transferTo(out);
+            }
+
+            long compressedSize = Files.size(tempPath);
+            if (compressedSize > file.getSize() * compressionMaxRatio) {
+                System.out.println("Skipping gzip variant for " + sourceHash + ", only "
+                        + compressedSize + " of " + file.getSize() + " bytes saved");
+                return;
+            }
+
+            Path target = derivativePath(sourceHash, GZIP, "gz");
+            Files.createDirectories(target.getParent());
+            Files.move(tempPath, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+            derivativeRepository.save(FileDerivative.builder()
+                    .id(UUID.randomUUID().toString())
+                    .sourceHash(sourceHash)
+                    .variant(GZIP)
+                    .filePath(target.toString())
+                    .contentType("application/gzip")
+                    .size(compressedSize)
+                    .createdAt(Instant.now())
+                    .build());
+            System.out.println("Stored gzip variant for " + sourceHash + ": " + file.getSize()
+                    + " -> " + compressedSize + " bytes");
+        } catch (DataIntegrityViolationException e) {
+            System.out.println("Gzip variant for " + sourceHash + " already recorded");
+        } catch (IOException e) {
+            // The original is still served uncompressed
+            System.err.println("Unable to store gzip variant for " + sourceHash + ": " + e.getMessage());
+        } finally {
+            deleteQuietly(tempPath);
+        }
+    }
+
+    /**
+     * Whether the file is text-like and worth serving with Content-Encoding: gzip
+     */
+    public boolean isCompressible(File file) {
+        String type = ContentTypeDetector.contentTypeOf(file);
+        if (type.startsWith("text/") || TEXT_TYPES.contains(type)) {
+            return true;
+        }
+        return TEXT_EXTENSIONS.contains(extension(file));
+    }
+
+    public Optional<FileDerivative> findDerivative(File file, String variant) {
+        if (file.getContentHash() == null) {
+            return Optional.empty();
+        }
+        return derivativeRepository.findBySourceHashAndVariant(file.getContentHash(), variant)
+                .filter(derivative -> Files.isRegularFile(Paths.get(derivative.getFilePath())));
+    }
+
+    /**
+     * Removes every derivative of a blob; called once the blob itself is gone
+     */
+    public void deleteDerivatives(String sourceHash) {
+        List<FileDerivative> derivatives = derivativeRepository.findBySourceHash(sourceHash);
+        for (FileDerivative derivative : derivatives) {
+            try {
+                Files.deleteIfExists(Paths.get(derivative.getFilePath()));
+            } catch (IOException e) {
+                System.err.println("Unable to delete derivative " + derivative.getFilePath() + ": " + e.getMessage());
+            }
+            derivativeRepository.delete(derivative);
+        }
+    }
+
+    private void generateThumbnail(String sourceHash, String location, SourceKind kind) {
+        if (derivativeRepository.existsBySourceHashAndVariant(sourceHash, THUMBNAIL)) {
+            return;
+        }
+
+        Path tempPath = null;
+        try {
+            // Resolved in the worker so a remote backend is never fetched on the upload thread
+            BlobRegion source = backends.resolve(location);
+            BufferedImage image = kind == SourceKind.PDF ? renderFirstPage(source) : readImage(source);
+            if (image == null) {
+                unsupported.increment();
+                System.out.println("No thumbnail decoder for " + location);
+                return;
+            }
+
+            BufferedImage thumbnail = scale(image);
+            String format = thumbnail.getColorModel().hasAlpha() ? "png" : "jpg";
+
+            tempPath = Files.createTempFile(derivativeFolderPath, sourceHash, ".thumb");
+            if (!ImageIO.write(thumbnail, format, tempPath.toFile())) {
+                throw new IOException("No image writer for " + format);
+            }
+
+            Path target = derivativePath(sourceHash, THUMBNAIL, format);
+            Files.createDirectories(target.getParent());
+            Files.move(tempPath, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+            derivativeRepository.save(FileDerivative.builder()
+                    .id(UUID.randomUUID().toString())
+                    .sourceHash(sourceHash)
+                    .variant(THUMBNAIL)
+                    .filePath(target.toString())
+                    .contentType("png".equals(format) ? "image/png" : "image/jpeg")
+                    .size(Files.size(target))
+                    .createdAt(Instant.now())
+                    .build());
+            generated.increment();
+        } catch (DataIntegrityViolationException e) {
+            // Another instance recorded the same thumbnail first; the file on disk is identical
+            System.out.println("Thumbnail for " + sourceHash + " already recorded");
+        } catch (Exception e) {
+            failed.increment();
+            System.err.println("Thumbnail generation failed for " + sourceHash + ": " + e.getMessage());
+        } finally {
+            deleteQuietly(tempPath);
+        }
+    }
+
+    private Path derivativePath(String sourceHash, String variant, String extension) {
+        return derivativeFolderPath.resolve(sourceHash.substring(0, 2))
+                .resolve(sourceHash + "-" + variant + "." + extension);
+    }
+
+    private void deleteQuietly(Path path) {
+        if (path == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            System.err.println("Unable to delete temp file " + path + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Decodes an image, subsampling large ones while reading so memory stays close to the
+     * thumbnail size instead of the full-resolution bitmap
+     */
+    private BufferedImage readImage(BlobRegion source) throws IOException {
+        try (InputStream stream = source.openStream();
+             ImageInputStream in = ImageIO.createImageInputStream(stream)) {
+            if (in == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                return null;
+            }
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int longest = Math.max(reader.getWidth(0), reader.getHeight(0));
+                // Keep twice the target resolution so the final downscale stays smooth
+                int step = Math.max(1, longest / (maxDimension * 2));
+
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Rasterises the first page of a PDF directly at thumbnail resolution
+     */
+    private BufferedImage renderFirstPage(BlobRegion source) throws IOException {
+        // PDFBox reads a file in place but buffers a stream to scratch first, so prefer the file
+        try (PDDocument document = source.isWholeFile()
+                ? PDDocument.load(source.getPath().toFile(), MemoryUsageSetting.setupTempFileOnly())
+                : PDDocument.load(source.openStream(), MemoryUsageSetting.setupTempFileOnly())) {
+            if (document.getNumberOfPages() == 0) {
+                return null;
+            }
+            PDRectangle box = document.getPage(0).getCropBox();
+            // Page units are points (1/72 inch), so this scale yields maxDimension pixels on the long side
+            float scale = maxDimension / Math.max(box.getWidth(), box.getHeight());
+            return new PDFRenderer(document).renderImage(0, scale, ImageType.RGB);
+        }
+    }
+
+    private BufferedImage scale(BufferedImage source) {
+        double ratio = Math.min(1.0, (double) maxDimension / Math.max(source.getWidth(), source.getHeight()));
+        int width = Math.max(1, (int) Math.round(source.getWidth() * ratio));
+        int height = Math.max(1, (int) Math.round(source.getHeight() * ratio));
+        boolean alpha = source.getColorModel().hasAlpha();
+
+        BufferedImage target = new BufferedImage(width, height,
+                alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = target.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return target;
+    }
+
+    private SourceKind sourceKind(File file) {
+        String type = ContentTypeDetector.contentTypeOf(file);
+        String extension = extension(file);
+
+        if (type.equals("application/pdf") || extension.equals("pdf")) {
+            return SourceKind.PDF;
+        }
+        if ((type.startsWith("image/") && !type.equals("image/svg+xml")) || IMAGE_EXTENSIONS.contains(extension)) {
+            return SourceKind.IMAGE;
+        }
+        return null;
+    }
+
+    private String extension(File file) {
+        String name = file.getOriginalFileName() != null ? file.getOriginalFileName().toLowerCase() : "";
+        int lastDot = name.lastIndexOf('.');
+        return lastDot > 0 ? name.substring(lastDot + 1) : "";
+    }
+}
@@ -0,0 +1,110 @@
+package com.safalifter.filestorage.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Bounded folder of local blob copies for backends whose stored bytes cannot be served as-is
+ * (compressed or remote). Copies are written atomically and, once the folder grows past its
+ * limit, the least recently used ones are deleted first. A copy handed out is opened by name
+ * later (Tomcat sendfile, nginx X-Accel-Redirect), so copies used within the last
+ * {@link #EVICT_GRACE_MILLIS} are never deleted, even if the folder stays over its limit for a while.
+ */
+final class DiskBlobCache {
+
+    private static final String DOWNLOAD_SUFFIX = ".download";
+    // Comfortably longer than it takes a resolved copy to be opened for sending
+    static final long EVICT_GRACE_MILLIS = 60_000;
+
+    private final Path folder;
+    private final long maxBytes;
+
+    DiskBlobCache(Path folder, long maxBytes) {
+        this.folder = folder;
+        this.maxBytes = maxBytes;
+    }
+
+    Path getFolder() {
+        return folder;
+    }
+
+    void init() throws IOException {
+        Files.createDirectories(folder);
+    }
+
+    /**
+     * The cached copy of the blob, or null when there is none. Marks the copy as used under the
+     * eviction lock, so a copy handed out here cannot be deleted by an eviction already under way.
+     */
+    synchronized BlobRegion lookup(String name) throws IOException {
+        Path cached = folder.resolve(name);
+        if (!Files.isRegularFile(cached)) {
+            return null;
+        }
+        // Modification time doubles as last access for eviction
+        Files.setLastModifiedTime(cached, FileTime.fromMillis(System.currentTimeMillis()));
+        return BlobRegion.of(cached, Files.size(cached));
+    }
+
+    /**
+     * Copies the stream into the cache under the given name and returns the new copy
+     */
+    BlobRegion fill(String name, InputStream in) throws IOException {
+        Path cached = folder.resolve(name);
+        Path tempPath = Files.createTempFile(folder, name, DOWNLOAD_SUFFIX);
+        try {
+            Files.copy(in, tempPath, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tempPath, cached, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tempPath);
+        }
+
+        evict();
+        return BlobRegion.of(cached, Files.size(cached));
+    }
+
+    void remove(String name) throws IOException {
+        Files.deleteIfExists(folder.resolve(name));
+    }
+
+    /**
+     * Trims the cache back under its limit, oldest access first, never evicting a copy used
+     * within the grace period (which includes the one just fetched)
+     */
+    private synchronized void evict() throws IOException {
+        List<Path> files = new ArrayList<>();
+        long total = 0;
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(folder)) {
+            for (Path entry : entries) {
+                if (Files.isRegularFile(entry) && !entry.getFileName().toString().endsWith(DOWNLOAD_SUFFIX)) {
+                    files.add(entry);
+                    total += Files.size(entry);
+                }
+            }
+        }
+        if (total <= maxBytes) {
+            return;
+        }
+
+        long usedSince = System.currentTimeMillis() - EVICT_GRACE_MILLIS;
+        files.sort(Comparator.comparingLong(file -> file.toFile().lastModified()));
+        for (Path file : files) {
+            if (total <= maxBytes || file.toFile().lastModified() > usedSince) {
+                // Sorted by last use, so every remaining copy is at least as recent
+                break;
+            }
+            long size = Files.size(file);
+            if (Files.deleteIfExists(file)) {
+                total -= size;
+            }
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package com.safalifter.filestorage.service;
+
+import com.safalifter.filestorage.model.File;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Envelope encryption for secure storage. Every file is encrypted with its own random data key;
+ * only that 32-byte key is sealed with a master key and stored on the file record. Master keys
+ * are versioned files in the key folder ({@code master-v<N>.key}) and the highest version is
+ * the active one, so rotating means adding a new key file and re-wrapping data keys, never
+ * re-encrypting file contents.
+ */
+@Service
+public class EnvelopeKeyService {
+
+    // Files encrypted before envelope encryption used the first master key directly
+    static final int LEGACY_KEY_VERSION = 1;
+
+    private static final int KEY_LENGTH = 32;
+    private static final int NONCE_LENGTH = 12;
+    private static final int TAG_LENGTH = 16;
+    private static final Pattern KEY_FILE = Pattern.compile("master-v(\\d+)\\.key");
+    private static final String LEGACY_KEY_FILE = "master.key";
+
+    private final SecureRandom random = new SecureRandom();
+    private final Map<Integer, SecretKey> masterKeys = new ConcurrentHashMap<>();
+    private final Map<String, SecretKey> dataKeys;
+    private volatile int activeVersion;
+    private Path keyFolderPath;
+
+    @Value("${storage.secure.key-dir:/data/secure-keys}")
+    private String keyDir;
+
+    public EnvelopeKeyService(@Value("${storage.secure.data-key-cache-size:10000}") int cacheSize) {
+        // Unwrapped data keys by file id (LRU); a data key never changes, only its wrapping does
+        this.dataKeys = new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, SecretKey> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    public static final class DataKey {
+        private final SecretKey key;
+        private final String wrappedKey;
+        private final int keyVersion;
+
+        private DataKey(SecretKey key, String wrappedKey, int keyVersion) {
+            this.key = key;
+            this.wrappedKey = wrappedKey;
+            this.keyVersion = keyVersion;
+        }
+
+        public SecretKey getKey() {
+            return key;
+        }
+
+        public String getWrappedKey() {
+            return wrappedKey;
+        }
+
+        public int getKeyVersion() {
+            return keyVersion;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        keyFolderPath = Paths.get(keyDir);
+        try {
+            Files.createDirectories(keyFolderPath);
+            reloadMasterKeys();
+            if (masterKeys.isEmpty()) {
+                System.out.println("No master key found, generating " + keyFolderPath.resolve("master-v1.key"));
+                writeKeyFile(keyFolderPath.resolve("master-v1.key"));
+                reloadMasterKeys();
+            }
+        } catch (IOException e) {
+            System.err.println("Error loading master keys: " + e.getMessage());
+            throw new RuntimeException("Failed to initialize secure storage keys", e);
+        }
+    }
+
+    /**
+     * Picks up master key files added since startup; the highest version becomes active.
+     * Returns the active version.
+     */
+    public synchronized int reloadMasterKeys() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(keyFolderPath)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                Matcher matcher = KEY_FILE.matcher(name);
+                if (matcher.matches()) {
+                    masterKeys.putIfAbsent(Integer.parseInt(matcher.group(1)), readKeyFile(file));
+                } else if (name.equals(LEGACY_KEY_FILE)) {
+                    masterKeys.putIfAbsent(LEGACY_KEY_VERSION, readKeyFile(file));
+                }
+            }
+        }
+
+        int highest = masterKeys.keySet().stream().mapToInt(Integer::intValue).max().orElse(0);
+        if (highest != activeVersion) {
+            System.out.println("Active master key version: " + highest);
+            activeVersion = highest;
+        }
+        return activeVersion;
+    }
+
+    public int getActiveVersion() {
+        return activeVersion;
+    }
+
+    /**
+     * Generates a data key for a new file and wraps it with the active master key
+     */
+    public DataKey newDataKey(String fileId) throws GeneralSecurityException {
+        byte[] material = new byte[KEY_LENGTH];
+        random.nextBytes(material);
+        SecretKey key = new SecretKeySpec(material, "AES");
+        int version = activeVersion;
+
+        synchronized (dataKeys) {
+            dataKeys.put(fileId, key);
+        }
+        return new DataKey(key, wrap(key, version, fileId), version);
+    }
+
+    /**
+     * The key a secure file's content was encrypted with, served from memory after first use
+     */
+    public SecretKey dataKey(File fileRecord) throws GeneralSecurityException {
+        if (fileRecord.getWrappedKey() == null) {
+            return masterKey(LEGACY_KEY_VERSION);
+        }
+
+        synchronized (dataKeys) {
+            SecretKey cached = dataKeys.get(fileRecord.getId());
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        SecretKey key = unwrap(fileRecord.getWrappedKey(), fileRecord.getKeyVersion(), fileRecord.getId());
+        synchronized (dataKeys) {
+            dataKeys.put(fileRecord.getId(), key);
+        }
+        return key;
+    }
+
+    /**
+     * Re-wraps a file's data key with the active master key, or returns null if it already is
+     */
+    public DataKey rewrap(File fileRecord) throws GeneralSecurityException {
+        int version = activeVersion;
+        if (fileRecord.getWrappedKey() == null || fileRecord.getKeyVersion() >= version) {
+            return null;
+        }
+        SecretKey key = dataKey(fileRecord);
+        return new DataKey(key, wrap(key, version, fileRecord.getId()), version);
+    }
+
+    public void forget(String fileId) {
+        synchronized (dataKeys) {
+            dataKeys.remove(fileId);
+        }
+    }
+
+    private String wrap(SecretKey dataKey, int version, String fileId) throws GeneralSecurityException {
+        byte[] nonce = new byte[NONCE_LENGTH];
+        random.nextBytes(nonce);
+
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, masterKey(version), new GCMParameterSpec(TAG_LENGTH * 8, nonce));
+        cipher.updateAAD(associatedData(fileId, version));
+        byte[] sealed = cipher.doFinal(dataKey.getEncoded());
+
+        return Base64.getEncoder().encodeToString(ByteBuffer.allocate(NONCE_LENGTH + sealed.length)
+                .put(nonce)
+                .put(sealed)
+                .array());
+    }
+
+    private SecretKey unwrap(String wrappedKey, int version, String fileId) throws GeneralSecurityException {
+        byte[] wrapped = Base64.getDecoder().decode(wrappedKey);
+
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.DECRYPT_MODE, masterKey(version), new GCMParameterSpec(TAG_LENGTH * 8, wrapped, 0, NONCE_LENGTH));
+        cipher.updateAAD(associatedData(fileId, version));
+        byte[] material = cipher.doFinal(wrapped, NONCE_LENGTH, wrapped.length - NONCE_LENGTH);
+        return new SecretKeySpec(material, "AES");
+    }
+
+    // Binds a wrapped key to its file and master key version so it cannot be swapped onto another record
+    private byte[] associatedData(String fileId, int version) {
+        return (fileId + ":" + version).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private SecretKey masterKey(int version) {
+        SecretKey key = masterKeys.get(version);
+        if (key == null) {
+            throw new IllegalStateException("Master key version " + version + " is not available");
+        }
+        return key;
+    }
+
+    private SecretKey readKeyFile(Path path) throws IOException {
+        byte[] key = Base64.getDecoder().decode(Files.readString(path, StandardCharsets.US_ASCII).trim());
+        if (key.length != KEY_LENGTH) {
+            throw new IOException("Master key in " + path + " must be " + KEY_LENGTH + " bytes");
+        }
+        return new SecretKeySpec(key, "AES");
+    }
+
+    private void writeKeyFile(Path path) throws IOException {
+        byte[] key = new byte[KEY_LENGTH];
+        random.nextBytes(key);
+        Files.writeString(path, Base64.getEncoder().encodeToString(key), StandardCharsets.US_ASCII,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        try {
+            Files.setPosixFilePermissions(path, PosixFilePermissions.fromString("rw-------"));
+        } catch (UnsupportedOperationException e) {
+            System.err.println("Unable to restrict permissions of " + path);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.safalifter.filestorage.service;
+
+import com.safalifter.filestorage.model.File;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Size-bounded LRU cache of file records sitting in front of FileRepository.
+ * Records are immutable once uploaded apart from their path, so entries only need
+ * invalidating on delete and when a file is relocated. Callers always get their own
+ * copy of a record, so changing one never leaks into the cache or other requests.
+ */
+@Component
+public class FileMetadataCache {
+
+    private final Map<String, File> entries;
+    // Loads in flight, by id; an invalidate or put in the meantime withdraws the token so the
+    // record read before it is not cached over the newer state
+    private final Map<String, Object> loading = new HashMap<>();
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter evictions;
+
+    public FileMetadataCache(MeterRegistry meterRegistry,
+                             @Value("${storage.metadata-cache.max-entries:10000}") int maxEntries) {
+        this.hits = Counter.builder("filestorage.metadata.cache.requests")
+                .description("File metadata lookups served from memory")
+                .tag("result", "hit")
+                .register(meterRegistry);
+        this.misses = Counter.builder("filestorage.metadata.cache.requests")
+                .description("File metadata lookups that went to the database")
+                .tag("result", "miss")
+                .register(meterRegistry);
+        this.evictions = Counter.builder("filestorage.metadata.cache.evictions")
+                .description("Entries dropped because the cache was full")
+                .register(meterRegistry);
+
+        // Access-ordered LinkedHashMap gives us LRU eviction for free
+        this.entries = new LinkedHashMap<>(1024, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, File> eldest) {
+                boolean evict = size() > maxEntries;
+                if (evict) {
+                    evictions.increment();
+                }
+                return evict;
+            }
+        };
+
+        Gauge.builder("filestorage.metadata.cache.size", this, FileMetadataCache::size)
+                .description("File records currently cached")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Returns the cached record or loads it (outside the lock) and caches the result, unless the
+     * entry was invalidated or replaced while loading. The loader may throw to signal a missing
+     * file; nothing is cached in that case.
+     */
+    public File get(String id, Function<String, File> loader) {
+        Object token = new Object();
+        synchronized (entries) {
+            File cached = entries.get(id);
+            if (cached != null) {
+                hits.increment();
+                return copyOf(cached);
+            }
+            loading.put(id, token);
+        }
+
+        misses.increment();
+        File loaded;
+        try {
+            loaded = loader.apply(id);
+        } catch (RuntimeException e) {
+            synchronized (entries) {
+                loading.remove(id, token);
+            }
+            throw e;
+        }
+
+        synchronized (entries) {
+            if (loading.remove(id, token) && loaded != null) {
+                entries.put(id, copyOf(loaded));
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Returns the cached record or null, counting the lookup as a hit or miss
+     */
+    public File getIfPresent(String id) {
+        synchronized (entries) {
+            File cached = entries.get(id);
+            if (cached != null) {
+                hits.increment();
+                return copyOf(cached);
+            }
+            misses.increment();
+            return null;
+        }
+    }
+
+    public void put(File file) {
+        if (file == null || file.getId() == null) {
+            return;
+        }
+        synchronized (entries) {
+            loading.remove(file.getId());
+            entries.put(file.getId(), copyOf(file));
+        }
+    }
+
+    public void invalidate(String id) {
+        synchronized (entries) {
+            loading.remove(id);
+            entries.remove(id);
+        }
+    }
+
+    private File copyOf(File file) {
+        return file.toBuilder().build();
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+}
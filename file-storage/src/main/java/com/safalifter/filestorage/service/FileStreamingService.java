@@ -0,0 +1,280 @@
+package com.safalifter.filestorage.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.stereotype.Service;
+import org.springframework.util.MimeTypeUtils;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Writes stored files to the servlet response without materialising them on the heap.
+ * Uses Tomcat's sendfile support when the connector offers it, otherwise falls back
+ * to FileChannel.transferTo into the response stream. Honours single and multi-range
+ * requests (RFC 7233) by reading only the requested regions. Small popular blobs are
+ * served from {@link HotContentCache} instead of disk.
+ */
+@Service
+public class FileStreamingService {
+
+    private final HotContentCache hotContentCache;
+
+    // Request attributes understood by Tomcat's NIO/NIO2 connectors (see org.apache.catalina.Globals)
+    private static final String SENDFILE_SUPPORTED_ATTR = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_FILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_FILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+
+    @Value("${storage.download.sendfile-threshold:49152}")
+    private long sendfileThreshold;
+
+    @Value("${storage.download.max-ranges:32}")
+    private int maxRanges;
+
+    public FileStreamingService(HotContentCache hotContentCache) {
+        this.hotContentCache = hotContentCache;
+    }
+
+    /**
+     * Serve a file honouring the Range and If-Range request headers.
+     * Responds 200 with the whole file, 206 with one or more byte ranges, or 416 when
+     * none of the requested ranges can be satisfied.
+     */
+    public void serve(HttpServletRequest request, HttpServletResponse response, BlobRegion blob,
+                      long fileSize, String contentType, String etag, long lastModified) throws IOException {
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+
+        List<HttpRange> ranges;
+        try {
+            ranges = resolveRanges(request, fileSize, etag, lastModified);
+        } catch (IllegalArgumentException e) {
+            response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + fileSize);
+            response.setContentLengthLong(0);
+            return;
+        }
+
+        if (ranges.isEmpty()) {
+            response.setStatus(HttpServletResponse.SC_OK);
+            stream(request, response, blob, 0, fileSize);
+            return;
+        }
+
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+
+        if (ranges.size() == 1) {
+            long start = ranges.get(0).getRangeStart(fileSize);
+            long end = ranges.get(0).getRangeEnd(fileSize);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, contentRange(start, end, fileSize));
+            stream(request, response, blob, start, end - start + 1);
+            return;
+        }
+
+        streamMultipart(response, blob, fileSize, contentType, ranges);
+    }
+
+    /**
+     * Works out which byte ranges to send. Returns an empty list when the whole file should be sent:
+     * no Range header, a malformed one, or an If-Range validator that no longer matches.
+     * Throws IllegalArgumentException when the ranges are well-formed but unsatisfiable.
+     */
+    public List<HttpRange> resolveRanges(HttpServletRequest request, long fileSize, String etag, long lastModified) {
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        if (rangeHeader == null || !rangeHeader.startsWith("bytes=")) {
+            return Collections.emptyList();
+        }
+
+        if (!ifRangeMatches(request.getHeader(HttpHeaders.IF_RANGE), etag, lastModified)) {
+            return Collections.emptyList();
+        }
+
+        List<HttpRange> ranges;
+        try {
+            ranges = HttpRange.parseRanges(rangeHeader);
+        } catch (IllegalArgumentException e) {
+            // Syntactically invalid Range headers are ignored
+            return Collections.emptyList();
+        }
+
+        if (ranges.size() > maxRanges) {
+            return Collections.emptyList();
+        }
+
+        List<HttpRange> satisfiable = new ArrayList<>();
+        long total = 0;
+        for (HttpRange range : ranges) {
+            if (isSatisfiable(range, fileSize)) {
+                total += range.getRangeEnd(fileSize) - range.getRangeStart(fileSize) + 1;
+                satisfiable.add(range);
+            }
+        }
+
+        if (satisfiable.isEmpty()) {
+            throw new IllegalArgumentException("No satisfiable range in: " + rangeHeader);
+        }
+
+        // Overlapping ranges adding up to more than the file itself are not worth honouring
+        if (total > fileSize) {
+            return Collections.emptyList();
+        }
+
+        return satisfiable;
+    }
+
+    /**
+     * Whether the range selects at least one byte of a file of the given size. HttpRange clamps
+     * the end of a range to the file but not its start, and an empty file has no bytes to select.
+     */
+    public static boolean isSatisfiable(HttpRange range, long fileSize) {
+        return fileSize > 0 && range.getRangeStart(fileSize) < fileSize;
+    }
+
+    /**
+     * If-Range carries either an entity tag or an HTTP date; ranges only apply when it still
+     * matches exactly (RFC 7233 section 3.2). A missing header always matches.
+     */
+    public static boolean ifRangeMatches(String ifRange, String etag, long lastModified) {
+        if (ifRange == null) {
+            return true;
+        }
+
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            // Weak validators never match for If-Range
+            return etag != null && !ifRange.startsWith("W/") && ifRange.equals(etag);
+        }
+
+        try {
+            HttpHeaders headers = new HttpHeaders();
+            headers.set(HttpHeaders.IF_RANGE, ifRange);
+            long since = headers.getFirstDate(HttpHeaders.IF_RANGE);
+            // HTTP dates have one-second resolution
+            return since != -1 && since / 1000 == lastModified / 1000;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private void streamMultipart(HttpServletResponse response, BlobRegion blob, long fileSize,
+                                 String contentType, List<HttpRange> ranges) throws IOException {
+        String boundary = MimeTypeUtils.generateMultipartBoundaryString();
+
+        // Pre-compute the part headers so we can announce an exact Content-Length
+        List<byte[]> partHeaders = new ArrayList<>(ranges.size());
+        long contentLength = 0;
+        for (HttpRange range : ranges) {
+            long start = range.getRangeStart(fileSize);
+            long end = range.getRangeEnd(fileSize);
+            byte[] partHeader = ("\r\n--" + boundary + "\r\n"
+                    + HttpHeaders.CONTENT_TYPE + ": " + contentType + "\r\n"
+                    + HttpHeaders.CONTENT_RANGE + ": " + contentRange(start, end, fileSize) + "\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII);
+            partHeaders.add(partHeader);
+            contentLength += partHeader.length + (end - start + 1);
+        }
+        byte[] closing = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        contentLength += closing.length;
+
+        response.setContentType("multipart/byteranges; boundary=" + boundary);
+        response.setContentLengthLong(contentLength);
+
+        ByteBuffer cached = hotContentCache.get(blob);
+        OutputStream out = response.getOutputStream();
+        WritableByteChannel channel = Channels.newChannel(out);
+        for (int i = 0; i < ranges.size(); i++) {
+            long start = ranges.get(i).getRangeStart(fileSize);
+            long end = ranges.get(i).getRangeEnd(fileSize);
+            out.write(partHeaders.get(i));
+            if (cached != null) {
+                write(HotContentCache.slice(cached, start, end - start + 1), channel);
+            } else {
+                transfer(blob, start, end - start + 1, channel);
+            }
+        }
+        out.write(closing);
+        response.flushBuffer();
+    }
+
+    private String contentRange(long start, long end, long fileSize) {
+        return "bytes " + start + "-" + end + "/" + fileSize;
+    }
+
+    /**
+     * Stream {@code count} bytes of the blob starting at {@code position} as the response body.
+     * Headers (including Content-Type and disposition) must already be set on the response.
+     */
+    public void stream(HttpServletRequest request, HttpServletResponse response,
+                       BlobRegion blob, long position, long count) throws IOException {
+        response.setContentLengthLong(count);
+
+        if (count == 0) {
+            return;
+        }
+
+        ByteBuffer cached = hotContentCache.get(blob);
+        if (cached != null) {
+            write(HotContentCache.slice(cached, position, count), Channels.newChannel(response.getOutputStream()));
+            response.flushBuffer();
+            return;
+        }
+
+        // Hand the region to the connector; Tomcat writes it with sendfile once the servlet returns
+        if (count >= sendfileThreshold && isSendfileSupported(request)) {
+            // Packed blobs are a slice of a segment file, so the offsets are shifted by the region start
+            request.setAttribute(SENDFILE_FILENAME_ATTR, blob.getPath().toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_FILE_START_ATTR, blob.getOffset() + position);
+            request.setAttribute(SENDFILE_FILE_END_ATTR, blob.getOffset() + position + count);
+            return;
+        }
+
+        WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+        transfer(blob, position, count, out);
+        response.flushBuffer();
+    }
+
+    /**
+     * Copy part of the blob into the given channel using FileChannel.transferTo
+     */
+    public void transfer(BlobRegion blob, long position, long count, WritableByteChannel out) throws IOException {
+        try (FileChannel channel = FileChannel.open(blob.getPath(), StandardOpenOption.READ)) {
+            long remaining = count;
+            long offset = blob.getOffset() + position;
+
+            while (remaining > 0) {
+                long written = channel.transferTo(offset, remaining, out);
+                if (written <= 0) {
+                    // File was truncated underneath us
+                    if (offset >= channel.size()) {
+                        throw new IOException("Unexpected end of file while streaming " + blob.getPath());
+                    }
+                    continue;
+                }
+                offset += written;
+                remaining -= written;
+            }
+        }
+    }
+
+    private void write(ByteBuffer content, WritableByteChannel out) throws IOException {
+        while (content.hasRemaining()) {
+            out.write(content);
+        }
+    }
+
+    private boolean isSendfileSupported(HttpServletRequest request) {
+        return Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED_ATTR));
+    }
+}
@@ -0,0 +1,307 @@
+package com.safalifter.filestorage.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Byte-bounded in-memory copy of small, popular blobs, so the handout a whole class downloads
+ * at once is read from disk once rather than per request. Contents live in direct buffers by
+ * default, off the heap (sized against -XX:MaxDirectMemorySize rather than -Xmx).
+ * Concurrent misses for the same blob share a single read. Admission is frequency based
+ * (TinyLFU): when the cache is full a blob only gets in if it has been asked for more often
+ * than the least recently used entries it would push out, so a burst of one-off downloads
+ * cannot flush the files everybody keeps fetching. Blobs are immutable and their locations
+ * never reused, so entries need no invalidation; deleted ones simply age out.
+ */
+@Component
+public class HotContentCache {
+
+    private final boolean enabled;
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    private final boolean offHeap;
+
+    // Access-ordered, eldest first; guarded by this
+    private final LinkedHashMap<String, ByteBuffer> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private final FrequencySketch sketch;
+    private long usedBytes;
+
+    private final Map<String, CompletableFuture<ByteBuffer>> loading = new ConcurrentHashMap<>();
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter coalesced;
+    private final Counter rejected;
+    private final Counter evictions;
+
+    public HotContentCache(MeterRegistry meterRegistry,
+                           @Value("${storage.hot-cache.enabled:true}") boolean enabled,
+                           @Value("${storage.hot-cache.max-bytes:67108864}") long maxBytes,
+                           @Value("${storage.hot-cache.max-entry-bytes:2097152}") long maxEntryBytes,
+                           @Value("${storage.hot-cache.off-heap:true}") boolean offHeap) {
+        this.enabled = enabled && maxBytes > 0;
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = Math.min(maxEntryBytes, maxBytes);
+        this.offHeap = offHeap;
+        // Roughly one counter per 16 KB of cache, within sensible bounds
+        this.sketch = new FrequencySketch((int) Math.min(1 << 20, Math.max(1024, maxBytes / 16384)));
+
+        this.hits = Counter.builder("filestorage.hotcache.requests")
+                .description("Blob reads answered from memory")
+                .tag("result", "hit")
+                .register(meterRegistry);
+        this.misses = Counter.builder("filestorage.hotcache.requests")
+                .description("Blob reads that went to disk")
+                .tag("result", "miss")
+                .register(meterRegistry);
+        this.coalesced = Counter.builder("filestorage.hotcache.requests")
+                .description("Blob reads that waited for a read already in progress")
+                .tag("result", "coalesced")
+                .register(meterRegistry);
+        this.rejected = Counter.builder("filestorage.hotcache.rejected")
+                .description("Blobs kept out because cached entries are accessed more often")
+                .register(meterRegistry);
+        this.evictions = Counter.builder("filestorage.hotcache.evictions")
+                .description("Entries dropped to make room for more popular blobs")
+                .register(meterRegistry);
+        Gauge.builder("filestorage.hotcache.size", this, HotContentCache::usedBytes)
+                .description("Bytes held by the hot content cache")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("filestorage.hotcache.entries", this, HotContentCache::size)
+                .description("Blobs held by the hot content cache")
+                .register(meterRegistry);
+
+        if (this.enabled) {
+            System.out.println("Hot content cache: " + maxBytes + " bytes " + (offHeap ? "off-heap" : "on-heap")
+                    + ", blobs up to " + this.maxEntryBytes + " bytes");
+        }
+    }
+
+    /**
+     * True when the blob is small enough to be cached at all
+     */
+    public boolean accepts(BlobRegion blob) {
+        return enabled && blob.getLength() <= maxEntryBytes;
+    }
+
+    /**
+     * The blob's bytes as a read-only buffer of its own, loading them if the blob is worth
+     * admitting. Returns null when the caller should read the file itself: the blob is too
+     * large, or it is not requested often enough to displace what is cached.
+     */
+    public ByteBuffer get(BlobRegion blob) throws IOException {
+        if (!accepts(blob)) {
+            return null;
+        }
+        String key = keyOf(blob);
+
+        synchronized (this) {
+            sketch.increment(key);
+            ByteBuffer cached = entries.get(key);
+            if (cached != null) {
+                hits.increment();
+                return cached.duplicate();
+            }
+            if (!makeRoom(blob.getLength(), sketch.frequency(key), false)) {
+                rejected.increment();
+                return null;
+            }
+        }
+
+        CompletableFuture<ByteBuffer> own = new CompletableFuture<>();
+        CompletableFuture<ByteBuffer> pending = loading.putIfAbsent(key, own);
+        if (pending != null) {
+            coalesced.increment();
+            return await(pending).duplicate();
+        }
+
+        try {
+            ByteBuffer content;
+            synchronized (this) {
+                // Another read may have finished between the lookup and claiming the load
+                content = entries.get(key);
+            }
+            if (content == null) {
+                misses.increment();
+                content = read(blob);
+                insert(key, content);
+            }
+            own.complete(content);
+            return content.duplicate();
+        } catch (IOException | RuntimeException e) {
+            own.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key, own);
+        }
+    }
+
+    /**
+     * A view of {@code count} bytes of cached content starting at {@code position}
+     */
+    public static ByteBuffer slice(ByteBuffer content, long position, long count) {
+        ByteBuffer view = content.duplicate();
+        view.position((int) position);
+        view.limit((int) (position + count));
+        return view.slice();
+    }
+
+    public synchronized long usedBytes() {
+        return usedBytes;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private ByteBuffer read(BlobRegion blob) throws IOException {
+        int length = (int) blob.getLength();
+        ByteBuffer buffer = offHeap ? ByteBuffer.allocateDirect(length) : ByteBuffer.allocate(length);
+        try (SeekableByteChannel channel = blob.openChannel()) {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new EOFException("Unexpected end of file while caching " + blob.getPath());
+                }
+            }
+        }
+        buffer.flip();
+        return buffer.asReadOnlyBuffer();
+    }
+
+    private synchronized void insert(String key, ByteBuffer content) {
+        // The cache may have filled up with more popular blobs while this one was read;
+        // the waiting requests are served either way
+        if (!entries.containsKey(key) && makeRoom(content.capacity(), sketch.frequency(key), true)) {
+            entries.put(key, content);
+            usedBytes += content.capacity();
+        }
+    }
+
+    /**
+     * Whether {@code size} bytes fit once enough least recently used entries go, each of them
+     * requested less often than the candidate. Evicts them when {@code evict} is set.
+     */
+    private boolean makeRoom(long size, int frequency, boolean evict) {
+        long free = maxBytes - usedBytes;
+        if (free >= size) {
+            return true;
+        }
+
+        List<String> victims = new ArrayList<>();
+        Iterator<Map.Entry<String, ByteBuffer>> eldest = entries.entrySet().iterator();
+        while (free < size && eldest.hasNext()) {
+            Map.Entry<String, ByteBuffer> victim = eldest.next();
+            if (sketch.frequency(victim.getKey()) >= frequency) {
+                return false;
+            }
+            victims.add(victim.getKey());
+            free += victim.getValue().capacity();
+        }
+        if (free < size) {
+            return false;
+        }
+
+        if (evict) {
+            for (String victim : victims) {
+                usedBytes -= entries.remove(victim).capacity();
+                evictions.increment();
+            }
+        }
+        return true;
+    }
+
+    private ByteBuffer await(CompletableFuture<ByteBuffer> pending) throws IOException {
+        try {
+            return pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a blob read");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Blob read failed", e.getCause());
+        }
+    }
+
+    private String keyOf(BlobRegion blob) {
+        return blob.getPath().toAbsolutePath() + "#" + blob.getOffset() + "+" + blob.getLength();
+    }
+
+    /**
+     * Approximate access counts in little memory: a count-min sketch of four rows of small
+     * saturating counters. All counts are halved periodically so popularity fades over time.
+     */
+    private static final class FrequencySketch {
+        private static final int MAX_COUNT = 15;
+        private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+        private final byte[][] rows;
+        private final int mask;
+        private final int resetAfter;
+        private int additions;
+
+        private FrequencySketch(int width) {
+            int size = Integer.highestOneBit(Math.max(2, width - 1)) << 1;
+            this.rows = new byte[SEEDS.length][size];
+            this.mask = size - 1;
+            this.resetAfter = size * 10;
+        }
+
+        private void increment(String key) {
+            int hash = key.hashCode();
+            boolean added = false;
+            for (int row = 0; row < rows.length; row++) {
+                int index = index(hash, row);
+                if (rows[row][index] < MAX_COUNT) {
+                    rows[row][index]++;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= resetAfter) {
+                age();
+            }
+        }
+
+        private int frequency(String key) {
+            int hash = key.hashCode();
+            int frequency = MAX_COUNT;
+            for (int row = 0; row < rows.length; row++) {
+                frequency = Math.min(frequency, rows[row][index(hash, row)]);
+            }
+            return frequency;
+        }
+
+        private int index(int hash, int row) {
+            int mixed = (hash ^ SEEDS[row]) * SEEDS[row];
+            return (mixed ^ (mixed >>> 16)) & mask;
+        }
+
+        private void age() {
+            for (byte[] row : rows) {
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = (byte) (row[i] >> 1);
+                }
+            }
+            additions /= 2;
+        }
+    }
+}
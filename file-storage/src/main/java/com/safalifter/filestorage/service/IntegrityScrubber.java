@@ -0,0 +1,162 @@
+package com.safalifter.filestorage.service;
+
+import com.safalifter.filestorage.model.File;
+import com.safalifter.filestorage.repository.FileRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Background job re-reading stored files to catch silent corruption. Content-addressed blobs
+ * are re-hashed against their content hash; secure files are fully decrypted, which checks
+ * every GCM tag, and compared with their plaintext checksum. Works through the files table in
+ * keyset-paged batches and starts over once it reaches the end. Reads are spread over a few
+ * threads and share one byte-rate limit so user traffic keeps priority.
+ */
+@Component
+public class IntegrityScrubber {
+
+    private final FileRepository fileRepository;
+    private final StorageService storageService;
+    private final SecureStorageService secureStorageService;
+    private final ExecutorService verifiers;
+    private final IoRateLimiter rateLimiter;
+    private final Counter verified;
+    private final Counter corrupt;
+    private final Counter missing;
+    private final Counter failed;
+    private final Counter bytesVerified;
+
+    @Value("${storage.scrub.enabled:true}")
+    private boolean enabled;
+
+    @Value("${storage.scrub.batch-size:100}")
+    private int batchSize;
+
+    private String lastId = "";
+    private final AtomicLong passCorrupt = new AtomicLong();
+
+    public IntegrityScrubber(FileRepository fileRepository,
+                             StorageService storageService,
+                             SecureStorageService secureStorageService,
+                             MeterRegistry meterRegistry,
+                             @Value("${storage.scrub.parallelism:2}") int parallelism,
+                             @Value("${storage.scrub.max-bytes-per-second:20971520}") long maxBytesPerSecond) {
+        this.fileRepository = fileRepository;
+        this.storageService = storageService;
+        this.secureStorageService = secureStorageService;
+        this.rateLimiter = new IoRateLimiter(maxBytesPerSecond);
+        this.verifiers = Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "integrity-scrubber");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+
+        this.verified = resultCounter(meterRegistry, "ok");
+        this.corrupt = resultCounter(meterRegistry, "corrupt");
+        this.missing = resultCounter(meterRegistry, "missing");
+        this.failed = resultCounter(meterRegistry, "error");
+        this.bytesVerified = Counter.builder("filestorage.scrub.bytes")
+                .description("Bytes re-read by the integrity scrubber")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    private static Counter resultCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("filestorage.scrub.files")
+                .description("Stored files checked by the integrity scrubber, by outcome")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        verifiers.shutdownNow();
+    }
+
+    @Scheduled(fixedDelayString = "${storage.scrub.interval-ms:60000}",
+            initialDelayString = "${storage.scrub.initial-delay-ms:300000}")
+    public synchronized void scrubBatch() {
+        if (!enabled) {
+            return;
+        }
+
+        List<File> batch = fileRepository.findByIdGreaterThanOrderByIdAsc(lastId, PageRequest.of(0, batchSize));
+        if (batch.isEmpty()) {
+            if (!lastId.isEmpty()) {
+                System.out.println("Integrity scrub pass complete, " + passCorrupt.get() + " corrupt file(s) found");
+            }
+            lastId = "";
+            passCorrupt.set(0);
+            return;
+        }
+
+        // Deduplicated uploads share a blob; one check per blob per batch is enough
+        Set<String> blobsInBatch = new HashSet<>();
+        List<Callable<Void>> checks = new ArrayList<>();
+        for (File fileRecord : batch) {
+            if (fileRecord.getContentHash() != null && !blobsInBatch.add(fileRecord.getContentHash())) {
+                continue;
+            }
+            checks.add(() -> {
+                verify(fileRecord);
+                return null;
+            });
+        }
+
+        try {
+            verifiers.invokeAll(checks);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        lastId = batch.get(batch.size() - 1).getId();
+    }
+
+    private void verify(File fileRecord) {
+        boolean secure = fileRecord.getWrappedKey() != null || fileRecord.getChecksum() != null;
+        if (!secure && fileRecord.getContentHash() == null) {
+            // Legacy rows have nothing recorded to compare against
+            return;
+        }
+
+        try {
+            boolean intact = secure
+                    ? secureStorageService.verifyIntegrity(fileRecord, rateLimiter)
+                    : storageService.verifyBlob(fileRecord, rateLimiter);
+            if (intact) {
+                verified.increment();
+                if (fileRecord.getSize() != null) {
+                    bytesVerified.increment(fileRecord.getSize());
+                }
+            } else {
+                corrupt.increment();
+                passCorrupt.incrementAndGet();
+                System.err.println("CORRUPT: file " + fileRecord.getId() + " at " + fileRecord.getFilePath()
+                        + " does not match its recorded hash");
+            }
+        } catch (NoSuchFileException e) {
+            missing.increment();
+            System.err.println("Integrity scrub: content of file " + fileRecord.getId() + " is missing");
+        } catch (IOException | RuntimeException e) {
+            failed.increment();
+            System.err.println("Integrity scrub of file " + fileRecord.getId() + " failed: " + e.getMessage());
+        }
+    }
+}
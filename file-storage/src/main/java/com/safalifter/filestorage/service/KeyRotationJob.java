@@ -0,0 +1,78 @@
+package com.safalifter.filestorage.service;
+
+import com.safalifter.filestorage.model.File;
+import com.safalifter.filestorage.repository.FileRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.List;
+
+/**
+ * Background job re-wrapping secure file data keys after a master key rotation.
+ * A rotation is started by adding a {@code master-v<N>.key} file with a higher version to the
+ * key folder; new uploads use it right away and this job works through older records in
+ * keyset-paged batches. Old master keys can be removed once no record refers to them.
+ */
+@Component
+@RequiredArgsConstructor
+public class KeyRotationJob {
+
+    private final FileRepository fileRepository;
+    private final SecureStorageService secureStorageService;
+    private final EnvelopeKeyService envelopeKeyService;
+
+    @Value("${storage.secure.rotation.enabled:true}")
+    private boolean enabled;
+
+    @Value("${storage.secure.rotation.batch-size:500}")
+    private int batchSize;
+
+    private String lastId = "";
+    private long rewrapped;
+
+    @Scheduled(fixedDelayString = "${storage.secure.rotation.interval-ms:30000}",
+            initialDelayString = "${storage.secure.rotation.initial-delay-ms:60000}")
+    public synchronized void rewrapBatch() {
+        if (!enabled) {
+            return;
+        }
+
+        int activeVersion;
+        try {
+            activeVersion = envelopeKeyService.reloadMasterKeys();
+        } catch (IOException e) {
+            System.err.println("Unable to reload master keys: " + e.getMessage());
+            return;
+        }
+
+        List<File> batch = fileRepository.findByKeyVersionLessThanAndIdGreaterThanOrderByIdAsc(
+                activeVersion, lastId, PageRequest.of(0, batchSize));
+        if (batch.isEmpty()) {
+            if (!lastId.isEmpty()) {
+                System.out.println("Key rotation to version " + activeVersion + " complete, "
+                        + rewrapped + " data key(s) re-wrapped");
+            }
+            lastId = "";
+            rewrapped = 0;
+            return;
+        }
+
+        for (File fileRecord : batch) {
+            lastId = fileRecord.getId();
+            try {
+                if (secureStorageService.rewrapKey(fileRecord)) {
+                    rewrapped++;
+                }
+            } catch (GeneralSecurityException | IllegalStateException e) {
+                System.err.println("Unable to re-wrap data key of file " + fileRecord.getId() + ": " + e.getMessage());
+            }
+        }
+
+        System.out.println("Key rotation progressed to id " + lastId + ", " + rewrapped + " data key(s) re-wrapped");
+    }
+}
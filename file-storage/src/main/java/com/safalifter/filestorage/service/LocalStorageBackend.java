@@ -0,0 +1,91 @@
+package com.safalifter.filestorage.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * One file per blob under the storage root, flat or sharded by hash prefix. Locations are the
+ * absolute paths themselves, which is what every row stored before backends existed holds.
+ */
+@Component
+public class LocalStorageBackend implements StorageBackend {
+
+    public static final String NAME = "local";
+
+    private static final String SHARDED_LAYOUT = "sharded";
+
+    private final Path root;
+
+    @Value("${storage.layout.type:flat}")
+    private String layout;
+
+    public LocalStorageBackend(@Value("${storage.local.root:/data/attachments}") String root) {
+        this.root = Paths.get(root);
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    public String getLayout() {
+        return layout;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public boolean owns(String location) {
+        return location != null && location.startsWith("/");
+    }
+
+    @Override
+    public String store(String blobName, Path source, long size) throws IOException {
+        Path blobPath = layoutPath(blobName);
+        System.out.println("Saving file to path: " + blobPath);
+        Files.createDirectories(blobPath.getParent());
+        Files.move(source, blobPath, StandardCopyOption.ATOMIC_MOVE);
+        return blobPath.toString();
+    }
+
+    @Override
+    public boolean exists(String location) {
+        return Files.exists(Paths.get(location));
+    }
+
+    @Override
+    public BlobRegion resolve(String location) throws IOException {
+        Path filePath = Paths.get(location);
+        if (!Files.isRegularFile(filePath)) {
+            throw new NoSuchFileException(location);
+        }
+        return BlobRegion.of(filePath, Files.size(filePath));
+    }
+
+    @Override
+    public boolean delete(String location) throws IOException {
+        return Files.deleteIfExists(Paths.get(location));
+    }
+
+    /**
+     * Location of a blob under the configured layout: flat puts everything in the root folder,
+     * sharded fans out over two levels of two-character prefixes (ab/cd/abcd...).
+     */
+    Path layoutPath(String blobName) {
+        if (!SHARDED_LAYOUT.equalsIgnoreCase(layout) || blobName.length() < 4) {
+            return root.resolve(blobName);
+        }
+        return root.resolve(blobName.substring(0, 2))
+                .resolve(blobName.substring(2, 4))
+                .resolve(blobName);
+    }
+}
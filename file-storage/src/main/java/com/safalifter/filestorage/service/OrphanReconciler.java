@@ -0,0 +1,390 @@
+package com.safalifter.filestorage.service;
+
+import com.safalifter.filestorage.model.File;
+import com.safalifter.filestorage.repository.FileRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reconciles the storage folders with the files table. Crashes between writing a blob and
+ * saving its record (or between deleting one and the other) leave orphan files on disk and
+ * records without content; nothing else ever cleans those up.
+ *
+ * The folders are walked in parallel, one task per top-level directory, and the paths found
+ * are checked against the table in chunks, so neither side is ever held in memory as a whole.
+ * Orphans older than the grace period are quarantined (or deleted, or only reported) and the
+ * quarantine is purged after its retention. Records are streamed in keyset pages and those
+ * whose content is missing are reported; they are never deleted automatically.
+ */
+@Component
+public class OrphanReconciler {
+
+    private static final String QUARANTINE_FOLDER = ".quarantine";
+    // Working folders owned by other components; their contents are not blobs (pack segments
+    // are garbage-collected by their own compaction)
+    private static final Set<String> SKIPPED_FOLDERS = Set.of(".tmp", ".derivatives", ".packs", ".s3-cache",
+            ".cold-cache", QUARANTINE_FOLDER);
+    private static final int DANGLING_SAMPLE_SIZE = 100;
+
+    private final FileRepository fileRepository;
+    private final StorageService storageService;
+    private final StorageLayoutMigrator layoutMigrator;
+    private final ColdTierJob coldTierJob;
+    private final ExecutorService walkers;
+    private final List<Path> roots;
+
+    @Value("${storage.reconcile.enabled:true}")
+    private boolean enabled;
+
+    // report: only log and report, quarantine: move orphans aside, delete: remove them
+    @Value("${storage.reconcile.action:quarantine}")
+    private String action;
+
+    @Value("${storage.reconcile.grace-period-hours:24}")
+    private long gracePeriodHours;
+
+    @Value("${storage.reconcile.quarantine-retention-days:7}")
+    private long quarantineRetentionDays;
+
+    @Value("${storage.reconcile.chunk-size:500}")
+    private int chunkSize;
+
+    private volatile Map<String, Object> lastReport = Collections.emptyMap();
+
+    public OrphanReconciler(FileRepository fileRepository,
+                            StorageService storageService,
+                            LocalStorageBackend localBackend,
+                            StorageLayoutMigrator layoutMigrator,
+                            ColdTierJob coldTierJob,
+                            @Value("${storage.reconcile.parallelism:4}") int parallelism) {
+        this.fileRepository = fileRepository;
+        this.storageService = storageService;
+        this.layoutMigrator = layoutMigrator;
+        this.coldTierJob = coldTierJob;
+        this.roots = List.of(localBackend.getRoot(), SecureStorageService.SECURE_ROOT);
+        this.walkers = Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "orphan-reconciler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        walkers.shutdownNow();
+    }
+
+    public Map<String, Object> getLastReport() {
+        return lastReport;
+    }
+
+    @Scheduled(fixedDelayString = "${storage.reconcile.interval-ms:21600000}",
+            initialDelayString = "${storage.reconcile.initial-delay-ms:600000}")
+    public synchronized void reconcile() {
+        if (!enabled) {
+            return;
+        }
+
+        Report report = new Report();
+        Instant cutoff = Instant.now().minus(Duration.ofHours(gracePeriodHours));
+        System.out.println("Reconciling storage with the files table (action: " + action + ")");
+
+        try {
+            List<Future<?>> tasks = new ArrayList<>();
+            for (Path root : roots) {
+                if (!Files.isDirectory(root)) {
+                    continue;
+                }
+                tasks.addAll(walkRoot(root, cutoff, report));
+                purgeQuarantine(root, report);
+                cleanStaleTempFiles(root.resolve(".tmp"), cutoff, report);
+            }
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+            findDanglingRecords(report);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            report.error = "interrupted";
+        } catch (ExecutionException | IOException e) {
+            System.err.println("Storage reconciliation failed: " + e.getMessage());
+            report.error = e.getMessage();
+        }
+
+        lastReport = report.toMap();
+        System.out.println("Storage reconciliation finished: " + lastReport);
+    }
+
+    /**
+     * Files directly in the root are checked here; every subdirectory becomes its own task
+     */
+    private List<Future<?>> walkRoot(Path root, Instant cutoff, Report report) throws IOException {
+        List<Future<?>> tasks = new ArrayList<>();
+        List<Path> chunk = new ArrayList<>();
+
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(root)) {
+            for (Path entry : entries) {
+                if (Files.isDirectory(entry)) {
+                    if (!SKIPPED_FOLDERS.contains(entry.getFileName().toString())) {
+                        tasks.add(walkers.submit((Callable<Void>) () -> {
+                            walkTree(root, entry, cutoff, report);
+                            return null;
+                        }));
+                    }
+                } else if (Files.isRegularFile(entry)) {
+                    chunk.add(entry);
+                    if (chunk.size() >= chunkSize) {
+                        checkChunk(root, chunk, cutoff, report);
+                        chunk.clear();
+                    }
+                }
+            }
+        }
+        checkChunk(root, chunk, cutoff, report);
+        return tasks;
+    }
+
+    private void walkTree(Path root, Path directory, Instant cutoff, Report report) throws IOException {
+        List<Path> chunk = new ArrayList<>();
+        Files.walkFileTree(directory, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                if (attributes.isRegularFile()) {
+                    chunk.add(file);
+                    if (chunk.size() >= chunkSize) {
+                        checkChunk(root, chunk, cutoff, report);
+                        chunk.clear();
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        checkChunk(root, chunk, cutoff, report);
+    }
+
+    /**
+     * One query tells which of the chunk's paths have a record; the rest are orphans
+     */
+    private void checkChunk(Path root, List<Path> chunk, Instant cutoff, Report report) throws IOException {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        report.scannedFiles.addAndGet(chunk.size());
+
+        List<String> paths = new ArrayList<>(chunk.size());
+        for (Path path : chunk) {
+            paths.add(path.toString());
+        }
+        Set<String> referenced = new HashSet<>(fileRepository.findReferencedFilePaths(paths));
+
+        for (Path path : chunk) {
+            if (referenced.contains(path.toString())) {
+                continue;
+            }
+            // Moved blobs keep their old copy for a while, unreferenced but still being read
+            if (layoutMigrator.isPendingUnlink(path) || coldTierJob.isPendingDelete(path.toString())) {
+                continue;
+            }
+
+            BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            } catch (IOException e) {
+                // Deleted while we were looking
+                continue;
+            }
+            // Young files may belong to an upload whose record is about to be saved
+            if (attributes.lastModifiedTime().toInstant().isAfter(cutoff)) {
+                continue;
+            }
+
+            report.orphanFiles.incrementAndGet();
+            report.orphanBytes.addAndGet(attributes.size());
+            handleOrphan(root, path, report);
+        }
+    }
+
+    private void handleOrphan(Path root, Path path, Report report) throws IOException {
+        switch (action.toLowerCase()) {
+            case "delete":
+                if (storageService.removeOrphan(path, null)) {
+                    System.out.println("Deleted orphan file " + path);
+                    report.deleted.incrementAndGet();
+                }
+                break;
+            case "quarantine":
+                Path target = root.resolve(QUARANTINE_FOLDER)
+                        .resolve(LocalDate.now(ZoneOffset.UTC).toString())
+                        .resolve(root.relativize(path));
+                if (storageService.removeOrphan(path, target)) {
+                    System.out.println("Quarantined orphan file " + path + " to " + target);
+                    report.quarantined.incrementAndGet();
+                }
+                break;
+            default:
+                System.out.println("Orphan file " + path);
+        }
+    }
+
+    /**
+     * Quarantine folders are named by date; whole days past the retention are removed
+     */
+    private void purgeQuarantine(Path root, Report report) throws IOException {
+        Path quarantine = root.resolve(QUARANTINE_FOLDER);
+        if (!Files.isDirectory(quarantine)) {
+            return;
+        }
+
+        LocalDate oldestKept = LocalDate.now(ZoneOffset.UTC).minusDays(quarantineRetentionDays);
+        try (DirectoryStream<Path> days = Files.newDirectoryStream(quarantine)) {
+            for (Path day : days) {
+                LocalDate date;
+                try {
+                    date = LocalDate.parse(day.getFileName().toString());
+                } catch (RuntimeException e) {
+                    continue;
+                }
+                if (date.isBefore(oldestKept)) {
+                    System.out.println("Purging quarantine folder " + day);
+                    report.purged.addAndGet(deleteTree(day));
+                }
+            }
+        }
+    }
+
+    private long deleteTree(Path directory) throws IOException {
+        AtomicLong deleted = new AtomicLong();
+        Files.walkFileTree(directory, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                Files.delete(file);
+                deleted.incrementAndGet();
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return deleted.get();
+    }
+
+    /**
+     * Temp files left behind by crashed uploads; resumable upload parts expire on their own
+     */
+    private void cleanStaleTempFiles(Path tempFolder, Instant cutoff, Report report) throws IOException {
+        if (!Files.isDirectory(tempFolder)) {
+            return;
+        }
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(tempFolder)) {
+            for (Path entry : entries) {
+                if (entry.getFileName().toString().endsWith(".part") || !Files.isRegularFile(entry)) {
+                    continue;
+                }
+                if (Files.getLastModifiedTime(entry).toInstant().isBefore(cutoff) && Files.deleteIfExists(entry)) {
+                    report.staleTempFiles.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * Streams the files table in keyset pages and reports records whose content is missing
+     */
+    private void findDanglingRecords(Report report) throws InterruptedException, ExecutionException {
+        String lastId = "";
+        while (true) {
+            List<File> page = fileRepository.findByIdGreaterThanOrderByIdAsc(lastId, PageRequest.of(0, chunkSize));
+            if (page.isEmpty()) {
+                return;
+            }
+
+            List<Callable<Boolean>> checks = new ArrayList<>();
+            for (File fileRecord : page) {
+                checks.add(() -> storageService.blobExists(fileRecord));
+            }
+            List<Future<Boolean>> results = walkers.invokeAll(checks);
+            for (int i = 0; i < page.size(); i++) {
+                if (!results.get(i).get()) {
+                    report.addDangling(page.get(i).getId());
+                }
+            }
+
+            report.scannedRecords.addAndGet(page.size());
+            lastId = page.get(page.size() - 1).getId();
+        }
+    }
+
+    private class Report {
+        private final Instant startedAt = Instant.now();
+        private final AtomicLong scannedFiles = new AtomicLong();
+        private final AtomicLong scannedRecords = new AtomicLong();
+        private final AtomicLong orphanFiles = new AtomicLong();
+        private final AtomicLong orphanBytes = new AtomicLong();
+        private final AtomicLong quarantined = new AtomicLong();
+        private final AtomicLong deleted = new AtomicLong();
+        private final AtomicLong purged = new AtomicLong();
+        private final AtomicLong staleTempFiles = new AtomicLong();
+        private final AtomicLong danglingRecords = new AtomicLong();
+        private final List<String> danglingSample = Collections.synchronizedList(new ArrayList<>());
+        private volatile String error;
+
+        private void addDangling(String id) {
+            danglingRecords.incrementAndGet();
+            if (danglingSample.size() < DANGLING_SAMPLE_SIZE) {
+                danglingSample.add(id);
+            }
+        }
+
+        private Map<String, Object> toMap() {
+            Map<String, Object> map = new HashMap<>();
+            map.put("action", action);
+            map.put("startedAt", startedAt.toString());
+            map.put("finishedAt", Instant.now().toString());
+            map.put("scannedFiles", scannedFiles.get());
+            map.put("scannedRecords", scannedRecords.get());
+            map.put("orphanFiles", orphanFiles.get());
+            map.put("orphanBytes", orphanBytes.get());
+            map.put("quarantined", quarantined.get());
+            map.put("deleted", deleted.get());
+            map.put("purgedFromQuarantine", purged.get());
+            map.put("staleTempFiles", staleTempFiles.get());
+            map.put("danglingRecords", danglingRecords.get());
+            map.put("danglingRecordSample", new ArrayList<>(danglingSample));
+            if (error != null) {
+                map.put("error", error);
+            }
+            return map;
+        }
+    }
+}
@@ -0,0 +1,412 @@
+package com.safalifter.filestorage.service;
+
+import com.safalifter.filestorage.model.PackEntry;
+import com.safalifter.filestorage.repository.FileRepository;
+import com.safalifter.filestorage.repository.PackEntryRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Append-only storage for small blobs. Instead of one file (and inode) per upload, blobs are
+ * appended to large segment files and located through the {@link PackEntry} offset index, so
+ * backups and scans read a few big files sequentially. Each record is self-describing:
+ *
+ * <pre>
+ * record := "OSPK" | name length (2) | blob name | data length (8) | data
+ * </pre>
+ *
+ * Deleting a blob only drops its index entry. Compaction copies the live records of segments
+ * that are mostly dead into the active segment and removes the old segment on the next run,
+ * once readers that resolved it before the move are done.
+ */
+@Component
+@ConditionalOnProperty(name = "storage.pack.enabled", havingValue = "true")
+public class PackFileStorageBackend implements StorageBackend {
+
+    public static final String NAME = "pack";
+
+    private static final String PREFIX = "pack:";
+    private static final byte[] RECORD_MAGIC = {'O', 'S', 'P', 'K'};
+    private static final Pattern SEGMENT_FILE = Pattern.compile("segment-(\\d+)\\.pack");
+
+    private final PackEntryRepository packEntryRepository;
+    private final FileRepository fileRepository;
+    private final BlobLocks blobLocks;
+    private final Path packFolder;
+    private final long maxBlobSize;
+    private final long segmentSize;
+    // Index entries by blob name (LRU); compaction and deletes keep it in sync
+    private final Map<String, PackEntry> entryCache;
+
+    @Value("${storage.pack.compaction.enabled:true}")
+    private boolean compactionEnabled;
+
+    // Segments with at least this fraction of dead bytes are rewritten
+    @Value("${storage.pack.compaction.min-dead-ratio:0.5}")
+    private double minDeadRatio;
+
+    // Segments touched more recently than this are left alone (appends and moves still settling)
+    @Value("${storage.pack.compaction.min-age-ms:3600000}")
+    private long minSegmentAge;
+
+    // Index entries no file references are dropped once older than this (uploads in flight)
+    @Value("${storage.pack.compaction.grace-period-hours:24}")
+    private long gracePeriodHours;
+
+    @Value("${storage.pack.compaction.batch-size:500}")
+    private int batchSize;
+
+    private FileChannel activeChannel;
+    private volatile String activeSegment;
+    private long activeNumber;
+    private long activeSize;
+
+    public PackFileStorageBackend(PackEntryRepository packEntryRepository,
+                                  FileRepository fileRepository,
+                                  BlobLocks blobLocks,
+                                  @Value("${storage.pack.dir:/data/attachments/.packs}") String packDir,
+                                  @Value("${storage.pack.max-blob-size:131072}") long maxBlobSize,
+                                  @Value("${storage.pack.segment-size:268435456}") long segmentSize,
+                                  @Value("${storage.pack.index-cache-size:10000}") int cacheSize) {
+        this.packEntryRepository = packEntryRepository;
+        this.fileRepository = fileRepository;
+        this.blobLocks = blobLocks;
+        this.packFolder = Paths.get(packDir);
+        this.maxBlobSize = maxBlobSize;
+        this.segmentSize = segmentSize;
+        this.entryCache = new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PackEntry> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    @PostConstruct
+    public void init() {
+        try {
+            Files.createDirectories(packFolder);
+
+            // Keep appending to the newest segment if it still has room
+            long highest = 0;
+            try (DirectoryStream<Path> segments = Files.newDirectoryStream(packFolder, "segment-*.pack")) {
+                for (Path segment : segments) {
+                    Matcher matcher = SEGMENT_FILE.matcher(segment.getFileName().toString());
+                    if (matcher.matches()) {
+                        highest = Math.max(highest, Long.parseLong(matcher.group(1)));
+                    }
+                }
+            }
+            if (highest > 0 && Files.size(packFolder.resolve(segmentName(highest))) < segmentSize) {
+                openSegment(highest);
+            } else {
+                openSegment(highest + 1);
+            }
+            System.out.println("Pack storage folder: " + packFolder + ", active segment: " + activeSegment);
+        } catch (IOException e) {
+            System.err.println("Error opening pack storage: " + e.getMessage());
+            throw new RuntimeException("Unable to open pack storage in " + packFolder, e);
+        }
+    }
+
+    @PreDestroy
+    public synchronized void close() throws IOException {
+        if (activeChannel != null) {
+            activeChannel.close();
+        }
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    /**
+     * Only blobs up to storage.pack.max-blob-size are packed; larger ones go to the primary backend
+     */
+    public boolean accepts(long size) {
+        return size <= maxBlobSize;
+    }
+
+    @Override
+    public boolean owns(String location) {
+        return location != null && location.startsWith(PREFIX);
+    }
+
+    @Override
+    public String store(String blobName, Path source, long size) throws IOException {
+        PackEntry entry;
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+            entry = append(blobName, in, 0, size);
+        }
+        packEntryRepository.save(entry);
+        cache(entry);
+        return PREFIX + blobName;
+    }
+
+    @Override
+    public boolean exists(String location) {
+        return entry(blobName(location)) != null;
+    }
+
+    @Override
+    public BlobRegion resolve(String location) throws IOException {
+        PackEntry entry = entry(blobName(location));
+        if (entry == null) {
+            throw new NoSuchFileException(location);
+        }
+        return new BlobRegion(packFolder.resolve(entry.getSegment()), entry.getDataOffset(), entry.getLength());
+    }
+
+    @Override
+    public boolean delete(String location) {
+        String blobName = blobName(location);
+        // Same lock compaction moves entries under, so a moved entry is never re-cached after this
+        synchronized (blobLocks.forHash(blobName)) {
+            synchronized (entryCache) {
+                entryCache.remove(blobName);
+            }
+            if (!packEntryRepository.existsById(blobName)) {
+                return false;
+            }
+            // The bytes stay in the segment until compaction rewrites it
+            packEntryRepository.deleteById(blobName);
+            return true;
+        }
+    }
+
+    /**
+     * Appends one record to the active segment and returns its (unsaved) index entry. Rolls over
+     * to a new segment once the active one is full.
+     */
+    private synchronized PackEntry append(String blobName, FileChannel source, long sourceOffset, long length)
+            throws IOException {
+        byte[] name = blobName.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer header = ByteBuffer.allocate(RECORD_MAGIC.length + 2 + name.length + 8)
+                .put(RECORD_MAGIC)
+                .putShort((short) name.length)
+                .put(name)
+                .putLong(length);
+        header.flip();
+
+        long recordStart = activeSize;
+        long dataOffset = recordStart + header.remaining();
+        try {
+            activeChannel.position(recordStart);
+            while (header.hasRemaining()) {
+                activeChannel.write(header);
+            }
+            long copied = 0;
+            while (copied < length) {
+                long written = source.transferTo(sourceOffset + copied, length - copied, activeChannel);
+                if (written <= 0) {
+                    throw new IOException("Source of blob " + blobName + " ended after " + copied + " bytes");
+                }
+                copied += written;
+            }
+            activeChannel.force(false);
+        } catch (IOException e) {
+            // Drop the partial record so the next append starts on a clean boundary
+            activeChannel.truncate(recordStart);
+            throw e;
+        }
+
+        activeSize = dataOffset + length;
+        PackEntry entry = PackEntry.builder()
+                .blobName(blobName)
+                .segment(activeSegment)
+                .dataOffset(dataOffset)
+                .length(length)
+                .createdAt(Instant.now())
+                .build();
+
+        if (activeSize >= segmentSize) {
+            activeChannel.close();
+            openSegment(activeNumber + 1);
+            System.out.println("Pack segment full, rolled over to " + activeSegment);
+        }
+        return entry;
+    }
+
+    private void openSegment(long number) throws IOException {
+        activeNumber = number;
+        activeSegment = segmentName(number);
+        activeChannel = FileChannel.open(packFolder.resolve(activeSegment),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        activeSize = activeChannel.size();
+    }
+
+    @Scheduled(fixedDelayString = "${storage.pack.compaction.interval-ms:3600000}",
+            initialDelayString = "${storage.pack.compaction.initial-delay-ms:900000}")
+    public void compact() {
+        if (!compactionEnabled) {
+            return;
+        }
+
+        Map<String, Long> liveBytes = new HashMap<>();
+        for (Object[] row : packEntryRepository.sumLengthBySegment()) {
+            liveBytes.put((String) row[0], ((Number) row[1]).longValue());
+        }
+
+        List<Path> candidates = new ArrayList<>();
+        long settledBefore = System.currentTimeMillis() - minSegmentAge;
+        try (DirectoryStream<Path> segments = Files.newDirectoryStream(packFolder, "segment-*.pack")) {
+            for (Path segment : segments) {
+                String name = segment.getFileName().toString();
+                if (name.equals(activeSegment) || Files.getLastModifiedTime(segment).toMillis() > settledBefore) {
+                    continue;
+                }
+
+                long size = Files.size(segment);
+                long live = liveBytes.getOrDefault(name, 0L);
+                if (live == 0) {
+                    // Emptied by an earlier compaction (or by deletes); nobody can still be reading it
+                    System.out.println("Removing empty pack segment " + name + " (" + size + " bytes)");
+                    Files.deleteIfExists(segment);
+                } else if (size > 0 && 1.0 - (double) live / size >= minDeadRatio) {
+                    candidates.add(segment);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Unable to scan pack segments: " + e.getMessage());
+            return;
+        }
+
+        for (Path segment : candidates) {
+            try {
+                compactSegment(segment);
+            } catch (IOException e) {
+                System.err.println("Compaction of pack segment " + segment + " failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Moves the live records of one segment into the active segment. Entries no file references
+     * any more are dropped once past the grace period. The emptied segment is deleted by the
+     * next run.
+     */
+    private void compactSegment(Path segment) throws IOException {
+        String segmentName = segment.getFileName().toString();
+        Instant cutoff = Instant.now().minus(Duration.ofHours(gracePeriodHours));
+        long moved = 0;
+        long dropped = 0;
+        String lastBlobName = "";
+
+        try (FileChannel in = FileChannel.open(segment, StandardOpenOption.READ)) {
+            while (true) {
+                List<PackEntry> page = packEntryRepository.findBySegmentAndBlobNameGreaterThanOrderByBlobNameAsc(
+                        segmentName, lastBlobName, PageRequest.of(0, batchSize));
+                if (page.isEmpty()) {
+                    break;
+                }
+
+                List<String> locations = new ArrayList<>(page.size());
+                for (PackEntry entry : page) {
+                    locations.add(PREFIX + entry.getBlobName());
+                }
+                Set<String> referenced = new HashSet<>(fileRepository.findReferencedFilePaths(locations));
+
+                for (PackEntry entry : page) {
+                    lastBlobName = entry.getBlobName();
+                    if (!referenced.contains(PREFIX + entry.getBlobName()) && entry.getCreatedAt().isBefore(cutoff)
+                            && dropUnreferenced(entry, segmentName)) {
+                        dropped++;
+                        continue;
+                    }
+
+                    PackEntry copy = append(entry.getBlobName(), in, entry.getDataOffset(), entry.getLength());
+                    // Conditional on the old segment so a concurrent delete is not undone, and under the
+                    // blob lock so a delete cannot land between the move and the cache update
+                    synchronized (blobLocks.forHash(entry.getBlobName())) {
+                        if (packEntryRepository.moveEntry(entry.getBlobName(), segmentName,
+                                copy.getSegment(), copy.getDataOffset()) == 1) {
+                            entry.setSegment(copy.getSegment());
+                            entry.setDataOffset(copy.getDataOffset());
+                            cache(entry);
+                            moved++;
+                        }
+                    }
+                }
+            }
+        }
+
+        System.out.println("Compacted pack segment " + segmentName + ": " + moved + " blob(s) moved, "
+                + dropped + " unreferenced blob(s) dropped");
+    }
+
+    /**
+     * Drops an index entry nothing references, re-checking under the blob lock so an upload of the
+     * same content that re-appended the blob meanwhile keeps its new entry. Returns false when a
+     * file references the blob after all and the record has to be moved instead.
+     */
+    private boolean dropUnreferenced(PackEntry entry, String segmentName) {
+        String blobName = entry.getBlobName();
+        synchronized (blobLocks.forHash(blobName)) {
+            if (fileRepository.countByFilePath(PREFIX + blobName) > 0) {
+                return false;
+            }
+            if (packEntryRepository.deleteEntry(blobName, segmentName, entry.getDataOffset()) == 1) {
+                synchronized (entryCache) {
+                    entryCache.remove(blobName);
+                }
+            }
+            return true;
+        }
+    }
+
+    private PackEntry entry(String blobName) {
+        synchronized (entryCache) {
+            PackEntry cached = entryCache.get(blobName);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        PackEntry entry = packEntryRepository.findById(blobName).orElse(null);
+        if (entry != null) {
+            cache(entry);
+        }
+        return entry;
+    }
+
+    private void cache(PackEntry entry) {
+        synchronized (entryCache) {
+            entryCache.put(entry.getBlobName(), entry);
+        }
+    }
+
+    private String blobName(String location) {
+        return location.substring(PREFIX.length());
+    }
+
+    private String segmentName(long number) {
+        return String.format("segment-%08d.pack", number);
+    }
+}
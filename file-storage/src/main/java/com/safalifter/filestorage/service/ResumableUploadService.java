@@ -0,0 +1,244 @@
+package com.safalifter.filestorage.service;
+
+import com.safalifter.filestorage.exc.GenericErrorResponse;
+import com.safalifter.filestorage.model.UploadSession;
+import com.safalifter.filestorage.model.UploadSessionRequest;
+import com.safalifter.filestorage.repository.UploadSessionRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resumable uploads: a client creates a session, PUTs chunks at byte offsets, can ask for the
+ * committed offset after a dropped connection, and finalizes once everything is written.
+ * Chunks go by position into a temp file pre-allocated to the final size.
+ */
+@Service
+@RequiredArgsConstructor
+public class ResumableUploadService {
+
+    private final UploadSessionRepository uploadSessionRepository;
+    private final StorageService storageService;
+    private final UploadAdmissionService admissionService;
+
+    // Serialises chunk writes per session so offsets are committed in order
+    private final ConcurrentHashMap<String, Object> sessionLocks = new ConcurrentHashMap<>();
+
+    @Value("${storage.resumable.max-size:2147483648}")
+    private long maxSize;
+
+    @Value("${storage.resumable.session-ttl-minutes:1440}")
+    private long sessionTtlMinutes;
+
+    public UploadSession createSession(UploadSessionRequest request) {
+        if (request.getSize() == null || request.getSize() < 0) {
+            throw new GenericErrorResponse("Upload size is required", HttpStatus.BAD_REQUEST);
+        }
+        if (request.getFileName() == null || request.getFileName().isBlank()) {
+            throw new GenericErrorResponse("File name is required", HttpStatus.BAD_REQUEST);
+        }
+        if (request.getSize() > maxSize) {
+            throw new GenericErrorResponse("File too large, maximum size allowed is " + maxSize + " bytes",
+                    HttpStatus.PAYLOAD_TOO_LARGE);
+        }
+
+        String id = UUID.randomUUID().toString();
+        try {
+            Path tempPath = storageService.createTempFile(id, ".part");
+            // Reserve the full length up front so chunks can land at any offset
+            try (RandomAccessFile file = new RandomAccessFile(tempPath.toFile(), "rw")) {
+                file.setLength(request.getSize());
+            }
+
+            Instant now = Instant.now();
+            UploadSession session = UploadSession.builder()
+                    .id(id)
+                    .originalFileName(request.getFileName())
+                    .contentType(request.getContentType())
+                    .totalSize(request.getSize())
+                    .committedOffset(0L)
+                    .tempPath(tempPath.toString())
+                    .createdAt(now)
+                    .expiresAt(now.plus(Duration.ofMinutes(sessionTtlMinutes)))
+                    .build();
+
+            System.out.println("Created upload session " + id + " for " + request.getFileName()
+                    + " (" + request.getSize() + " bytes)");
+            return uploadSessionRepository.save(session);
+        } catch (IOException e) {
+            System.err.println("Unable to create upload session: " + e.getMessage());
+            throw new RuntimeException("Unable to create upload session", e);
+        }
+    }
+
+    public UploadSession getSession(String id) {
+        return uploadSessionRepository.findById(id).orElseThrow(() ->
+                new GenericErrorResponse("Upload session not found with id: " + id, HttpStatus.NOT_FOUND));
+    }
+
+    /**
+     * Writes a chunk at the given offset and returns the new committed offset.
+     * Chunks may be re-sent (the overlap is simply rewritten) but must not leave a gap.
+     */
+    public long writeChunk(String id, long offset, InputStream body) {
+        synchronized (lockFor(id)) {
+            UploadSession session = lockedSession(id);
+            long committed = session.getCommittedOffset();
+
+            if (offset < 0 || offset > committed) {
+                throw new GenericErrorResponse("Chunk offset " + offset + " does not match committed offset "
+                        + committed, HttpStatus.CONFLICT);
+            }
+
+            long written;
+            long writeStarted = System.nanoTime();
+            // The chunk streams from the client while it is written, so slow senders hold their
+            // slot longer; size max-concurrent-writes with that in mind
+            try (UploadAdmissionService.Permit permit = admissionService.acquireWrite();
+                 FileChannel channel = FileChannel.open(Paths.get(session.getTempPath()), StandardOpenOption.WRITE)) {
+                written = writeAt(channel, offset, session.getTotalSize() - offset, body);
+            } catch (IOException e) {
+                // Whatever made it to disk before the connection dropped is not trusted
+                System.err.println("Chunk write for session " + id + " failed: " + e.getMessage());
+                throw new RuntimeException("Unable to write chunk", e);
+            }
+            admissionService.recordWrite(written, System.nanoTime() - writeStarted);
+
+            session.setCommittedOffset(Math.max(committed, offset + written));
+            session.setExpiresAt(Instant.now().plus(Duration.ofMinutes(sessionTtlMinutes)));
+            uploadSessionRepository.save(session);
+            return session.getCommittedOffset();
+        }
+    }
+
+    private long writeAt(FileChannel channel, long offset, long limit, InputStream body) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        byte[] array = buffer.array();
+        long position = offset;
+        int read;
+
+        while ((read = body.read(array)) != -1) {
+            if (position - offset + read > limit) {
+                throw new GenericErrorResponse("Chunk exceeds the declared upload size", HttpStatus.BAD_REQUEST);
+            }
+            buffer.clear().limit(read);
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+        }
+        return position - offset;
+    }
+
+    /**
+     * Turns a completely written session into a stored file and returns the new file id
+     */
+    public String completeSession(String id) {
+        synchronized (lockFor(id)) {
+            UploadSession session = lockedSession(id);
+
+            if (!session.getCommittedOffset().equals(session.getTotalSize())) {
+                throw new GenericErrorResponse("Upload incomplete: " + session.getCommittedOffset() + " of "
+                        + session.getTotalSize() + " bytes received", HttpStatus.CONFLICT);
+            }
+
+            try {
+                String fileId = storageService.storeFile(Paths.get(session.getTempPath()),
+                        session.getOriginalFileName(), session.getContentType());
+                uploadSessionRepository.deleteById(id);
+                System.out.println("Upload session " + id + " completed as file " + fileId);
+                return fileId;
+            } catch (IOException e) {
+                System.err.println("Unable to finalize upload session " + id + ": " + e.getMessage());
+                throw new RuntimeException("Unable to save file to storage", e);
+            } finally {
+                sessionLocks.remove(id);
+            }
+        }
+    }
+
+    public void abortSession(String id) {
+        synchronized (lockFor(id)) {
+            discard(lockedSession(id));
+            sessionLocks.remove(id);
+        }
+    }
+
+    /**
+     * Removes sessions nobody has written to within the TTL, together with their temp files
+     */
+    @Scheduled(fixedDelayString = "${storage.resumable.cleanup-interval-ms:600000}")
+    public void expireSessions() {
+        Instant now = Instant.now();
+        List<UploadSession> expired = uploadSessionRepository.findByExpiresAtBefore(now);
+        for (UploadSession candidate : expired) {
+            String id = candidate.getId();
+            synchronized (sessionLocks.computeIfAbsent(id, key -> new Object())) {
+                // A chunk may have extended the session, or /complete removed it, since the query ran
+                UploadSession session;
+                try {
+                    session = lockedSession(id);
+                } catch (GenericErrorResponse e) {
+                    continue;
+                }
+                if (!session.getExpiresAt().isBefore(now)) {
+                    continue;
+                }
+
+                System.out.println("Expiring abandoned upload session " + id);
+                try {
+                    discard(session);
+                } catch (RuntimeException e) {
+                    System.err.println("Unable to expire upload session " + id + ": " + e.getMessage());
+                }
+                sessionLocks.remove(id);
+            }
+        }
+    }
+
+    /**
+     * The session's lock. Unknown or expired ids fail here, before a lock entry is created for them.
+     */
+    private Object lockFor(String id) {
+        getSession(id);
+        return sessionLocks.computeIfAbsent(id, key -> new Object());
+    }
+
+    /**
+     * Re-reads the session under its lock; if it was completed or expired in between, the lock
+     * entry just created for it is dropped again
+     */
+    private UploadSession lockedSession(String id) {
+        try {
+            return getSession(id);
+        } catch (GenericErrorResponse e) {
+            sessionLocks.remove(id);
+            throw e;
+        }
+    }
+
+    private void discard(UploadSession session) {
+        try {
+            Files.deleteIfExists(Paths.get(session.getTempPath()));
+        } catch (IOException e) {
+            System.err.println("Unable to delete temp file for session " + session.getId() + ": " + e.getMessage());
+        }
+        uploadSessionRepository.deleteById(session.getId());
+    }
+}
@@ -0,0 +1,183 @@
+package com.safalifter.filestorage.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3ClientBuilder;
+import software.amazon.awssdk.services.s3.S3Configuration;
+import software.amazon.awssdk.services.s3.model.CreateBucketRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadBucketRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.NoSuchBucketException;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Blobs in an S3-compatible bucket (AWS, or MinIO locally with path-style access). Locations are
+ * {@code s3://bucket/key}. Reads go through a bounded local cache: a blob is downloaded once and
+ * then served from disk like any other, least recently used copies being evicted first.
+ */
+@Component
+@ConditionalOnProperty(name = "storage.s3.enabled", havingValue = "true")
+public class S3StorageBackend implements StorageBackend {
+
+    public static final String NAME = "s3";
+
+    private static final String PREFIX = "s3://";
+
+    private final S3Client client;
+    private final String bucket;
+    private final String keyPrefix;
+    private final DiskBlobCache cache;
+
+    public S3StorageBackend(@Value("${storage.s3.endpoint:}") String endpoint,
+                            @Value("${storage.s3.region:us-east-1}") String region,
+                            @Value("${storage.s3.access-key:}") String accessKey,
+                            @Value("${storage.s3.secret-key:}") String secretKey,
+                            @Value("${storage.s3.bucket:osroom-files}") String bucket,
+                            @Value("${storage.s3.key-prefix:blobs/}") String keyPrefix,
+                            @Value("${storage.s3.cache-dir:/data/attachments/.s3-cache}") String cacheDir,
+                            @Value("${storage.s3.cache-max-bytes:1073741824}") long cacheMaxBytes) {
+        S3ClientBuilder builder = S3Client.builder()
+                .region(Region.of(region))
+                .serviceConfiguration(S3Configuration.builder().pathStyleAccessEnabled(true).build());
+        if (!endpoint.isEmpty()) {
+            builder.endpointOverride(URI.create(endpoint));
+        }
+        if (!accessKey.isEmpty()) {
+            builder.credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create(accessKey, secretKey)));
+        }
+        this.client = builder.build();
+        this.bucket = bucket;
+        this.keyPrefix = keyPrefix;
+        this.cache = new DiskBlobCache(Paths.get(cacheDir), cacheMaxBytes);
+    }
+
+    @PostConstruct
+    public void init() {
+        try {
+            cache.init();
+        } catch (IOException e) {
+            System.err.println("Error creating directory: " + e.getMessage());
+            throw new RuntimeException("Unable to create directories: " + cache.getFolder(), e);
+        }
+
+        try {
+            client.headBucket(HeadBucketRequest.builder().bucket(bucket).build());
+        } catch (NoSuchBucketException e) {
+            System.out.println("Creating bucket " + bucket);
+            client.createBucket(CreateBucketRequest.builder().bucket(bucket).build());
+        }
+        System.out.println("S3 storage bucket: " + bucket + ", cache folder: " + cache.getFolder());
+    }
+
+    @PreDestroy
+    public void close() {
+        client.close();
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public boolean owns(String location) {
+        return location != null && location.startsWith(PREFIX);
+    }
+
+    @Override
+    public String store(String blobName, Path source, long size) {
+        String key = keyPrefix + blobName;
+        System.out.println("Uploading blob to " + PREFIX + bucket + "/" + key);
+        client.putObject(PutObjectRequest.builder().bucket(bucket).key(key).contentLength(size).build(),
+                RequestBody.fromFile(source));
+        return PREFIX + bucket + "/" + key;
+    }
+
+    @Override
+    public boolean exists(String location) {
+        String[] bucketAndKey = bucketAndKey(location);
+        try {
+            client.headObject(HeadObjectRequest.builder().bucket(bucketAndKey[0]).key(bucketAndKey[1]).build());
+            return true;
+        } catch (NoSuchKeyException e) {
+            return false;
+        } catch (S3Exception e) {
+            // HEAD responses carry no error code, so a missing key can surface as a plain 404
+            if (e.statusCode() == 404) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public BlobRegion resolve(String location) throws IOException {
+        String[] bucketAndKey = bucketAndKey(location);
+        BlobRegion cached = cache.lookup(cacheName(bucketAndKey[1]));
+        if (cached != null) {
+            return cached;
+        }
+
+        try (ResponseInputStream<GetObjectResponse> in = client.getObject(
+                GetObjectRequest.builder().bucket(bucketAndKey[0]).key(bucketAndKey[1]).build())) {
+            return cache.fill(cacheName(bucketAndKey[1]), in);
+        } catch (NoSuchKeyException e) {
+            throw new NoSuchFileException(location);
+        }
+    }
+
+    /**
+     * Streams the object from the bucket without keeping a copy in the cache
+     */
+    @Override
+    public InputStream openStream(String location) throws IOException {
+        String[] bucketAndKey = bucketAndKey(location);
+        try {
+            return client.getObject(GetObjectRequest.builder().bucket(bucketAndKey[0]).key(bucketAndKey[1]).build());
+        } catch (NoSuchKeyException e) {
+            throw new NoSuchFileException(location);
+        }
+    }
+
+    @Override
+    public boolean delete(String location) throws IOException {
+        String[] bucketAndKey = bucketAndKey(location);
+        cache.remove(cacheName(bucketAndKey[1]));
+        if (!exists(location)) {
+            return false;
+        }
+        client.deleteObject(DeleteObjectRequest.builder().bucket(bucketAndKey[0]).key(bucketAndKey[1]).build());
+        return true;
+    }
+
+    private String cacheName(String key) {
+        return key.substring(key.lastIndexOf('/') + 1);
+    }
+
+    private String[] bucketAndKey(String location) {
+        String path = location.substring(PREFIX.length());
+        int slash = path.indexOf('/');
+        return new String[]{path.substring(0, slash), path.substring(slash + 1)};
+    }
+}
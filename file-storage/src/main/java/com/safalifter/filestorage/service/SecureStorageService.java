@@ -1,203 +1,408 @@
 package com.safalifter.filestorage.service;
 
+import com.safalifter.filestorage.exc.GenericErrorResponse;
 import com.safalifter.filestorage.model.File;
-import com.safalifter.filestorage.model.FileData;
 import com.safalifter.filestorage.repository.FileRepository;
-import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
+import javax.crypto.AEADBadTagException;
+import javax.crypto.SecretKey;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HexFormat;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
- * Service that interfaces with native C cryptographic libraries
+ * Encrypted file storage. Files are split into fixed-size segments sealed with AES-GCM
+ * (see {@link SegmentedAesGcm}); segments are encrypted in parallel on upload and decrypted
+ * one at a time while streaming a download, so only the segments a range touches are read.
+ * Each file has its own data key, wrapped by a master key (see {@link EnvelopeKeyService}).
  */
 @Service
-@RequiredArgsConstructor
 public class SecureStorageService {
 
+    // Every format ever written here (plain master key, segmented, envelope) lives under this root
+    public static final Path SECURE_ROOT = Paths.get("/data/secure-attachments");
+
     private final FileRepository fileRepository;
+    private final FileMetadataCache metadataCache;
+    private final EnvelopeKeyService envelopeKeyService;
+    private final UploadAdmissionService admissionService;
+    private final ExecutorService cryptoWorkers;
+    private final int maxSegmentsInFlight;
+    private final SecureRandom random = new SecureRandom();
     private Path folderPath;
-    
-    // Native methods (would be implemented in C)
-    private native boolean initializeStorage(String storagePath);
-    private native void cleanupStorage();
-    private native String storeSecureFile(byte[] fileData, String originalName, int securityLevel);
-    private native byte[] retrieveSecureFile(String fileId);
-    private native boolean deleteSecureFileNative(String fileId);
-    private native String computeFileHash(byte[] fileData);
-    private native boolean verifyFileIntegrity(String fileId);
-    
+    private Path tempFolderPath;
+
+    @Value("${storage.secure.segment-size:262144}")
+    private int segmentSize;
+
+    public SecureStorageService(FileRepository fileRepository,
+                                FileMetadataCache metadataCache,
+                                EnvelopeKeyService envelopeKeyService,
+                                UploadAdmissionService admissionService,
+                                @Value("${storage.secure.encryption-threads:0}") int encryptionThreads) {
+        this.fileRepository = fileRepository;
+        this.metadataCache = metadataCache;
+        this.envelopeKeyService = envelopeKeyService;
+        this.admissionService = admissionService;
+        int threads = encryptionThreads > 0 ? encryptionThreads : Runtime.getRuntime().availableProcessors();
+        this.cryptoWorkers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "secure-storage-crypto");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Enough segments queued to keep every core busy while the upload is being read
+        this.maxSegmentsInFlight = threads * 2;
+    }
+
     /**
      * Initialize secure storage
      */
     @PostConstruct
     public void init() {
-        System.out.println("Initializing secure storage service with native C implementation");
-        
+        System.out.println("Initializing secure storage service");
+
         // Set up storage folder
-        folderPath = Paths.get("/data/secure-attachments");
-        
+        folderPath = SECURE_ROOT;
+        tempFolderPath = folderPath.resolve(".tmp");
+
         try {
             if (!Files.exists(folderPath)) {
                 Files.createDirectories(folderPath);
                 System.out.println("Created secure storage directory: " + folderPath);
             }
+            Files.createDirectories(tempFolderPath);
         } catch (IOException e) {
             System.err.println("Error creating secure storage directory: " + e.getMessage());
             throw new RuntimeException("Failed to initialize secure storage", e);
         }
-        
-        // Simulate initialization of native code
-        initializeNativeStorage(folderPath.toString());
     }
-    
+
     /**
      * Clean up resources on shutdown
      */
     @PreDestroy
     public void cleanup() {
         System.out.println("Cleaning up secure storage service");
-        cleanupNativeStorage();
+        cryptoWorkers.shutdownNow();
     }
-    
+
     /**
      * Upload and encrypt a file
      */
     public String uploadSecureFile(MultipartFile file) {
+        String fileId = UUID.randomUUID().toString();
+        Path tempPath = null;
+
         try {
             System.out.println("Securely storing file: " + file.getOriginalFilename());
-            
-            // Read file data
-            byte[] fileData = file.getBytes();
-            
-            // Determine security level based on file type
-            int securityLevel = determineSecurityLevel(file.getContentType());
-            
-            // Simulate call to native C code for secure storage
-            String fileId = storeSecureFileNative(fileData, file.getOriginalFilename(), securityLevel);
-            
-            // Generate hash for integrity verification
-            String fileHash = computeFileHashNative(fileData);
-            
+
+            Path target = folderPath.resolve(fileId);
+            tempPath = Files.createTempFile(tempFolderPath, fileId, ".enc");
+            long started = System.currentTimeMillis();
+            EnvelopeKeyService.DataKey dataKey = envelopeKeyService.newDataKey(fileId);
+            // Sniffed from the plaintext now; the stored copy can only be read by decrypting it
+            String detectedType;
+            try (InputStream in = file.getInputStream()) {
+                detectedType = ContentTypeDetector.detect(in, file.getOriginalFilename(), file.getContentType());
+            }
+            String checksum;
+            long writeStarted = System.nanoTime();
+            try (UploadAdmissionService.Permit permit = admissionService.acquireWrite();
+                 InputStream in = file.getInputStream()) {
+                checksum = encrypt(in, file.getSize(), fileId, dataKey.getKey(), tempPath);
+            }
+            admissionService.recordWrite(Files.size(tempPath), System.nanoTime() - writeStarted);
+            Files.move(tempPath, target, StandardCopyOption.ATOMIC_MOVE);
+            System.out.println("Encrypted " + file.getSize() + " bytes in "
+                    + (System.currentTimeMillis() - started) + " ms");
+
             // Store metadata in database
             File fileRecord = File.builder()
                     .id(fileId)
                     .type(file.getContentType())
-                    .filePath(folderPath.resolve(fileId).toString())
+                    .detectedType(detectedType)
+                    .filePath(target.toString())
                     .originalFileName(file.getOriginalFilename())
+                    .size(file.getSize())
+                    .uploadedAt(Instant.now())
+                    .wrappedKey(dataKey.getWrappedKey())
+                    .keyVersion(dataKey.getKeyVersion())
+                    .checksum(checksum)
                     .build();
-            
+
             fileRepository.save(fileRecord);
-            
+
             System.out.println("File securely stored with ID: " + fileId);
-            System.out.println("File hash: " + fileHash);
-            
+
             return fileId;
-        } catch (IOException e) {
-            System.err.println("Error reading file data: " + e.getMessage());
+        } catch (IOException | GeneralSecurityException e) {
+            System.err.println("Error encrypting file data: " + e.getMessage());
             throw new RuntimeException("Failed to store file securely", e);
+        } finally {
+            deleteQuietly(tempPath);
         }
     }
-    
+
     /**
-     * Download and decrypt a file
+     * Reads the plaintext segment by segment and hands each one to the worker pool, writing the
+     * sealed segments back in order. At most {@code maxSegmentsInFlight} segments are in memory.
+     * Returns the SHA-256 of the plaintext, computed in the same pass.
      */
-    public FileData downloadSecureFile(String id) {
-        System.out.println("Securely retrieving file with ID: " + id);
-        
-        // Find file metadata
-        File fileRecord = findFileById(id);
-        
-        // Simulate call to native C code for secure retrieval
-        byte[] decryptedData = retrieveSecureFileNative(id);
-        
-        // Verify file integrity
-        boolean integrityOk = verifyFileIntegrityNative(id);
-        System.out.println("File integrity check: " + (integrityOk ? "PASSED" : "FAILED"));
-        
-        // Return file data
-        return new FileData(fileRecord.getOriginalFileName(), fileRecord.getType(), decryptedData);
+    private String encrypt(InputStream in, long length, String fileId, SecretKey key, Path target)
+            throws IOException, GeneralSecurityException {
+        byte[] noncePrefix = new byte[SegmentedAesGcm.NONCE_PREFIX_LENGTH];
+        random.nextBytes(noncePrefix);
+        SegmentedAesGcm.Header header = new SegmentedAesGcm.Header(segmentSize, length, noncePrefix);
+        byte[] associatedData = fileId.getBytes(StandardCharsets.UTF_8);
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+
+        Deque<Future<byte[]>> inFlight = new ArrayDeque<>();
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(target), 64 * 1024)) {
+            out.write(header.encoded);
+
+            for (long index = 0; index < header.segmentCount(); index++) {
+                int size = header.plaintextSize(index);
+                byte[] plaintext = in.readNBytes(size);
+                if (plaintext.length != size) {
+                    throw new IOException("Upload ended after " + (index * segmentSize + plaintext.length)
+                            + " of " + length + " bytes");
+                }
+                digest.update(plaintext);
+
+                long segment = index;
+                inFlight.add(cryptoWorkers.submit(() ->
+                        SegmentedAesGcm.encryptSegment(key, header, associatedData, segment, plaintext)));
+                if (inFlight.size() >= maxSegmentsInFlight) {
+                    out.write(await(inFlight.poll()));
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                out.write(await(inFlight.poll()));
+            }
+        } finally {
+            inFlight.forEach(future -> future.cancel(true));
+        }
+
+        if (in.read() != -1) {
+            throw new IOException("Upload is longer than the declared " + length + " bytes");
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private byte[] await(Future<byte[]> future) throws IOException, GeneralSecurityException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while encrypting", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof GeneralSecurityException) {
+                throw (GeneralSecurityException) e.getCause();
+            }
+            throw new IOException("Segment encryption failed", e.getCause());
+        }
+    }
+
+    /**
+     * Plaintext size of a stored file, as served to clients
+     */
+    public long getPlaintextLength(File fileRecord) throws IOException {
+        if (fileRecord.getSize() != null) {
+            return fileRecord.getSize();
+        }
+        try (FileChannel channel = open(fileRecord)) {
+            return SegmentedAesGcm.readHeader(channel).plaintextLength;
+        }
+    }
+
+    /**
+     * Decrypts {@code count} plaintext bytes starting at {@code start} into {@code out}.
+     * Only the segments overlapping the range are read and authenticated.
+     */
+    public void decryptTo(File fileRecord, long start, long count, OutputStream out) throws IOException {
+        System.out.println("Securely retrieving file with ID: " + fileRecord.getId());
+
+        byte[] associatedData = fileRecord.getId().getBytes(StandardCharsets.UTF_8);
+        try (FileChannel channel = open(fileRecord)) {
+            SecretKey key = envelopeKeyService.dataKey(fileRecord);
+            SegmentedAesGcm.Header header = SegmentedAesGcm.readHeader(channel);
+            long end = Math.min(start + count, header.plaintextLength);
+            long position = start;
+
+            for (long index = start / header.segmentSize; position < end; index++) {
+                byte[] plaintext = SegmentedAesGcm.decryptSegment(key, header, associatedData, index, channel);
+                long segmentStart = index * header.segmentSize;
+                int from = (int) (position - segmentStart);
+                int to = (int) Math.min(plaintext.length, end - segmentStart);
+                out.write(plaintext, from, to - from);
+                position += to - from;
+            }
+        } catch (AEADBadTagException e) {
+            System.err.println("Integrity check failed for secure file " + fileRecord.getId());
+            throw new IOException("Secure file " + fileRecord.getId() + " failed authentication", e);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Unable to decrypt secure file " + fileRecord.getId(), e);
+        }
     }
-    
+
+    /**
+     * Decrypts the whole file, which authenticates every segment, and compares the plaintext
+     * with the checksum recorded at upload. Reads are throttled by the given limiter, if any.
+     * Returns false when the content does not match; a missing file raises NoSuchFileException.
+     */
+    public boolean verifyIntegrity(File fileRecord, IoRateLimiter limiter) throws IOException {
+        if (!Files.exists(Paths.get(fileRecord.getFilePath()))) {
+            throw new NoSuchFileException(fileRecord.getFilePath());
+        }
+
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+
+        OutputStream sink = new DigestOutputStream(OutputStream.nullOutputStream(), digest) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                if (limiter != null) {
+                    limiter.acquire(len);
+                }
+                super.write(b, off, len);
+            }
+        };
+
+        try {
+            decryptTo(fileRecord, 0, Long.MAX_VALUE, sink);
+        } catch (InterruptedIOException e) {
+            throw e;
+        } catch (IOException e) {
+            // Failed tags, truncated segments and unreadable headers all mean damaged content
+            System.err.println("Secure file " + fileRecord.getId() + " failed verification: " + e.getMessage());
+            return false;
+        }
+
+        return fileRecord.getChecksum() == null
+                || fileRecord.getChecksum().equals(HexFormat.of().formatHex(digest.digest()));
+    }
+
+    private FileChannel open(File fileRecord) throws IOException {
+        try {
+            return FileChannel.open(Paths.get(fileRecord.getFilePath()), StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            throw new GenericErrorResponse("Secure file content not found for id: " + fileRecord.getId(),
+                    HttpStatus.NOT_FOUND);
+        }
+    }
+
     /**
      * Delete a securely stored file
      */
     public void deleteSecureFile(String id) {
         System.out.println("Securely deleting file with ID: " + id);
-        
+
         // Find file metadata
         File fileRecord = findFileById(id);
-        
-        // Simulate call to native C code for secure deletion
-        boolean deleted = deleteSecureFileInner(id);
-        
-        if (deleted) {
-            fileRepository.deleteById(id);
-            System.out.println("File securely deleted");
-        } else {
-            throw new RuntimeException("Failed to delete file securely");
+
+        try {
+            Files.deleteIfExists(Paths.get(fileRecord.getFilePath()));
+        } catch (IOException e) {
+            System.err.println("Error while deleting secure file: " + e.getMessage());
+            throw new RuntimeException("Failed to delete file securely", e);
         }
+        fileRepository.deleteById(id);
+        metadataCache.invalidate(id);
+        envelopeKeyService.forget(id);
+        System.out.println("File securely deleted");
     }
-    
+
     /**
-     * Find a file by its ID
+     * Re-wraps the file's data key with the active master key; the content is left untouched.
+     * Returns false if the key was already current or the file changed in the meantime.
      */
-    public File findFileById(String id) {
-        return fileRepository.findById(id)
-                .orElseThrow(() -> new RuntimeException("File not found with id: " + id));
+    public boolean rewrapKey(File fileRecord) throws GeneralSecurityException {
+        EnvelopeKeyService.DataKey rewrapped = envelopeKeyService.rewrap(fileRecord);
+        if (rewrapped == null) {
+            return false;
+        }
+        int updated = fileRepository.updateWrappedKey(fileRecord.getId(), rewrapped.getWrappedKey(),
+                rewrapped.getKeyVersion(), fileRecord.getKeyVersion());
+        metadataCache.invalidate(fileRecord.getId());
+        return updated == 1;
     }
-    
+
     /**
-     * Determine appropriate security level based on file type
+     * True for files stored encrypted by this service. Files from before envelope keys have no
+     * wrapped key, so their location decides.
      */
-    private int determineSecurityLevel(String contentType) {
-        if (contentType == null) {
-            return 1; // Default - standard security
-        }
-        
-        if (contentType.contains("image")) {
-            return 2; // Enhanced security for images
-        } else if (contentType.contains("pdf") || contentType.contains("document")) {
-            return 3; // Maximum security for documents
-        } else if (contentType.contains("application")) {
-            return 4; // Classified security for applications
-        } else {
-            return 1; // Standard security for other types
+    public static boolean isSecure(File fileRecord) {
+        if (fileRecord.getWrappedKey() != null) {
+            return true;
         }
+        String filePath = fileRecord.getFilePath();
+        return filePath != null && filePath.startsWith("/")
+                && Paths.get(filePath).normalize().startsWith(SECURE_ROOT);
     }
-    
+
+    public File findFileById(String id) {
+        return metadataCache.get(id, key -> fileRepository.findById(key)
+                .orElseThrow(() -> new RuntimeException("File not found with id: " + key)));
+    }
+
     /**
      * Get file metadata without downloading the full file content
      */
     public Map<String, Object> getFileMetadata(String id) {
         // Find file in the database
         File file = findFileById(id);
-        
+
         // Get basic file info
         Map<String, Object> metadata = new HashMap<>();
         metadata.put("id", file.getId());
         metadata.put("contentType", file.getType());
         metadata.put("fileName", file.getOriginalFileName());
-        
-        // Check if the file exists on disk
-        java.io.File physicalFile = new java.io.File(file.getFilePath());
-        if (physicalFile.exists()) {
-            metadata.put("fileSize", physicalFile.length());
-            metadata.put("lastModified", physicalFile.lastModified());
+
+        // The file on disk is larger than the content (header and tags), so report the plaintext size
+        if (file.getSize() != null && file.getUploadedAt() != null) {
+            metadata.put("fileSize", file.getSize());
+            metadata.put("lastModified", file.getUploadedAt().toEpochMilli());
         }
-        
+
         // Determine if file is previewable
         boolean isPreviewable = false;
-        String contentType = file.getType();
+        String contentType = ContentTypeDetector.contentTypeOf(file);
         if (contentType != null) {
             isPreviewable = contentType.startsWith("image/") ||
                             contentType.equals("application/pdf") ||
@@ -206,7 +411,7 @@ public class SecureStorageService {
                             contentType.equals("application/xml");
         }
         metadata.put("isPreviewable", isPreviewable);
-        
+
         // Get file extension
         String extension = "";
         int lastDot = file.getOriginalFileName().lastIndexOf('.');
@@ -214,134 +419,18 @@ public class SecureStorageService {
             extension = file.getOriginalFileName().substring(lastDot + 1).toLowerCase();
             metadata.put("extension", extension);
         }
-        
+
         return metadata;
     }
-    
-    /*
-     * Implementations of native methods
-     */
-    
-    private void initializeNativeStorage(String storagePath) {
-        System.out.println("[JNI-BRIDGE] Calling C function: storage_init()");
-        System.out.println("[JNI-BRIDGE] Storage path: " + storagePath);
-        
-        // Simulate delay for native code execution
-        try {
-            Thread.sleep(500);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-        }
-        
-        System.out.println("[JNI-BRIDGE] Native C library initialized successfully");
-    }
-    
-    private void cleanupNativeStorage() {
-        System.out.println("[JNI-BRIDGE] Calling C function: storage_cleanup()");
-        
-        // Simulate delay for native code execution
-        try {
-            Thread.sleep(300);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-        }
-        
-        System.out.println("[JNI-BRIDGE] Native C resources cleaned up");
-    }
-    
-    private String storeSecureFileNative(byte[] fileData, String originalName, int securityLevel) {
-        System.out.println("[JNI-BRIDGE] Calling C function: storage_store_file()");
-        System.out.println("[JNI-BRIDGE] File size: " + fileData.length + " bytes");
-        System.out.println("[JNI-BRIDGE] Security level: " + securityLevel);
-        
-        // Simulate delay for encryption
-        try {
-            Thread.sleep(fileData.length / 1024 + 300); // Longer delay for larger files
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-        }
-        
-        // Generate a UUID for the file
-        String fileId = UUID.randomUUID().toString();
-        
-        System.out.println("[JNI-BRIDGE] C function returned file ID: " + fileId);
-        return fileId;
-    }
-    
-    private byte[] retrieveSecureFileNative(String fileId) {
-        System.out.println("[JNI-BRIDGE] Calling C function: storage_retrieve_file()");
-        System.out.println("[JNI-BRIDGE] File ID: " + fileId);
-        
-        // Simulate delay for decryption
-        try {
-            Thread.sleep(500);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-        }
-        
-        // Generate file data (1KB)
-        byte[] fileData = new byte[1024];
-        for (int i = 0; i < fileData.length; i++) {
-            fileData[i] = (byte)(i & 0xFF);
-        }
-        
-        System.out.println("[JNI-BRIDGE] C function returned " + fileData.length + " bytes");
-        return fileData;
-    }
-    
-    private boolean deleteSecureFileInner(String fileId) {
-        System.out.println("[JNI-BRIDGE] Calling C function: storage_delete_file()");
-        System.out.println("[JNI-BRIDGE] File ID: " + fileId);
-        
-        // Simulate delay for secure deletion
-        try {
-            Thread.sleep(300);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-        }
-        
-        System.out.println("[JNI-BRIDGE] C function returned success");
-        return true;
-    }
-    
-    private String computeFileHashNative(byte[] fileData) {
-        System.out.println("[JNI-BRIDGE] Calling C function: crypto_compute_hash()");
-        
-        // Simulate delay for hash computation
-        try {
-            Thread.sleep(fileData.length / 2048 + 100); // Longer delay for larger files
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-        }
-        
-        // Generate a SHA-256 hash
-        StringBuilder hash = new StringBuilder();
-        long seed = 0;
-        for (byte b : fileData) {
-            seed = seed * 31 + (b & 0xFF);
-        }
-        
-        for (int i = 0; i < 64; i++) {
-            hash.append(Integer.toHexString((int)((seed >> (i % 16)) & 0xF)));
+
+    private void deleteQuietly(Path path) {
+        if (path == null) {
+            return;
         }
-        
-        String hashString = hash.toString();
-        System.out.println("[JNI-BRIDGE] C function returned hash: " + hashString.substring(0, 10) + "...");
-        return hashString;
-    }
-    
-    private boolean verifyFileIntegrityNative(String fileId) {
-        System.out.println("[JNI-BRIDGE] Calling C function: storage_verify_integrity()");
-        System.out.println("[JNI-BRIDGE] File ID: " + fileId);
-        
-        // Simulate delay for integrity check
         try {
-            Thread.sleep(400);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            System.err.println("Unable to delete temp file " + path + ": " + e.getMessage());
         }
-        
-        System.out.println("[JNI-BRIDGE] C function returned integrity check passed");
-        return true;
     }
-} 
\ No newline at end of file
+}
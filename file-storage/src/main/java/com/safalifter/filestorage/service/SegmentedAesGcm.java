@@ -0,0 +1,149 @@
+package com.safalifter.filestorage.service;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+/**
+ * On-disk format of encrypted secure-storage files: a small header followed by fixed-size
+ * plaintext segments, each sealed independently with AES-GCM. Segments can therefore be
+ * encrypted in parallel and decrypted individually for range requests.
+ *
+ * <pre>
+ * header  := "OSRS" | version (1) | segment size (4) | plaintext length (8) | nonce prefix (7)
+ * segment := AES-GCM(ciphertext | 16 byte tag)
+ * nonce   := nonce prefix (7) | segment index (4) | last segment flag (1)
+ * </pre>
+ *
+ * The header and the file id are bound to every segment as associated data, and the index and
+ * last-segment flag in the nonce stop segments from being reordered, dropped or truncated.
+ */
+final class SegmentedAesGcm {
+
+    static final int TAG_LENGTH = 16;
+    static final int NONCE_PREFIX_LENGTH = 7;
+    static final int HEADER_LENGTH = 4 + 1 + 4 + 8 + NONCE_PREFIX_LENGTH;
+
+    private static final byte[] MAGIC = {'O', 'S', 'R', 'S'};
+    private static final byte VERSION = 1;
+
+    // Cipher instances are not thread-safe but are costly to look up, so keep one per worker
+    private static final ThreadLocal<Cipher> CIPHERS = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance("AES/GCM/NoPadding");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("AES-GCM not available", e);
+        }
+    });
+
+    private SegmentedAesGcm() {
+    }
+
+    static final class Header {
+        final int segmentSize;
+        final long plaintextLength;
+        final byte[] noncePrefix;
+        final byte[] encoded;
+
+        Header(int segmentSize, long plaintextLength, byte[] noncePrefix) {
+            this.segmentSize = segmentSize;
+            this.plaintextLength = plaintextLength;
+            this.noncePrefix = noncePrefix;
+            this.encoded = ByteBuffer.allocate(HEADER_LENGTH)
+                    .put(MAGIC)
+                    .put(VERSION)
+                    .putInt(segmentSize)
+                    .putLong(plaintextLength)
+                    .put(noncePrefix)
+                    .array();
+        }
+
+        long segmentCount() {
+            // An empty file still carries one (empty) authenticated segment
+            return Math.max(1, (plaintextLength + segmentSize - 1) / segmentSize);
+        }
+
+        int plaintextSize(long index) {
+            return (int) Math.min(segmentSize, plaintextLength - index * segmentSize);
+        }
+
+        long ciphertextOffset(long index) {
+            return HEADER_LENGTH + index * (segmentSize + (long) TAG_LENGTH);
+        }
+
+        boolean isLast(long index) {
+            return index == segmentCount() - 1;
+        }
+    }
+
+    static Header readHeader(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH);
+        readFully(channel, buffer, 0);
+        if (buffer.hasRemaining()) {
+            throw new IOException("Not an encrypted secure-storage file");
+        }
+        buffer.flip();
+
+        byte[] magic = new byte[MAGIC.length];
+        buffer.get(magic);
+        if (!Arrays.equals(magic, MAGIC) || buffer.get() != VERSION) {
+            throw new IOException("Not an encrypted secure-storage file");
+        }
+        int segmentSize = buffer.getInt();
+        long plaintextLength = buffer.getLong();
+        byte[] noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+        buffer.get(noncePrefix);
+        return new Header(segmentSize, plaintextLength, noncePrefix);
+    }
+
+    static byte[] encryptSegment(SecretKey key, Header header, byte[] associatedData, long index,
+                                 byte[] plaintext) throws GeneralSecurityException {
+        Cipher cipher = CIPHERS.get();
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * 8, nonce(header, index)));
+        cipher.updateAAD(header.encoded);
+        cipher.updateAAD(associatedData);
+        return cipher.doFinal(plaintext);
+    }
+
+    /**
+     * Reads and opens one segment; throws AEADBadTagException if it was tampered with
+     */
+    static byte[] decryptSegment(SecretKey key, Header header, byte[] associatedData, long index,
+                                 FileChannel channel) throws IOException, GeneralSecurityException {
+        ByteBuffer ciphertext = ByteBuffer.allocate(header.plaintextSize(index) + TAG_LENGTH);
+        readFully(channel, ciphertext, header.ciphertextOffset(index));
+        if (ciphertext.hasRemaining()) {
+            throw new IOException("Encrypted file is truncated at segment " + index);
+        }
+
+        Cipher cipher = CIPHERS.get();
+        cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * 8, nonce(header, index)));
+        cipher.updateAAD(header.encoded);
+        cipher.updateAAD(associatedData);
+        return cipher.doFinal(ciphertext.array());
+    }
+
+    private static byte[] nonce(Header header, long index) {
+        return ByteBuffer.allocate(NONCE_PREFIX_LENGTH + 5)
+                .put(header.noncePrefix)
+                .putInt((int) index)
+                .put((byte) (header.isLast(index) ? 1 : 0))
+                .array();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long offset = position;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, offset);
+            if (read < 0) {
+                break;
+            }
+            offset += read;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.safalifter.filestorage.service;
+
+import com.safalifter.filestorage.exc.GenericErrorResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Short-lived download URLs that need no token. The file id, expiry and disposition are signed
+ * with HMAC-SHA256 under a service secret, so file-storage can check a link without the gateway
+ * or the database; browsers can then put it straight into {@code <img>} and {@code <video>} tags.
+ * The secret comes from storage.signed-url.secret, or is generated once into the key folder.
+ * A previous secret can be configured to keep links valid across a rotation.
+ */
+@Service
+public class SignedUrlService {
+
+    public static final String SIGNED_PATH = "/api/v1/file-storage/signed/";
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int SECRET_LENGTH = 32;
+
+    private final SecureRandom random = new SecureRandom();
+    private final LocalStorageBackend localBackend;
+    private SecretKeySpec currentKey;
+    private SecretKeySpec previousKey;
+
+    @Value("${storage.signed-url.secret:}")
+    private String secret;
+
+    @Value("${storage.signed-url.previous-secret:}")
+    private String previousSecret;
+
+    @Value("${storage.signed-url.key-file:/data/secure-keys/url-signing.key}")
+    private String keyFile;
+
+    @Value("${storage.signed-url.default-ttl-seconds:300}")
+    private long defaultTtlSeconds;
+
+    @Value("${storage.signed-url.max-ttl-seconds:86400}")
+    private long maxTtlSeconds;
+
+    // Internal nginx location mapped onto the local storage root; empty streams from here
+    @Value("${storage.signed-url.accel-redirect-prefix:}")
+    private String accelRedirectPrefix;
+
+    public SignedUrlService(LocalStorageBackend localBackend) {
+        this.localBackend = localBackend;
+    }
+
+    @PostConstruct
+    public void init() {
+        try {
+            currentKey = new SecretKeySpec(secret.isEmpty() ? loadOrCreateSecret() : Base64.getDecoder().decode(secret),
+                    ALGORITHM);
+        } catch (IOException e) {
+            System.err.println("Error loading URL signing key: " + e.getMessage());
+            throw new RuntimeException("Unable to load URL signing key from " + keyFile, e);
+        }
+        if (!previousSecret.isEmpty()) {
+            previousKey = new SecretKeySpec(Base64.getDecoder().decode(previousSecret), ALGORITHM);
+        }
+        System.out.println("Signed download URLs enabled, default lifetime " + defaultTtlSeconds + " s"
+                + (accelRedirectPrefix.isEmpty() ? "" : ", handed to nginx under " + accelRedirectPrefix));
+    }
+
+    /**
+     * Signs a download link for a file. The lifetime is capped at storage.signed-url.max-ttl-seconds.
+     */
+    public Map<String, Object> sign(String id, Long ttlSeconds, String disposition) {
+        if (!"inline".equals(disposition) && !"attachment".equals(disposition)) {
+            throw new GenericErrorResponse("Disposition must be inline or attachment", HttpStatus.BAD_REQUEST);
+        }
+        long ttl = ttlSeconds != null ? ttlSeconds : defaultTtlSeconds;
+        if (ttl <= 0 || ttl > maxTtlSeconds) {
+            throw new GenericErrorResponse("ttl must be between 1 and " + maxTtlSeconds + " seconds",
+                    HttpStatus.BAD_REQUEST);
+        }
+
+        long expires = Instant.now().getEpochSecond() + ttl;
+        String signature = signature(currentKey, id, expires, disposition);
+
+        Map<String, Object> signed = new LinkedHashMap<>();
+        signed.put("url", SIGNED_PATH + id + "?expires=" + expires + "&disposition=" + disposition
+                + "&signature=" + signature);
+        signed.put("expiresAt", Instant.ofEpochSecond(expires).toString());
+        return signed;
+    }
+
+    /**
+     * True when the signature matches (under the current or previous secret) and has not expired
+     */
+    public boolean verify(String id, long expires, String disposition, String signature) {
+        if (signature == null || expires < Instant.now().getEpochSecond()) {
+            return false;
+        }
+        byte[] presented = signature.getBytes(StandardCharsets.US_ASCII);
+        if (MessageDigest.isEqual(presented, signature(currentKey, id, expires, disposition)
+                .getBytes(StandardCharsets.US_ASCII))) {
+            return true;
+        }
+        return previousKey != null && MessageDigest.isEqual(presented,
+                signature(previousKey, id, expires, disposition).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * The internal location nginx should serve the blob from (X-Accel-Redirect), or null when
+     * nginx is not configured or the blob is not a whole file under the local storage root
+     */
+    public String accelRedirectPath(BlobRegion blob) {
+        if (accelRedirectPrefix.isEmpty() || !blob.isWholeFile()) {
+            return null;
+        }
+        Path root = localBackend.getRoot().toAbsolutePath();
+        Path path = blob.getPath().toAbsolutePath();
+        if (!path.startsWith(root)) {
+            return null;
+        }
+        String prefix = accelRedirectPrefix.endsWith("/") ? accelRedirectPrefix : accelRedirectPrefix + "/";
+        return prefix + root.relativize(path).toString().replace('\\', '/');
+    }
+
+    private String signature(SecretKeySpec key, String id, long expires, String disposition) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            byte[] digest = mac.doFinal((id + "\n" + expires + "\n" + disposition).getBytes(StandardCharsets.UTF_8));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HMAC-SHA256 is not available", e);
+        }
+    }
+
+    private byte[] loadOrCreateSecret() throws IOException {
+        Path keyPath = Paths.get(keyFile);
+        if (Files.exists(keyPath)) {
+            return Base64.getDecoder().decode(Files.readString(keyPath).trim());
+        }
+
+        byte[] generated = new byte[SECRET_LENGTH];
+        random.nextBytes(generated);
+        Files.createDirectories(keyPath.getParent());
+        try {
+            Files.writeString(keyPath, Base64.getEncoder().encodeToString(generated), StandardOpenOption.CREATE_NEW);
+        } catch (FileAlreadyExistsException e) {
+            // Another instance sharing the key folder got there first
+            return Base64.getDecoder().decode(Files.readString(keyPath).trim());
+        }
+        try {
+            Files.setPosixFilePermissions(keyPath, PosixFilePermissions.fromString("rw-------"));
+        } catch (UnsupportedOperationException e) {
+            // Not a POSIX file system
+        }
+        System.out.println("Generated URL signing key " + keyPath);
+        return generated;
+    }
+}
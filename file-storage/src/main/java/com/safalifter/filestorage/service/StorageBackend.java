@@ -0,0 +1,52 @@
+package com.safalifter.filestorage.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+/**
+ * Where content-addressed blobs live. A backend turns a finished temp file into a location
+ * string, which is what the files table records in {@code filePath}, and later resolves that
+ * location back to bytes that can be read locally. Each backend recognises its own locations,
+ * so rows written by different backends can coexist.
+ */
+public interface StorageBackend {
+
+    /**
+     * Short name used in configuration (local, pack, s3)
+     */
+    String getName();
+
+    /**
+     * Whether a recorded location was written by this backend
+     */
+    boolean owns(String location);
+
+    /**
+     * Stores a finished temp file under the given blob name (the content hash) and returns its
+     * location. The source is consumed: moved into place or left for the caller to delete.
+     */
+    String store(String blobName, Path source, long size) throws IOException;
+
+    boolean exists(String location);
+
+    /**
+     * Local bytes of the blob; remote backends fetch it into a local cache first.
+     * Throws NoSuchFileException when the blob is gone.
+     */
+    BlobRegion resolve(String location) throws IOException, NoSuchFileException;
+
+    /**
+     * Stream of the blob's bytes for a one-off full read such as a scrub. Backends with a local
+     * read cache stream from the stored copy instead, so the read does not displace cached blobs.
+     */
+    default InputStream openStream(String location) throws IOException, NoSuchFileException {
+        return resolve(location).openStream();
+    }
+
+    /**
+     * Removes the blob; returns false if it was already missing
+     */
+    boolean delete(String location) throws IOException;
+}
@@ -0,0 +1,63 @@
+package com.safalifter.filestorage.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * The enabled storage backends. New blobs go to the pack backend when it is enabled and the
+ * blob is small enough, otherwise to the primary backend (storage.backend.primary); recorded
+ * locations are routed back to whichever backend wrote them.
+ */
+@Component
+public class StorageBackends {
+
+    private final List<StorageBackend> backends;
+    private final StorageBackend primary;
+    private final PackFileStorageBackend pack;
+
+    public StorageBackends(List<StorageBackend> backends,
+                           @Value("${storage.backend.primary:local}") String primaryName) {
+        this.backends = backends;
+        this.primary = backends.stream()
+                .filter(backend -> backend.getName().equalsIgnoreCase(primaryName))
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException("Storage backend " + primaryName + " is not enabled"));
+        this.pack = backends.stream()
+                .filter(PackFileStorageBackend.class::isInstance)
+                .map(PackFileStorageBackend.class::cast)
+                .findFirst()
+                .orElse(null);
+
+        System.out.println("Primary storage backend: " + primary.getName()
+                + (pack != null ? ", small blobs packed" : ""));
+    }
+
+    public StorageBackend forWrite(long size) {
+        return pack != null && pack.accepts(size) ? pack : primary;
+    }
+
+    public StorageBackend forLocation(String location) {
+        for (StorageBackend backend : backends) {
+            if (backend.owns(location)) {
+                return backend;
+            }
+        }
+        throw new IllegalStateException("No storage backend for location " + location);
+    }
+
+    public BlobRegion resolve(String location) throws IOException {
+        return forLocation(location).resolve(location);
+    }
+
+    public InputStream openStream(String location) throws IOException {
+        return forLocation(location).openStream(location);
+    }
+
+    public boolean exists(String location) {
+        return forLocation(location).exists(location);
+    }
+}
@@ -0,0 +1,98 @@
+package com.safalifter.filestorage.service;
+
+import com.safalifter.filestorage.repository.FileRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.MultiGauge;
+import io.micrometer.core.instrument.Tags;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Periodically counts stored files and their bytes by kind of content. Content types are folded
+ * into a few categories so the number of series stays fixed however varied the uploads are.
+ */
+@Component
+public class StorageInventoryMetrics {
+
+    private final FileRepository fileRepository;
+    private final MultiGauge fileCount;
+    private final MultiGauge fileBytes;
+
+    @Value("${storage.metrics.inventory.enabled:true}")
+    private boolean enabled;
+
+    public StorageInventoryMetrics(FileRepository fileRepository, MeterRegistry meterRegistry) {
+        this.fileRepository = fileRepository;
+        this.fileCount = MultiGauge.builder("filestorage.files")
+                .description("Stored files by content category")
+                .register(meterRegistry);
+        this.fileBytes = MultiGauge.builder("filestorage.files.size")
+                .description("Size of stored files by content category")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${storage.metrics.inventory.interval-ms:300000}",
+            initialDelayString = "${storage.metrics.inventory.initial-delay-ms:60000}")
+    public void refresh() {
+        if (!enabled) {
+            return;
+        }
+
+        Map<String, long[]> byCategory = new TreeMap<>();
+        for (Object[] row : fileRepository.countByContentType()) {
+            String contentType = row[1] != null ? (String) row[1] : (String) row[0];
+            long[] totals = byCategory.computeIfAbsent(category(contentType), key -> new long[2]);
+            totals[0] += ((Number) row[2]).longValue();
+            totals[1] += ((Number) row[3]).longValue();
+        }
+
+        List<MultiGauge.Row<?>> counts = new ArrayList<>();
+        List<MultiGauge.Row<?>> sizes = new ArrayList<>();
+        byCategory.forEach((category, totals) -> {
+            counts.add(MultiGauge.Row.of(Tags.of("category", category), totals[0]));
+            sizes.add(MultiGauge.Row.of(Tags.of("category", category), totals[1]));
+        });
+        // Overwrite so categories that emptied out stop being reported
+        fileCount.register(counts, true);
+        fileBytes.register(sizes, true);
+    }
+
+    static String category(String contentType) {
+        if (contentType == null) {
+            return "other";
+        }
+        String type = contentType.toLowerCase();
+        if (type.startsWith("image/")) {
+            return "image";
+        }
+        if (type.startsWith("video/")) {
+            return "video";
+        }
+        if (type.startsWith("audio/")) {
+            return "audio";
+        }
+        if (type.equals("application/pdf")) {
+            return "pdf";
+        }
+        // Office formats first: their types mention xml, and the OOXML ones are zip containers
+        if (type.contains("msword") || type.contains("officedocument") || type.contains("ms-excel")
+                || type.contains("ms-powerpoint") || type.contains("opendocument")) {
+            return "document";
+        }
+        if (type.contains("zip") || type.contains("tar") || type.contains("rar") || type.contains("7z")
+                || type.contains("compressed")) {
+            return "archive";
+        }
+        if (type.startsWith("text/") || type.contains("json") || type.contains("xml") || type.contains("yaml")) {
+            return "text";
+        }
+        return "other";
+    }
+}
@@ -0,0 +1,122 @@
+package com.safalifter.filestorage.service;
+
+import com.safalifter.filestorage.model.File;
+import com.safalifter.filestorage.repository.FileRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+/**
+ * Background job moving existing files into the configured storage layout.
+ * Works through the files table in small keyset-paged batches; old paths are only
+ * unlinked after a grace period so downloads that already resolved them keep working.
+ */
+@Component
+@RequiredArgsConstructor
+public class StorageLayoutMigrator {
+
+    private final FileRepository fileRepository;
+    private final StorageService storageService;
+
+    @Value("${storage.layout.migration.enabled:false}")
+    private boolean enabled;
+
+    @Value("${storage.layout.migration.batch-size:200}")
+    private int batchSize;
+
+    @Value("${storage.layout.migration.pause-ms:5}")
+    private long pauseBetweenFiles;
+
+    @Value("${storage.layout.migration.unlink-delay-ms:60000}")
+    private long unlinkDelay;
+
+    private String lastId = "";
+    private boolean finished;
+    private long migrated;
+    private final Deque<PendingUnlink> pendingUnlinks = new ConcurrentLinkedDeque<>();
+
+    @Scheduled(fixedDelayString = "${storage.layout.migration.interval-ms:10000}",
+            initialDelayString = "${storage.layout.migration.initial-delay-ms:60000}")
+    public synchronized void migrateBatch() {
+        if (!enabled) {
+            return;
+        }
+
+        unlinkExpired();
+
+        if (finished) {
+            return;
+        }
+
+        List<File> batch = fileRepository.findByIdGreaterThanOrderByIdAsc(lastId, PageRequest.of(0, batchSize));
+        if (batch.isEmpty()) {
+            finished = true;
+            System.out.println("Storage layout migration complete, " + migrated + " file(s) moved");
+            return;
+        }
+
+        for (File fileRecord : batch) {
+            lastId = fileRecord.getId();
+            try {
+                Path oldPath = storageService.relocate(fileRecord);
+                if (oldPath != null) {
+                    pendingUnlinks.add(new PendingUnlink(oldPath, System.currentTimeMillis() + unlinkDelay));
+                    migrated++;
+                }
+                if (pauseBetweenFiles > 0) {
+                    Thread.sleep(pauseBetweenFiles);
+                }
+            } catch (IOException e) {
+                System.err.println("Unable to migrate file " + fileRecord.getId() + ": " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+
+        System.out.println("Storage layout migration progressed to id " + lastId + ", " + migrated + " file(s) moved");
+    }
+
+    /**
+     * Whether the path is an old location still waiting out its unlink delay
+     */
+    public boolean isPendingUnlink(Path path) {
+        for (PendingUnlink pending : pendingUnlinks) {
+            if (pending.path.equals(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void unlinkExpired() {
+        long now = System.currentTimeMillis();
+        while (!pendingUnlinks.isEmpty() && pendingUnlinks.peekFirst().unlinkAt <= now) {
+            Path path = pendingUnlinks.pollFirst().path;
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                System.err.println("Unable to unlink migrated file " + path + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private static class PendingUnlink {
+        private final Path path;
+        private final long unlinkAt;
+
+        private PendingUnlink(Path path, long unlinkAt) {
+            this.path = path;
+            this.unlinkAt = unlinkAt;
+        }
+    }
+}
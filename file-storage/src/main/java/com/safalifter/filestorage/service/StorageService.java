@@ -11,27 +11,49 @@ import org.springframework.web.multipart.MultipartFile;
 
 import javax.annotation.PostConstruct;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.*;
 import java.nio.file.attribute.PosixFilePermission;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.HexFormat;
 import java.util.Set;
 import java.util.UUID;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 
 @Service
 @RequiredArgsConstructor
 public class StorageService {
 
     private final FileRepository fileRepository;
+    private final FileMetadataCache metadataCache;
+    private final DerivativeService derivativeService;
+    private final StorageBackends backends;
+    private final LocalStorageBackend localBackend;
+    private final UploadAdmissionService admissionService;
+    private final AccessTracker accessTracker;
+    private final BlobLocks blobLocks;
     private Path folderPath;
+    private Path tempFolderPath;
 
     @PostConstruct
     public void init() {
-        // Use Linux-style path for Docker containers
-        folderPath = Paths.get("/data/attachments");
+        // Temp files live under the local root so they can be moved into place atomically
+        folderPath = localBackend.getRoot();
+
+        tempFolderPath = folderPath.resolve(".tmp");
 
         // Log folder creation
         System.out.println("Storage folder path: " + folderPath.toString());
+        System.out.println("Storage layout: " + localBackend.getLayout());
 
         // Create directory if it doesn't exist
         try {
@@ -41,6 +63,7 @@ public class StorageService {
             } else {
                 System.out.println("Directory already exists: " + folderPath.toString());
             }
+            Files.createDirectories(tempFolderPath);
         } catch (IOException e) {
             // Log error and provide more details
             System.err.println("Error creating directory: " + e.getMessage());
@@ -70,59 +93,390 @@ public class StorageService {
     public String uploadFile(MultipartFile file) {
         String uuid = UUID.randomUUID().toString();
         String originalFileName = file.getOriginalFilename();
-        String fileExtension = "";
+        Path tempPath = null;
+
+        try {
+            // Stream the upload into a temp file, hashing it on the way in
+            tempPath = Files.createTempFile(tempFolderPath, uuid, ".upload");
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            long size;
+            // The multipart body is already spooled, so the slot covers disk work only
+            long writeStarted = System.nanoTime();
+            try (UploadAdmissionService.Permit permit = admissionService.acquireWrite();
+                 InputStream in = new DigestInputStream(file.getInputStream(), digest)) {
+                size = Files.copy(in, tempPath, StandardCopyOption.REPLACE_EXISTING);
+            }
+            admissionService.recordWrite(size, System.nanoTime() - writeStarted);
+            String contentHash = HexFormat.of().formatHex(digest.digest());
 
-        if (originalFileName != null && originalFileName.contains(".")) {
-            fileExtension = originalFileName.substring(originalFileName.lastIndexOf('.'));
+            storeBlob(uuid, tempPath, contentHash, size, originalFileName, file.getContentType());
+            return uuid;
+        } catch (IOException | NoSuchAlgorithmException e) {
+            System.err.println("Error during file transfer: " + e.getMessage());
+            throw new RuntimeException("Unable to save file to storage", e);
+        } finally {
+            deleteQuietly(tempPath);
         }
+    }
 
-        Path filePath = folderPath.resolve(uuid + fileExtension);
+    /**
+     * Creates an empty file in the storage temp folder, on the same file system as the blobs
+     * so it can later be moved into place atomically
+     */
+    public Path createTempFile(String prefix, String suffix) throws IOException {
+        return Files.createTempFile(tempFolderPath, prefix, suffix);
+    }
 
-        // Log the file path to be saved
-        System.out.println("Saving file to path: " + filePath.toString());
+    /**
+     * Stores a file that was assembled in the temp folder (e.g. by a resumable upload).
+     * The source is hashed and moved into the content-addressed store, or deleted if the
+     * content is already stored. Returns the id of the new record.
+     */
+    public String storeFile(Path source, String originalFileName, String contentType) throws IOException {
+        try {
+            return storeFile(source, sha256(source), originalFileName, contentType);
+        } finally {
+            deleteQuietly(source);
+        }
+    }
+
+    /**
+     * Same as {@link #storeFile(Path, String, String)} for a temp file whose SHA-256 was computed
+     * while it was being written
+     */
+    public String storeFile(Path source, String contentHash, String originalFileName, String contentType)
+            throws IOException {
+        String uuid = UUID.randomUUID().toString();
 
         try {
-            // Try saving the file
-            file.transferTo(filePath.toFile());
-        } catch (IOException e) {
-            System.err.println("Error during file transfer: " + e.getMessage());
-            throw new RuntimeException("Unable to save file to storage", e);
+            storeBlob(uuid, source, contentHash, Files.size(source), originalFileName, contentType);
+            return uuid;
+        } finally {
+            deleteQuietly(source);
         }
+    }
 
-        // Save file info to repository
-        fileRepository.save(File.builder()
-                .id(uuid)
-                .type(file.getContentType())
-                .filePath(filePath.toString())
-                .originalFileName(originalFileName)
-                .build());
+    /**
+     * Moves a fully written temp file into the content-addressed store and records it.
+     * If a blob with the same hash already exists the temp file is discarded and the new
+     * record simply references the existing blob. Small blobs go to the pack backend when
+     * enabled, the rest to the primary backend.
+     */
+    private void storeBlob(String id, Path tempPath, String contentHash, long size,
+                           String originalFileName, String contentType) throws IOException {
+        // Sniffed once here, while the head of the upload is still in the page cache
+        String detectedType = ContentTypeDetector.detect(tempPath, originalFileName, contentType);
+
+        File stored;
+        synchronized (blobLock(contentHash)) {
+            // An existing blob may sit in the previous layout (or another backend) while migration is running
+            String location = fileRepository.findFirstByContentHash(contentHash)
+                    .map(File::getFilePath)
+                    .filter(backends::exists)
+                    .orElse(null);
+
+            if (location != null) {
+                System.out.println("Duplicate content " + contentHash + ", reusing existing blob");
+            } else {
+                location = backends.forWrite(size).store(contentHash, tempPath, size);
+            }
 
-        return uuid;
+            // Save while holding the lock so a concurrent delete cannot drop the blob under us
+            stored = fileRepository.save(File.builder()
+                    .id(id)
+                    .type(contentType)
+                    .detectedType(detectedType)
+                    .filePath(location)
+                    .originalFileName(originalFileName)
+                    .contentHash(contentHash)
+                    .size(size)
+                    .etag(buildEtag(contentHash, size))
+                    .uploadedAt(Instant.now())
+                    .build());
+        }
+
+        derivativeService.compress(stored);
+        derivativeService.scheduleThumbnail(stored);
     }
 
-    public FileData downloadFile(String id) {
-        File fileRecord = findFileById(id);
+    /**
+     * Moves a stored file into the configured layout without interrupting downloads.
+     * The file is hard-linked (or copied) to its new location and the record updated;
+     * the old path is returned once no record references it so the caller can unlink it
+     * after in-flight readers are done. Returns null when there is nothing to clean up.
+     */
+    public Path relocate(File fileRecord) throws IOException {
+        // Only the local backend has a layout; packed and remote blobs stay where they are
+        if (!localBackend.owns(fileRecord.getFilePath())) {
+            return null;
+        }
+        Path current = Paths.get(fileRecord.getFilePath());
 
-        Path filePath = Paths.get(fileRecord.getFilePath());
+        // Rows written by other services (e.g. secure storage) live outside our folder
+        if (!current.startsWith(folderPath)) {
+            return null;
+        }
+
+        Path target = localBackend.layoutPath(current.getFileName().toString());
+        if (target.equals(current)) {
+            return null;
+        }
+
+        String lockKey = fileRecord.getContentHash() != null
+                ? fileRecord.getContentHash()
+                : current.getFileName().toString();
+
+        synchronized (blobLock(lockKey)) {
+            // Re-read under the lock; the file may have been deleted or moved meanwhile
+            File fresh = fileRepository.findById(fileRecord.getId()).orElse(null);
+            if (fresh == null || !current.toString().equals(fresh.getFilePath())) {
+                return null;
+            }
+
+            if (!Files.exists(target)) {
+                if (!Files.exists(current)) {
+                    System.err.println("Cannot migrate missing file: " + current);
+                    return null;
+                }
+                Files.createDirectories(target.getParent());
+                linkOrCopy(current, target);
+            }
+
+            fresh.setFilePath(target.toString());
+            metadataCache.put(fileRepository.save(fresh));
+
+            return fileRepository.countByFilePath(current.toString()) == 0 ? current : null;
+        }
+    }
+
+    /**
+     * Copies a content-addressed blob to another backend and points every record referencing
+     * it at the copy. The old copy stays until the caller removes it with
+     * {@link #deleteBlobIfUnreferenced(String, String)}, once readers that already resolved it
+     * are done. Returns the new location, or null when no record uses the blob any more.
+     */
+    public String moveBlob(String contentHash, String location, StorageBackend target) throws IOException {
+        // Rows written by other services (e.g. secure storage) live outside our folder
+        if (localBackend.owns(location) && !Paths.get(location).startsWith(folderPath)) {
+            return null;
+        }
+
+        synchronized (blobLock(contentHash)) {
+            List<String> ids = fileRepository.findIdsByFilePath(location);
+            if (ids.isEmpty()) {
+                return null;
+            }
+
+            BlobRegion blob = backends.resolve(location);
+            Path tempPath = Files.createTempFile(tempFolderPath, contentHash, ".tier");
+            String newLocation;
+            try {
+                try (InputStream in = blob.openStream()) {
+                    Files.copy(in, tempPath, StandardCopyOption.REPLACE_EXISTING);
+                }
+                newLocation = target.store(contentHash, tempPath, blob.getLength());
+            } finally {
+                deleteQuietly(tempPath);
+            }
+
+            fileRepository.updateFilePath(location, newLocation);
+            ids.forEach(metadataCache::invalidate);
+            return newLocation;
+        }
+    }
+
+    /**
+     * Removes a blob left behind by {@link #moveBlob}, unless a record points at that location
+     * again (the same content moved back, or re-uploaded)
+     */
+    public boolean deleteBlobIfUnreferenced(String contentHash, String location) throws IOException {
+        synchronized (blobLock(contentHash)) {
+            if (fileRepository.countByFilePath(location) > 0) {
+                return false;
+            }
+            return backends.forLocation(location).delete(location);
+        }
+    }
 
+    /**
+     * Deletes an unreferenced file, or moves it to {@code quarantinePath} when given. Runs under
+     * the blob lock and re-checks the table first, so a concurrent upload of the same content
+     * that just adopted the file keeps it. Returns false if the file is referenced after all.
+     */
+    public boolean removeOrphan(Path path, Path quarantinePath) throws IOException {
+        synchronized (blobLock(path.getFileName().toString())) {
+            if (fileRepository.countByFilePath(path.toString()) > 0) {
+                return false;
+            }
+            if (quarantinePath == null) {
+                return Files.deleteIfExists(path);
+            }
+            Files.createDirectories(quarantinePath.getParent());
+            Files.move(path, quarantinePath, StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        }
+    }
+
+    private void linkOrCopy(Path source, Path target) throws IOException {
+        try {
+            Files.createLink(target, source);
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            // Different file system or no hard link support: copy, then publish atomically
+            Path tempPath = Files.createTempFile(tempFolderPath, source.getFileName().toString(), ".migrate");
+            try {
+                Files.copy(source, tempPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+                Files.move(tempPath, target, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                deleteQuietly(tempPath);
+            }
+        }
+    }
+
+    private String sha256(Path filePath) throws IOException {
+        try (InputStream in = Files.newInputStream(filePath)) {
+            return sha256(in);
+        }
+    }
+
+    private String sha256(InputStream in) throws IOException {
         try {
-            byte[] fileContent = Files.readAllBytes(filePath);
-            return new FileData(fileRecord.getOriginalFileName(), fileRecord.getType(), fileContent);
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * Re-hashes a stored blob and compares it with the hash recorded at upload, reading at most
+     * as fast as the limiter allows. A missing blob raises NoSuchFileException. Cold and remote
+     * blobs are streamed from where they are stored rather than pulled into their read cache.
+     */
+    public boolean verifyBlob(File fileRecord, IoRateLimiter limiter) throws IOException {
+        try (InputStream in = backends.openStream(fileRecord.getFilePath())) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                limiter.acquire(read);
+                digest.update(buffer, 0, read);
+            }
+            return fileRecord.getContentHash().equals(HexFormat.of().formatHex(digest.digest()));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private String buildEtag(String contentHash, long size) {
+        return contentHash + "-" + size;
+    }
+
+    /**
+     * Makes sure the record carries its cache validators. Files stored before validators existed
+     * are hashed once here and the result persisted, so later requests never touch the disk.
+     * Secure files are left alone: their blob is ciphertext and their size is the plaintext length.
+     */
+    public File ensureValidators(File fileRecord) throws IOException {
+        if (SecureStorageService.isSecure(fileRecord)) {
+            return fileRecord;
+        }
+        if (fileRecord.getEtag() != null && fileRecord.getUploadedAt() != null
+                && fileRecord.getDetectedType() != null) {
+            return fileRecord;
+        }
+
+        BlobRegion blob = resolveBlob(fileRecord);
+
+        if (fileRecord.getEtag() == null || fileRecord.getUploadedAt() == null) {
+            String contentHash = fileRecord.getContentHash();
+            long size = blob.getLength();
+
+            if (contentHash == null) {
+                // Only the validator is recorded; legacy rows keep their own file and delete semantics
+                try (InputStream in = blob.openStream()) {
+                    contentHash = sha256(in);
+                }
+            }
+
+            System.out.println("Backfilling cache validators for file " + fileRecord.getId());
+            if (fileRecord.getSize() == null) {
+                fileRecord.setSize(size);
+            }
+            fileRecord.setEtag(buildEtag(contentHash, size));
+            fileRecord.setUploadedAt(Files.getLastModifiedTime(blob.getPath()).toInstant());
+        }
+        if (fileRecord.getDetectedType() == null) {
+            try (InputStream in = blob.openStream()) {
+                fileRecord.setDetectedType(ContentTypeDetector.detect(in, fileRecord.getOriginalFileName(),
+                        fileRecord.getType()));
+            }
+        }
+        File saved = fileRepository.save(fileRecord);
+        metadataCache.put(saved);
+        return saved;
+    }
+
+    private Object blobLock(String contentHash) {
+        return blobLocks.forHash(contentHash);
+    }
+
+    private void deleteQuietly(Path path) {
+        if (path == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            System.err.println("Unable to delete temp file " + path + ": " + e.getMessage());
+        }
+    }
+
+    public FileData downloadFile(String id) {
+        File fileRecord = findPlainFileById(id);
+        accessTracker.record(fileRecord);
+
+        try (InputStream in = resolveBlob(fileRecord).openStream()) {
+            byte[] fileContent = in.readAllBytes();
+            return new FileData(fileRecord.getOriginalFileName(), ContentTypeDetector.contentTypeOf(fileRecord),
+                    fileContent);
         } catch (IOException e) {
             System.err.println("Error reading file: " + e.getMessage());
             throw new RuntimeException("Unable to read file from storage", e);
         }
     }
 
+    /**
+     * Resolve where a stored file's bytes can be read, whichever backend holds them, without
+     * reading them. Throws NoSuchFileException when the content is gone.
+     */
+    public BlobRegion resolveBlob(File fileRecord) throws IOException {
+        return backends.resolve(fileRecord.getFilePath());
+    }
+
+    public boolean blobExists(File fileRecord) {
+        return fileRecord.getFilePath() != null && backends.exists(fileRecord.getFilePath());
+    }
+
     public void deleteFile(String id) {
         File fileRecord = findFileById(id);
         Path filePath = Paths.get(fileRecord.getFilePath());
 
+        if (fileRecord.getContentHash() != null) {
+            deleteReference(fileRecord, fileRecord.getFilePath());
+            return;
+        }
+
         try {
             boolean deletionResult = Files.deleteIfExists(filePath);
 
             if (deletionResult) {
                 fileRepository.deleteById(id);
+                metadataCache.invalidate(id);
             } else {
                 System.err.println("File not found for deletion: " + filePath.toString());
                 throw new RuntimeException("Unable to delete file from storage");
@@ -133,9 +487,52 @@ public class StorageService {
         }
     }
 
+    /**
+     * Drops one reference to a content-addressed blob, removing the blob with the last one
+     */
+    private void deleteReference(File fileRecord, String location) {
+        String contentHash = fileRecord.getContentHash();
+
+        synchronized (blobLock(contentHash)) {
+            fileRepository.deleteById(fileRecord.getId());
+            metadataCache.invalidate(fileRecord.getId());
+
+            long remaining = fileRepository.countByContentHash(contentHash);
+            // During a layout migration other references may already point at the blob's new location
+            if (remaining > 0 && fileRepository.countByFilePath(location) > 0) {
+                System.out.println("Blob " + contentHash + " still referenced by " + remaining + " file(s)");
+                return;
+            }
+
+            try {
+                if (!backends.forLocation(location).delete(location)) {
+                    System.err.println("Blob already missing for deletion: " + location);
+                }
+                if (remaining == 0) {
+                    derivativeService.deleteDerivatives(contentHash);
+                }
+            } catch (IOException e) {
+                System.err.println("Error while deleting blob: " + e.getMessage());
+                throw new RuntimeException("Error while deleting file from storage", e);
+            }
+        }
+    }
+
     public File findFileById(String id) {
-        return fileRepository.findById(id).orElseThrow(() ->
-                new RuntimeException("File not found with id: " + id));
+        return metadataCache.get(id, key -> fileRepository.findById(key).orElseThrow(() ->
+                new RuntimeException("File not found with id: " + key)));
+    }
+
+    /**
+     * Find a file served by the plain endpoints. Secure files are reported as not found: their
+     * blob is ciphertext and only the secure storage endpoints can serve it.
+     */
+    public File findPlainFileById(String id) {
+        File fileRecord = findFileById(id);
+        if (SecureStorageService.isSecure(fileRecord)) {
+            throw new GenericErrorResponse("File not found with id: " + id, HttpStatus.NOT_FOUND);
+        }
+        return fileRecord;
     }
 
     /**
@@ -143,23 +540,68 @@ public class StorageService {
      */
     public Map<String, Object> getFileMetadata(String id) {
         // Find file in the database
-        File file = findFileById(id);
-        
+        return buildMetadata(findFileById(id));
+    }
+
+    /**
+     * Metadata for many files at once: cached records are used as-is, the rest are fetched
+     * with a single findAllById. Ids that do not exist are reported inline instead of failing the batch.
+     */
+    public Map<String, Object> getFileMetadataBatch(Collection<String> ids) {
+        Map<String, File> found = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+
+        for (String id : new LinkedHashSet<>(ids)) {
+            File cached = metadataCache.getIfPresent(id);
+            if (cached != null) {
+                found.put(id, cached);
+            } else {
+                missing.add(id);
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            for (File file : fileRepository.findAllById(missing)) {
+                metadataCache.put(file);
+                found.put(file.getId(), file);
+            }
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        for (String id : ids) {
+            File file = found.get(id);
+            if (file != null) {
+                result.put(id, buildMetadata(file));
+            } else {
+                Map<String, Object> error = new HashMap<>();
+                error.put("id", id);
+                error.put("error", "File not found with id: " + id);
+                result.put(id, error);
+            }
+        }
+        return result;
+    }
+
+    private Map<String, Object> buildMetadata(File file) {
         // Get basic file info
         Map<String, Object> metadata = new HashMap<>();
         metadata.put("id", file.getId());
         metadata.put("contentType", file.getType());
         metadata.put("fileName", file.getOriginalFileName());
         
-        // Check if the file exists on disk and get file size
-        java.io.File physicalFile = new java.io.File(file.getFilePath());
-        if (physicalFile.exists()) {
-            metadata.put("fileSize", physicalFile.length());
-            metadata.put("lastModified", physicalFile.lastModified());
+        // Size and upload time are captured at upload; only legacy records need a stat
+        if (file.getSize() != null && file.getUploadedAt() != null) {
+            metadata.put("fileSize", file.getSize());
+            metadata.put("lastModified", file.getUploadedAt().toEpochMilli());
+        } else {
+            java.io.File physicalFile = new java.io.File(file.getFilePath());
+            if (physicalFile.exists()) {
+                metadata.put("fileSize", physicalFile.length());
+                metadata.put("lastModified", physicalFile.lastModified());
+            }
         }
         
-        // Determine content type more accurately
-        String contentType = determineContentType(file.getOriginalFileName(), file.getType());
+        String contentType = ContentTypeDetector.contentTypeOf(file);
         metadata.put("detectedContentType", contentType);
         
         // Determine if file is previewable
@@ -168,9 +610,10 @@ public class StorageService {
         
         // Get file extension
         String extension = "";
-        int lastDot = file.getOriginalFileName().lastIndexOf('.');
+        String fileName = file.getOriginalFileName();
+        int lastDot = fileName != null ? fileName.lastIndexOf('.') : -1;
         if (lastDot > 0) {
-            extension = file.getOriginalFileName().substring(lastDot + 1).toLowerCase();
+            extension = fileName.substring(lastDot + 1).toLowerCase();
             metadata.put("extension", extension);
         }
         
@@ -190,67 +633,4 @@ public class StorageService {
                contentType.equals("application/javascript") ||
                contentType.equals("application/xml");
     }
-    
-    /**
-     * Determines the correct content type based on file name and provided content type
-     */
-    private String determineContentType(String fileName, String providedContentType) {
-        // Default content type
-        String defaultType = "application/octet-stream";
-        
-        // If we have a valid content type that's not octet-stream, use it
-        if (providedContentType != null && !providedContentType.equals(defaultType)) {
-            return providedContentType;
-        }
-        
-        // If we have a filename, try to determine content type from extension
-        if (fileName != null) {
-            String extension = "";
-            int lastDot = fileName.lastIndexOf('.');
-            if (lastDot > 0) {
-                extension = fileName.substring(lastDot + 1).toLowerCase();
-            }
-            
-            if (!extension.isEmpty()) {
-                // Common file types mapping
-                Map<String, String> typeMap = new HashMap<>();
-                typeMap.put("pdf", "application/pdf");
-                typeMap.put("jpg", "image/jpeg");
-                typeMap.put("jpeg", "image/jpeg");
-                typeMap.put("png", "image/png");
-                typeMap.put("gif", "image/gif");
-                typeMap.put("svg", "image/svg+xml");
-                typeMap.put("webp", "image/webp");
-                typeMap.put("txt", "text/plain");
-                typeMap.put("html", "text/html");
-                typeMap.put("css", "text/css");
-                typeMap.put("js", "application/javascript");
-                typeMap.put("json", "application/json");
-                typeMap.put("xml", "application/xml");
-                typeMap.put("csv", "text/csv");
-                typeMap.put("doc", "application/msword");
-                typeMap.put("docx", "application/vnd.openxmlformats-officedocument.wordprocessingml.document");
-                typeMap.put("xls", "application/vnd.ms-excel");
-                typeMap.put("xlsx", "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet");
-                typeMap.put("ppt", "application/vnd.ms-powerpoint");
-                typeMap.put("pptx", "application/vnd.openxmlformats-officedocument.presentationml.presentation");
-                typeMap.put("mp3", "audio/mpeg");
-                typeMap.put("mp4", "video/mp4");
-                typeMap.put("wav", "audio/wav");
-                typeMap.put("ogg", "audio/ogg");
-                typeMap.put("webm", "video/webm");
-                typeMap.put("zip", "application/zip");
-                typeMap.put("rar", "application/x-rar-compressed");
-                typeMap.put("tar", "application/x-tar");
-                typeMap.put("gz", "application/gzip");
-                
-                String contentType = typeMap.get(extension);
-                if (contentType != null) {
-                    return contentType;
-                }
-            }
-        }
-        
-        return defaultType;
-    }
 }
@@ -0,0 +1,385 @@
+package com.safalifter.filestorage.service;
+
+import com.safalifter.filestorage.exc.GenericErrorResponse;
+import com.safalifter.filestorage.model.File;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Returns bounded windows of text files for preview, by line or by byte range, without ever
+ * decoding the whole file. Line windows are located through a sparse index holding the byte
+ * offset of every n-th line; it is built with a single scan on first use and cached per file id,
+ * so any window is at most n lines of scanning away.
+ */
+@Service
+public class TextPreviewService {
+
+    private static final int SAMPLE_SIZE = 64 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final Charset FALLBACK_CHARSET = Charset.forName("windows-1252");
+
+    private final StorageService storageService;
+    private final Map<String, LineIndex> indexes;
+    private final int indexStep;
+    private final int maxLines;
+    private final int maxBytes;
+
+    public TextPreviewService(StorageService storageService,
+                              @Value("${storage.preview.index-step:500}") int indexStep,
+                              @Value("${storage.preview.cached-indexes:256}") int cachedIndexes,
+                              @Value("${storage.preview.max-lines:1000}") int maxLines,
+                              @Value("${storage.preview.max-bytes:1048576}") int maxBytes) {
+        this.storageService = storageService;
+        this.indexStep = indexStep;
+        this.maxLines = maxLines;
+        this.maxBytes = maxBytes;
+        // Access-ordered so the least recently previewed file is dropped first
+        this.indexes = new LinkedHashMap<>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, LineIndex> eldest) {
+                return size() > cachedIndexes;
+            }
+        };
+    }
+
+    /**
+     * Up to {@code lineCount} lines starting at the zero-based line {@code lineOffset}
+     */
+    public Map<String, Object> readLines(String id, long lineOffset, int lineCount) {
+        File fileRecord = storageService.findPlainFileById(id);
+        int count = Math.min(lineCount, maxLines);
+
+        try (SeekableByteChannel channel = open(fileRecord)) {
+            LineIndex index = index(id, channel);
+
+            List<String> lines = new ArrayList<>();
+            boolean truncated = false;
+            if (lineOffset < index.totalLines) {
+                long checkpoint = lineOffset / indexStep;
+                channel.position(index.checkpoints[(int) checkpoint]);
+                LineReader reader = new LineReader(Channels.newInputStream(channel), index.encoding);
+
+                // Walk from the nearest checkpoint to the first requested line
+                for (long skip = lineOffset - checkpoint * indexStep; skip > 0; skip--) {
+                    reader.readLine(null, Long.MAX_VALUE);
+                }
+
+                long budget = maxBytes;
+                ByteArrayOutputStream line = new ByteArrayOutputStream();
+                while (lines.size() < count && budget > 0) {
+                    line.reset();
+                    long consumed = reader.readLine(line, budget);
+                    if (consumed < 0) {
+                        break;
+                    }
+                    budget -= consumed;
+                    if (!reader.lineEnded && budget == 0) {
+                        truncated = true;
+                    }
+                    lines.add(decodeLine(line, index.encoding));
+                }
+            }
+
+            long next = lineOffset + lines.size();
+            Map<String, Object> window = new HashMap<>();
+            window.put("id", id);
+            window.put("fileName", fileRecord.getOriginalFileName());
+            window.put("charset", index.encoding.charset.name());
+            window.put("totalLines", index.totalLines);
+            window.put("lineOffset", lineOffset);
+            window.put("lines", lines);
+            window.put("truncated", truncated);
+            window.put("nextLineOffset", !truncated && next < index.totalLines ? next : null);
+            return window;
+        } catch (NoSuchFileException e) {
+            throw new GenericErrorResponse("File content not found for id: " + id, HttpStatus.NOT_FOUND);
+        } catch (IOException e) {
+            System.err.println("Error reading preview of file " + id + ": " + e.getMessage());
+            throw new RuntimeException("Unable to read file from storage", e);
+        }
+    }
+
+    /**
+     * Up to {@code byteLength} bytes starting at {@code byteOffset}, moved forward to the next
+     * character boundary. {@code nextByteOffset} is where the following window should start.
+     */
+    public Map<String, Object> readBytes(String id, long byteOffset, int byteLength) {
+        File fileRecord = storageService.findPlainFileById(id);
+        int length = Math.min(byteLength, maxBytes);
+
+        try (SeekableByteChannel channel = open(fileRecord)) {
+            long fileSize = channel.size();
+            Encoding encoding = cachedEncoding(id, channel);
+
+            long start = Math.max(byteOffset, encoding.bomLength);
+            if (encoding.unitSize == 2) {
+                start -= (start - encoding.bomLength) % 2;
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.max(0, Math.min(length, fileSize - start)));
+            readFully(channel, buffer, start);
+            buffer.flip();
+
+            if (encoding.charset == StandardCharsets.UTF_8) {
+                // Never start in the middle of a multi-byte sequence
+                while (buffer.hasRemaining() && (buffer.get(buffer.position()) & 0xC0) == 0x80) {
+                    buffer.get();
+                    start++;
+                }
+            }
+
+            long dataStart = start;
+            int available = buffer.remaining();
+            boolean endOfFile = dataStart + available >= fileSize;
+            CharBuffer text = CharBuffer.allocate(available + 1);
+            // An incomplete character at the end of the window is left for the next one
+            decoder(encoding.charset).decode(buffer, text, endOfFile);
+            text.flip();
+            long next = dataStart + (available - buffer.remaining());
+
+            Map<String, Object> window = new HashMap<>();
+            window.put("id", id);
+            window.put("fileName", fileRecord.getOriginalFileName());
+            window.put("charset", encoding.charset.name());
+            window.put("fileSize", fileSize);
+            window.put("byteOffset", dataStart);
+            window.put("text", text.toString());
+            window.put("endOfFile", next >= fileSize);
+            window.put("nextByteOffset", next < fileSize ? next : null);
+            return window;
+        } catch (NoSuchFileException e) {
+            throw new GenericErrorResponse("File content not found for id: " + id, HttpStatus.NOT_FOUND);
+        } catch (IOException e) {
+            System.err.println("Error reading preview of file " + id + ": " + e.getMessage());
+            throw new RuntimeException("Unable to read file from storage", e);
+        }
+    }
+
+    private SeekableByteChannel open(File fileRecord) throws IOException {
+        return storageService.resolveBlob(fileRecord).openChannel();
+    }
+
+    private LineIndex index(String id, SeekableByteChannel channel) throws IOException {
+        synchronized (indexes) {
+            LineIndex cached = indexes.get(id);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        // Built outside the lock; two concurrent first requests just scan twice
+        LineIndex index = buildIndex(channel);
+        synchronized (indexes) {
+            indexes.put(id, index);
+        }
+        return index;
+    }
+
+    private Encoding cachedEncoding(String id, SeekableByteChannel channel) throws IOException {
+        synchronized (indexes) {
+            LineIndex cached = indexes.get(id);
+            if (cached != null) {
+                return cached.encoding;
+            }
+        }
+        return detectEncoding(channel);
+    }
+
+    private LineIndex buildIndex(SeekableByteChannel channel) throws IOException {
+        long started = System.currentTimeMillis();
+        Encoding encoding = detectEncoding(channel);
+
+        long[] checkpoints = new long[16];
+        int checkpointCount = 0;
+        checkpoints[checkpointCount++] = encoding.bomLength;
+
+        channel.position(encoding.bomLength);
+        LineReader reader = new LineReader(Channels.newInputStream(channel), encoding);
+        long position = encoding.bomLength;
+        long lines = 0;
+        long consumed;
+        while ((consumed = reader.readLine(null, Long.MAX_VALUE)) >= 0) {
+            position += consumed;
+            lines++;
+            if (reader.lineEnded && lines % indexStep == 0) {
+                if (checkpointCount == checkpoints.length) {
+                    checkpoints = Arrays.copyOf(checkpoints, checkpointCount * 2);
+                }
+                checkpoints[checkpointCount++] = position;
+            }
+        }
+
+        System.out.println("Built line index (" + lines + " lines, " + checkpointCount + " checkpoints) in "
+                + (System.currentTimeMillis() - started) + " ms");
+        return new LineIndex(encoding, lines, Arrays.copyOf(checkpoints, checkpointCount));
+    }
+
+    /**
+     * Works out the charset from a byte order mark, or by checking whether the start of the file
+     * is valid UTF-8. Files with NUL bytes and no UTF-16 BOM are treated as binary.
+     */
+    private Encoding detectEncoding(SeekableByteChannel channel) throws IOException {
+        ByteBuffer sample = ByteBuffer.allocate((int) Math.min(SAMPLE_SIZE, channel.size()));
+        readFully(channel, sample, 0);
+        sample.flip();
+
+        int remaining = sample.remaining();
+        if (remaining >= 3 && (sample.get(0) & 0xFF) == 0xEF && (sample.get(1) & 0xFF) == 0xBB
+                && (sample.get(2) & 0xFF) == 0xBF) {
+            return new Encoding(StandardCharsets.UTF_8, 3, 1, false);
+        }
+        if (remaining >= 2 && (sample.get(0) & 0xFF) == 0xFF && (sample.get(1) & 0xFF) == 0xFE) {
+            return new Encoding(StandardCharsets.UTF_16LE, 2, 2, false);
+        }
+        if (remaining >= 2 && (sample.get(0) & 0xFF) == 0xFE && (sample.get(1) & 0xFF) == 0xFF) {
+            return new Encoding(StandardCharsets.UTF_16BE, 2, 2, true);
+        }
+
+        for (int i = 0; i < remaining; i++) {
+            if (sample.get(i) == 0) {
+                throw new GenericErrorResponse("File does not look like text", HttpStatus.UNSUPPORTED_MEDIA_TYPE);
+            }
+        }
+
+        CharsetDecoder strict = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        CharBuffer chars = CharBuffer.allocate(remaining + 1);
+        // Not end of input: the sample may cut a character in half
+        boolean utf8 = !strict.decode(sample, chars, remaining == channel.size()).isError();
+        return new Encoding(utf8 ? StandardCharsets.UTF_8 : FALLBACK_CHARSET, 0, 1, false);
+    }
+
+    private void readFully(SeekableByteChannel channel, ByteBuffer buffer, long position) throws IOException {
+        channel.position(position);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                break;
+            }
+        }
+    }
+
+    private String decodeLine(ByteArrayOutputStream line, Encoding encoding) {
+        String text;
+        try {
+            text = decoder(encoding.charset).decode(ByteBuffer.wrap(line.toByteArray())).toString();
+        } catch (CharacterCodingException e) {
+            // Cannot happen with REPLACE, kept for the checked signature
+            text = new String(line.toByteArray(), encoding.charset);
+        }
+        return text.endsWith("\r") ? text.substring(0, text.length() - 1) : text;
+    }
+
+    private CharsetDecoder decoder(Charset charset) {
+        return charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    private static final class Encoding {
+        final Charset charset;
+        final int bomLength;
+        // Bytes per code unit: line feeds are matched per unit so UTF-16 text is split correctly
+        final int unitSize;
+        final boolean bigEndian;
+
+        Encoding(Charset charset, int bomLength, int unitSize, boolean bigEndian) {
+            this.charset = charset;
+            this.bomLength = bomLength;
+            this.unitSize = unitSize;
+            this.bigEndian = bigEndian;
+        }
+    }
+
+    private static final class LineIndex {
+        final Encoding encoding;
+        final long totalLines;
+        // checkpoints[k] is the byte offset where line k * indexStep starts
+        final long[] checkpoints;
+
+        LineIndex(Encoding encoding, long totalLines, long[] checkpoints) {
+            this.encoding = encoding;
+            this.totalLines = totalLines;
+            this.checkpoints = checkpoints;
+        }
+    }
+
+    /**
+     * Splits a byte stream into lines on LF code units
+     */
+    private static final class LineReader {
+        private final InputStream in;
+        private final Encoding encoding;
+        // Whether the last line read ended with a line feed (as opposed to EOF or the byte limit)
+        boolean lineEnded;
+
+        LineReader(InputStream in, Encoding encoding) {
+            this.in = new BufferedInputStream(in, BUFFER_SIZE);
+            this.encoding = encoding;
+        }
+
+        /**
+         * Reads one line into {@code line} (if given) without its line feed and returns the number
+         * of bytes consumed, or -1 at end of file. Stops after {@code limit} bytes.
+         */
+        long readLine(ByteArrayOutputStream line, long limit) throws IOException {
+            long consumed = 0;
+            int previous = -1;
+            int current;
+            lineEnded = false;
+
+            while (consumed < limit && (current = in.read()) != -1) {
+                consumed++;
+                if (isLineFeed(consumed, previous, current)) {
+                    lineEnded = true;
+                    return consumed;
+                }
+                if (encoding.unitSize == 1) {
+                    if (line != null) {
+                        line.write(current);
+                    }
+                } else if (consumed % 2 == 0 && line != null) {
+                    // Whole code units only, written once both bytes are known
+                    line.write(previous);
+                    line.write(current);
+                }
+                previous = current;
+            }
+            return consumed == 0 ? -1 : consumed;
+        }
+
+        private boolean isLineFeed(long consumed, int previous, int current) {
+            if (encoding.unitSize == 1) {
+                return current == '\n';
+            }
+            if (consumed % 2 != 0) {
+                return false;
+            }
+            return encoding.bigEndian
+                    ? previous == 0x00 && current == '\n'
+                    : previous == '\n' && current == 0x00;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.safalifter.filestorage.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.boot.actuate.metrics.http.Outcome;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Metrics for the upload and download hot paths: bytes in and out, latency histograms per
+ * endpoint and transfers in flight. The servlet and reactive listeners both report through
+ * {@link #start(String, String)}, so dashboards see one set of series whichever served a request.
+ */
+@Component
+public class TransferMetrics {
+
+    public static final String IN = "in";
+    public static final String OUT = "out";
+
+    private final MeterRegistry meterRegistry;
+    private final AtomicInteger activeIn = new AtomicInteger();
+    private final AtomicInteger activeOut = new AtomicInteger();
+
+    public TransferMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        Gauge.builder("filestorage.transfers.active", activeIn, AtomicInteger::get)
+                .description("Uploads and downloads in flight")
+                .tag("direction", IN)
+                .register(meterRegistry);
+        Gauge.builder("filestorage.transfers.active", activeOut, AtomicInteger::get)
+                .description("Uploads and downloads in flight")
+                .tag("direction", OUT)
+                .register(meterRegistry);
+    }
+
+    /**
+     * One request to a transfer endpoint; {@link #finish(int)} records its duration. Bytes are
+     * counted as they pass, so a body still draining when the request completes is not lost.
+     */
+    public final class Transfer {
+        private final String endpoint;
+        private final String direction;
+        private final long started = System.nanoTime();
+        private final Counter bytes;
+        private final AtomicInteger finished = new AtomicInteger();
+
+        private Transfer(String endpoint, String direction) {
+            this.endpoint = endpoint;
+            this.direction = direction;
+            this.bytes = Counter.builder("filestorage.transfer.bytes")
+                    .description("Bytes received by uploads and sent by downloads")
+                    .baseUnit("bytes")
+                    .tag("endpoint", endpoint)
+                    .tag("direction", direction)
+                    .register(meterRegistry);
+            active(direction).incrementAndGet();
+        }
+
+        public void addBytes(long count) {
+            if (count > 0) {
+                bytes.increment(count);
+            }
+        }
+
+        public void finish(int status) {
+            if (finished.getAndIncrement() > 0) {
+                return;
+            }
+            active(direction).decrementAndGet();
+
+            Timer.builder("filestorage.transfer.duration")
+                    .description("Time to serve a transfer request, body included")
+                    .tag("endpoint", endpoint)
+                    .tag("outcome", Outcome.forStatus(status).name())
+                    .publishPercentileHistogram()
+                    .minimumExpectedValue(Duration.ofMillis(1))
+                    .maximumExpectedValue(Duration.ofMinutes(10))
+                    .register(meterRegistry)
+                    .record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Starts tracking a request, or returns null when the path is not a transfer endpoint
+     */
+    public Transfer start(String method, String path) {
+        String endpoint = endpointOf(method, path);
+        if (endpoint == null) {
+            return null;
+        }
+        return new Transfer(endpoint, endpoint.contains("upload") ? IN : OUT);
+    }
+
+    private String endpointOf(String method, String path) {
+        if ("POST".equals(method)) {
+            if (path.equals("/api/v1/file-storage/upload")) {
+                return "upload";
+            }
+            if (path.equals("/api/v1/secure-storage/upload")) {
+                return "secure-upload";
+            }
+            if (path.equals("/api/v1/file-storage/archive")) {
+                return "archive";
+            }
+        } else if ("PUT".equals(method)) {
+            if (path.startsWith("/api/v1/file-storage/uploads/")) {
+                return "upload-chunk";
+            }
+        } else if ("GET".equals(method)) {
+            if (path.startsWith("/api/v1/file-storage/download/")) {
+                return "download";
+            }
+            if (path.startsWith("/api/v1/secure-storage/download/")) {
+                return "secure-download";
+            }
+            if (path.startsWith(SignedUrlService.SIGNED_PATH)) {
+                return "signed-download";
+            }
+        }
+        return null;
+    }
+
+    private AtomicInteger active(String direction) {
+        return IN.equals(direction) ? activeIn : activeOut;
+    }
+}
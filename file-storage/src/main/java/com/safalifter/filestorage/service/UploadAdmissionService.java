@@ -0,0 +1,240 @@
+package com.safalifter.filestorage.service;
+
+import com.safalifter.filestorage.exc.UploadRejectedException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Admission control for writes. A fixed number of uploads may write to disk at once; a bounded
+ * number more wait for a slot, and anything beyond that (or waiting too long) is turned away
+ * with a retry hint instead of piling up on Tomcat threads. Slots are taken around the disk
+ * write only, so clients still sending their body do not hold one. Each user is also capped on
+ * concurrent uploads so one client cannot take every slot near a deadline.
+ */
+@Service
+public class UploadAdmissionService {
+
+    private static final long MAX_RETRY_AFTER_SECONDS = 60;
+    private static final Pattern SUBJECT_CLAIM = Pattern.compile("\"sub\"\\s*:\\s*\"([^\"]+)\"");
+
+    private final Semaphore writeSlots;
+    private final int maxConcurrent;
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    // Uploads in flight, by user
+    private final Map<String, Integer> perUser = new ConcurrentHashMap<>();
+
+    private final Timer waitTimer;
+    private final Counter rejectedQueueFull;
+    private final Counter rejectedTimeout;
+    private final Counter rejectedUserLimit;
+    private final Counter bytesWritten;
+    private final Timer writeTimer;
+
+    @Value("${storage.admission.enabled:true}")
+    private boolean enabled;
+
+    @Value("${storage.admission.queue-capacity:64}")
+    private int queueCapacity;
+
+    @Value("${storage.admission.max-wait-ms:10000}")
+    private long maxWaitMillis;
+
+    @Value("${storage.admission.per-user-max:2}")
+    private int perUserMax;
+
+    // Moving average of how long a write holds its slot, used for Retry-After
+    private volatile double averageHoldSeconds = 1.0;
+
+    public UploadAdmissionService(MeterRegistry meterRegistry,
+                                  @Value("${storage.admission.max-concurrent-writes:8}") int maxConcurrent) {
+        this.maxConcurrent = maxConcurrent;
+        this.writeSlots = new Semaphore(maxConcurrent, true);
+
+        Gauge.builder("filestorage.uploads.queue.depth", waiting, AtomicInteger::get)
+                .description("Uploads waiting for a write slot")
+                .register(meterRegistry);
+        Gauge.builder("filestorage.uploads.active", active, AtomicInteger::get)
+                .description("Uploads currently writing")
+                .register(meterRegistry);
+        this.waitTimer = Timer.builder("filestorage.uploads.wait")
+                .description("Time uploads spent waiting for a write slot")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+        this.rejectedQueueFull = rejectedCounter(meterRegistry, "queue_full");
+        this.rejectedTimeout = rejectedCounter(meterRegistry, "timeout");
+        this.rejectedUserLimit = rejectedCounter(meterRegistry, "user_limit");
+        this.bytesWritten = Counter.builder("filestorage.disk.write.bytes")
+                .description("Bytes of uploaded content written to storage")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.writeTimer = Timer.builder("filestorage.disk.write")
+                .description("Time spent writing uploaded content to storage")
+                .register(meterRegistry);
+    }
+
+    private static Counter rejectedCounter(MeterRegistry meterRegistry, String reason) {
+        return Counter.builder("filestorage.uploads.rejected")
+                .description("Uploads turned away by admission control, by reason")
+                .tag("reason", reason)
+                .register(meterRegistry);
+    }
+
+    /**
+     * One of a user's concurrent uploads, held for the whole request; closing it frees the place
+     */
+    public final class UserSlot implements AutoCloseable {
+        private final String user;
+        private boolean released;
+
+        private UserSlot(String user) {
+            this.user = user;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!released) {
+                released = true;
+                releaseUser(user);
+            }
+        }
+    }
+
+    /**
+     * A write slot held while one upload writes to disk; closing it lets the next one in
+     */
+    public final class Permit implements AutoCloseable {
+        private final long admittedAt = System.nanoTime();
+        private boolean released;
+
+        private Permit(boolean held) {
+            this.released = !held;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (released) {
+                return;
+            }
+            released = true;
+            double heldSeconds = (System.nanoTime() - admittedAt) / 1e9;
+            averageHoldSeconds = averageHoldSeconds * 0.9 + heldSeconds * 0.1;
+            active.decrementAndGet();
+            writeSlots.release();
+        }
+    }
+
+    /**
+     * Counts an upload against its user. Never waits: throws UploadRejectedException (429)
+     * when the user already has per-user-max uploads in flight.
+     */
+    public UserSlot enter(String user) {
+        if (perUser.merge(user, 1, Integer::sum) > perUserMax) {
+            releaseUser(user);
+            rejectedUserLimit.increment();
+            throw new UploadRejectedException("Too many concurrent uploads, retry shortly",
+                    HttpStatus.TOO_MANY_REQUESTS, retryAfterSeconds());
+        }
+        return new UserSlot(user);
+    }
+
+    /**
+     * Waits for a write slot, to be held only while content is written to disk. Throws
+     * UploadRejectedException (503) carrying a Retry-After estimate when the queue is full,
+     * the wait times out or the server is shutting down.
+     */
+    public Permit acquireWrite() {
+        if (!enabled) {
+            return new Permit(false);
+        }
+        if (!writeSlots.tryAcquire()) {
+            if (waiting.incrementAndGet() > queueCapacity) {
+                waiting.decrementAndGet();
+                rejectedQueueFull.increment();
+                throw new UploadRejectedException("Upload queue is full, retry shortly",
+                        HttpStatus.SERVICE_UNAVAILABLE, retryAfterSeconds());
+            }
+
+            long started = System.nanoTime();
+            boolean acquired;
+            try {
+                acquired = writeSlots.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new UploadRejectedException("Server is shutting down", HttpStatus.SERVICE_UNAVAILABLE, 1);
+            } finally {
+                waiting.decrementAndGet();
+                waitTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+            }
+            if (!acquired) {
+                rejectedTimeout.increment();
+                throw new UploadRejectedException("Timed out waiting for an upload slot, retry shortly",
+                        HttpStatus.SERVICE_UNAVAILABLE, retryAfterSeconds());
+            }
+        } else {
+            waitTimer.record(0, TimeUnit.NANOSECONDS);
+        }
+
+        active.incrementAndGet();
+        return new Permit(true);
+    }
+
+    /**
+     * Who an upload counts against: the token subject, else the client address. The gateway has
+     * already verified the token; it is only decoded here to tell users apart.
+     */
+    public static String userKey(String authHeader, String forwardedFor, String remoteAddress) {
+        if (authHeader != null && authHeader.startsWith("Bearer ")) {
+            String[] parts = authHeader.substring(7).split("\\.");
+            if (parts.length == 3) {
+                try {
+                    String payload = new String(Base64.getUrlDecoder().decode(parts[1]), StandardCharsets.UTF_8);
+                    Matcher matcher = SUBJECT_CLAIM.matcher(payload);
+                    if (matcher.find()) {
+                        return "user:" + matcher.group(1);
+                    }
+                } catch (IllegalArgumentException e) {
+                    // Not a JWT we can read; fall back to the address
+                }
+            }
+        }
+
+        if (forwardedFor != null && !forwardedFor.isBlank()) {
+            return "ip:" + forwardedFor.split(",")[0].trim();
+        }
+        return "ip:" + remoteAddress;
+    }
+
+    /**
+     * Records content written to storage, for the disk write throughput metrics
+     */
+    public void recordWrite(long bytes, long nanos) {
+        bytesWritten.increment(bytes);
+        writeTimer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    // Time for the uploads ahead to drain through the slots, at the recent pace
+    private long retryAfterSeconds() {
+        double seconds = (waiting.get() + 1.0) / maxConcurrent * averageHoldSeconds;
+        return Math.max(1, Math.min(MAX_RETRY_AFTER_SECONDS, (long) Math.ceil(seconds)));
+    }
+
+    private void releaseUser(String user) {
+        perUser.computeIfPresent(user, (key, count) -> count <= 1 ? null : count - 1);
+    }
+}
@@ -0,0 +1,234 @@
+package com.safalifter.filestorage.service;
+
+import com.safalifter.filestorage.model.ArchiveEntry;
+import com.safalifter.filestorage.model.File;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Streams many stored files as a single ZIP straight to the client.
+ * A reader thread pulls file contents from disk into a small bounded queue while the
+ * request thread compresses and writes to the socket, so disk reads overlap network writes
+ * and memory use stays at a few chunks regardless of archive size.
+ */
+@Service
+public class ZipArchiveService {
+
+    // Formats that are already compressed; deflating them again only burns CPU
+    private static final Set<String> COMPRESSED_EXTENSIONS = Set.of(
+            "zip", "gz", "tgz", "rar", "7z", "bz2", "xz",
+            "jpg", "jpeg", "png", "gif", "webp",
+            "mp3", "mp4", "m4a", "ogg", "webm", "avi", "mov",
+            "docx", "xlsx", "pptx", "odt", "ods", "odp", "pdf"
+    );
+
+    private final StorageService storageService;
+    private final AccessTracker accessTracker;
+    private final ExecutorService readers;
+    private final int chunkSize;
+    private final int queueChunks;
+
+    public ZipArchiveService(StorageService storageService,
+                             AccessTracker accessTracker,
+                             @Value("${storage.archive.reader-threads:4}") int readerThreads,
+                             @Value("${storage.archive.chunk-size:262144}") int chunkSize,
+                             @Value("${storage.archive.read-ahead-chunks:8}") int queueChunks) {
+        this.storageService = storageService;
+        this.accessTracker = accessTracker;
+        this.readers = Executors.newFixedThreadPool(readerThreads, runnable -> {
+            Thread thread = new Thread(runnable, "zip-archive-reader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.chunkSize = chunkSize;
+        this.queueChunks = queueChunks;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        readers.shutdownNow();
+    }
+
+    /**
+     * Writes a ZIP containing the given files to {@code out}. Files that cannot be found are skipped.
+     */
+    public void writeZip(List<ArchiveEntry> entries, OutputStream out) throws IOException {
+        BlockingQueue<Chunk> queue = new ArrayBlockingQueue<>(queueChunks);
+        Future<?> reader = readers.submit(() -> readAll(entries, queue));
+
+        ZipOutputStream zip = new ZipOutputStream(out);
+        try {
+            while (true) {
+                Chunk chunk = queue.take();
+                if (chunk.type == ChunkType.END) {
+                    break;
+                }
+                switch (chunk.type) {
+                    case ENTRY:
+                        // Deflate level 0 keeps already-compressed formats uncompressed without
+                        // needing their CRC up front, which STORED entries would require
+                        zip.setLevel(chunk.compress ? Deflater.DEFAULT_COMPRESSION : Deflater.NO_COMPRESSION);
+                        zip.putNextEntry(new ZipEntry(chunk.name));
+                        break;
+                    case DATA:
+                        zip.write(chunk.data, 0, chunk.length);
+                        break;
+                    case ENTRY_END:
+                        zip.closeEntry();
+                        break;
+                    case ERROR:
+                        throw new IOException("Unable to read " + chunk.name + " for archive", chunk.error);
+                    default:
+                        break;
+                }
+            }
+            zip.finish();
+            zip.flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Archive streaming interrupted", e);
+        } finally {
+            // Stops the reader if the client went away half-way
+            reader.cancel(true);
+        }
+    }
+
+    private void readAll(List<ArchiveEntry> entries, BlockingQueue<Chunk> queue) {
+        Set<String> usedNames = new HashSet<>();
+        try {
+            for (ArchiveEntry entry : entries) {
+                File fileRecord;
+                BlobRegion blob;
+                try {
+                    fileRecord = storageService.findPlainFileById(entry.getId());
+                    blob = storageService.resolveBlob(fileRecord);
+                    accessTracker.record(fileRecord);
+                } catch (RuntimeException | IOException e) {
+                    System.err.println("Skipping file " + entry.getId() + " in archive: " + e.getMessage());
+                    continue;
+                }
+
+                String name = uniqueName(entryName(entry, fileRecord), usedNames);
+                queue.put(Chunk.entry(name, shouldCompress(fileRecord.getOriginalFileName())));
+
+                try (SeekableByteChannel channel = blob.openChannel()) {
+                    while (true) {
+                        byte[] buffer = new byte[chunkSize];
+                        int read = channel.read(ByteBuffer.wrap(buffer));
+                        if (read == -1) {
+                            break;
+                        }
+                        if (read > 0) {
+                            queue.put(Chunk.data(buffer, read));
+                        }
+                    }
+                } catch (IOException e) {
+                    queue.put(Chunk.error(name, e));
+                    return;
+                }
+
+                queue.put(Chunk.ENTRY_END_CHUNK);
+            }
+            queue.put(Chunk.END_CHUNK);
+        } catch (InterruptedException e) {
+            // Writer gave up; nothing left to do
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private String entryName(ArchiveEntry entry, File fileRecord) {
+        String fileName = fileRecord.getOriginalFileName() != null ? fileRecord.getOriginalFileName() : fileRecord.getId();
+        // Never let stored names escape the archive root
+        fileName = fileName.replace('\\', '_').replace('/', '_');
+
+        String folder = entry.getFolder();
+        if (folder == null || folder.isBlank()) {
+            return fileName;
+        }
+        folder = folder.replace('\\', '_').replace('/', '_').replace("..", "_");
+        return folder + "/" + fileName;
+    }
+
+    private String uniqueName(String name, Set<String> usedNames) {
+        if (usedNames.add(name)) {
+            return name;
+        }
+
+        int dot = name.lastIndexOf('.');
+        String base = dot > name.lastIndexOf('/') + 1 ? name.substring(0, dot) : name;
+        String extension = dot > name.lastIndexOf('/') + 1 ? name.substring(dot) : "";
+        for (int i = 2; ; i++) {
+            String candidate = base + " (" + i + ")" + extension;
+            if (usedNames.add(candidate)) {
+                return candidate;
+            }
+        }
+    }
+
+    private boolean shouldCompress(String fileName) {
+        if (fileName == null) {
+            return true;
+        }
+        int lastDot = fileName.lastIndexOf('.');
+        if (lastDot < 0) {
+            return true;
+        }
+        return !COMPRESSED_EXTENSIONS.contains(fileName.substring(lastDot + 1).toLowerCase());
+    }
+
+    private enum ChunkType { ENTRY, DATA, ENTRY_END, ERROR, END }
+
+    private static class Chunk {
+        private static final Chunk ENTRY_END_CHUNK = new Chunk(ChunkType.ENTRY_END);
+        private static final Chunk END_CHUNK = new Chunk(ChunkType.END);
+
+        private final ChunkType type;
+        private String name;
+        private boolean compress;
+        private byte[] data;
+        private int length;
+        private Exception error;
+
+        private Chunk(ChunkType type) {
+            this.type = type;
+        }
+
+        private static Chunk entry(String name, boolean compress) {
+            Chunk chunk = new Chunk(ChunkType.ENTRY);
+            chunk.name = name;
+            chunk.compress = compress;
+            return chunk;
+        }
+
+        private static Chunk data(byte[] data, int length) {
+            Chunk chunk = new Chunk(ChunkType.DATA);
+            chunk.data = data;
+            chunk.length = length;
+            return chunk;
+        }
+
+        private static Chunk error(String name, Exception error) {
+            Chunk chunk = new Chunk(ChunkType.ERROR);
+            chunk.name = name;
+            chunk.error = error;
+            return chunk;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.safalifter.filestorage.controller;
+
+import com.safalifter.filestorage.config.TransferMetricsWebFilter;
+import com.safalifter.filestorage.model.File;
+import com.safalifter.filestorage.service.AccessTracker;
+import com.safalifter.filestorage.service.BlobRegion;
+import com.safalifter.filestorage.service.DerivativeService;
+import com.safalifter.filestorage.service.HotContentCache;
+import com.safalifter.filestorage.service.StorageService;
+import com.safalifter.filestorage.service.TransferMetrics;
+import com.safalifter.filestorage.service.UploadAdmissionService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.reactive.function.server.HandlerStrategies;
+import org.springframework.web.reactive.function.server.RouterFunctions;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ReactiveTransferHandlerTest {
+
+    private static final String CONTENT = "0123456789abcdefghijklmnopqrstuvwxyz";
+    private static final String ID = "file-1";
+    private static final String ETAG = "abc123-36";
+    private static final long UPLOADED_AT = 1_700_000_000_000L;
+
+    @TempDir
+    Path tempDir;
+
+    private SimpleMeterRegistry meterRegistry;
+    private ReactiveTransferHandler handler;
+    private WebTestClient client;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        Path blob = tempDir.resolve("blob");
+        Files.write(blob, CONTENT.getBytes(StandardCharsets.US_ASCII));
+        File fileRecord = File.builder()
+                .id(ID)
+                .originalFileName("notes.txt")
+                .detectedType("text/plain")
+                .filePath(blob.toString())
+                .contentHash("abc123")
+                .size((long) CONTENT.length())
+                .etag(ETAG)
+                .uploadedAt(Instant.ofEpochMilli(UPLOADED_AT))
+                .build();
+
+        StorageService storageService = mock(StorageService.class);
+        when(storageService.findPlainFileById(ID)).thenReturn(fileRecord);
+        when(storageService.ensureValidators(fileRecord)).thenReturn(fileRecord);
+        when(storageService.resolveBlob(fileRecord)).thenReturn(BlobRegion.of(blob, CONTENT.length()));
+
+        handler = new ReactiveTransferHandler(storageService, mock(DerivativeService.class),
+                mock(UploadAdmissionService.class),
+                new HotContentCache(new SimpleMeterRegistry(), false, 0, 0, false),
+                mock(AccessTracker.class), 1);
+        ReflectionTestUtils.setField(handler, "bufferSize", 8);
+
+        meterRegistry = new SimpleMeterRegistry();
+        client = WebTestClient.bindToRouterFunction(RouterFunctions.route()
+                        .GET("/api/v1/file-storage/download/{id}", handler::download)
+                        .build())
+                .handlerStrategies(HandlerStrategies.builder()
+                        .webFilter(new TransferMetricsWebFilter(new TransferMetrics(meterRegistry)))
+                        .build())
+                .build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        handler.shutdown();
+    }
+
+    @Test
+    void servesSingleRange() {
+        client.get().uri("/api/v1/file-storage/download/{id}", ID)
+                .header(HttpHeaders.RANGE, "bytes=10-15")
+                .exchange()
+                .expectStatus().isEqualTo(206)
+                .expectHeader().valueEquals(HttpHeaders.CONTENT_RANGE, "bytes 10-15/36")
+                .expectBody(String.class).isEqualTo("abcdef");
+    }
+
+    @Test
+    void answersRangePastTheEndWith416() {
+        client.get().uri("/api/v1/file-storage/download/{id}", ID)
+                .header(HttpHeaders.RANGE, "bytes=5000-")
+                .exchange()
+                .expectStatus().isEqualTo(416)
+                .expectHeader().valueEquals(HttpHeaders.CONTENT_RANGE, "bytes */36");
+    }
+
+    @Test
+    void ifRangeWithMatchingDateOrEtagKeepsRange() {
+        client.get().uri("/api/v1/file-storage/download/{id}", ID)
+                .header(HttpHeaders.RANGE, "bytes=0-3")
+                .header(HttpHeaders.IF_RANGE, httpDate(UPLOADED_AT))
+                .exchange()
+                .expectStatus().isEqualTo(206);
+        client.get().uri("/api/v1/file-storage/download/{id}", ID)
+                .header(HttpHeaders.RANGE, "bytes=0-3")
+                .header(HttpHeaders.IF_RANGE, "\"" + ETAG + "\"")
+                .exchange()
+                .expectStatus().isEqualTo(206);
+    }
+
+    @Test
+    void ifRangeWithOtherDateSendsWholeFile() {
+        // A later date is not an exact match, so the range must not be honoured
+        client.get().uri("/api/v1/file-storage/download/{id}", ID)
+                .header(HttpHeaders.RANGE, "bytes=0-3")
+                .header(HttpHeaders.IF_RANGE, httpDate(UPLOADED_AT + 60_000))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class).isEqualTo(CONTENT);
+        client.get().uri("/api/v1/file-storage/download/{id}", ID)
+                .header(HttpHeaders.RANGE, "bytes=0-3")
+                .header(HttpHeaders.IF_RANGE, "\"other\"")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class).isEqualTo(CONTENT);
+    }
+
+    @Test
+    void downloadsAreRecordedInTransferMetrics() {
+        client.get().uri("/api/v1/file-storage/download/{id}", ID)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class).isEqualTo(CONTENT);
+
+        assertEquals(CONTENT.length(), meterRegistry.get("filestorage.transfer.bytes")
+                .tag("endpoint", "download").tag("direction", TransferMetrics.OUT).counter().count());
+        assertEquals(1, meterRegistry.get("filestorage.transfer.duration")
+                .tag("endpoint", "download").tag("outcome", "SUCCESS").timer().count());
+        assertEquals(0, meterRegistry.get("filestorage.transfers.active")
+                .tag("direction", TransferMetrics.OUT).gauge().value());
+    }
+
+    private String httpDate(long millis) {
+        return DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                ZonedDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneOffset.UTC));
+    }
+}
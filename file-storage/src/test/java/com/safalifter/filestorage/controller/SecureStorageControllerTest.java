@@ -0,0 +1,97 @@
+package com.safalifter.filestorage.controller;
+
+import com.safalifter.filestorage.model.File;
+import com.safalifter.filestorage.service.FileStreamingService;
+import com.safalifter.filestorage.service.HotContentCache;
+import com.safalifter.filestorage.service.SecureStorageService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SecureStorageControllerTest {
+
+    private static final String CONTENT = "0123456789abcdefghijklmnopqrstuvwxyz";
+    private static final String ID = "secure-1";
+
+    private SecureStorageService secureStorageService;
+    private SecureStorageController controller;
+    private File fileRecord;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        FileStreamingService streamingService =
+                new FileStreamingService(new HotContentCache(new SimpleMeterRegistry(), false, 0, 0, false));
+        ReflectionTestUtils.setField(streamingService, "maxRanges", 4);
+
+        fileRecord = File.builder().id(ID).originalFileName("notes.txt").detectedType("text/plain").build();
+        secureStorageService = mock(SecureStorageService.class);
+        when(secureStorageService.findFileById(ID)).thenReturn(fileRecord);
+        when(secureStorageService.getPlaintextLength(fileRecord)).thenReturn((long) CONTENT.length());
+        doAnswer(invocation -> {
+            int start = Math.toIntExact(invocation.<Long>getArgument(1));
+            int count = Math.toIntExact(invocation.<Long>getArgument(2));
+            invocation.<OutputStream>getArgument(3).write(CONTENT.getBytes(StandardCharsets.US_ASCII), start, count);
+            return null;
+        }).when(secureStorageService).decryptTo(eq(fileRecord), anyLong(), anyLong(), any(OutputStream.class));
+
+        controller = new SecureStorageController(secureStorageService, streamingService);
+    }
+
+    @Test
+    void decryptsOnlyTheRequestedRange() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        controller.downloadSecureFile(ID, false, withRange("bytes=10-15"), response);
+
+        assertEquals(206, response.getStatus());
+        assertEquals("bytes 10-15/36", response.getHeader(HttpHeaders.CONTENT_RANGE));
+        assertEquals("abcdef", response.getContentAsString());
+        verify(secureStorageService).decryptTo(eq(fileRecord), eq(10L), eq(6L), any(OutputStream.class));
+    }
+
+    @Test
+    void answersRangePastTheEndWith416() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        controller.downloadSecureFile(ID, false, withRange("bytes=5000-"), response);
+
+        assertEquals(416, response.getStatus());
+        assertEquals("bytes */36", response.getHeader(HttpHeaders.CONTENT_RANGE));
+        verify(secureStorageService, never()).decryptTo(any(), anyLong(), anyLong(), any());
+    }
+
+    @Test
+    void answersAnyRangeOfEmptyFileWith416() throws Exception {
+        when(secureStorageService.getPlaintextLength(fileRecord)).thenReturn(0L);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        controller.downloadSecureFile(ID, false, withRange("bytes=0-"), response);
+
+        assertEquals(416, response.getStatus());
+        assertEquals("bytes */0", response.getHeader(HttpHeaders.CONTENT_RANGE));
+        verify(secureStorageService, never()).decryptTo(any(), anyLong(), anyLong(), any());
+    }
+
+    private MockHttpServletRequest withRange(String range) {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader(HttpHeaders.RANGE, range);
+        return request;
+    }
+}
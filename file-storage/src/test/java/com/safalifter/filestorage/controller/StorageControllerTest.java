@@ -0,0 +1,90 @@
+package com.safalifter.filestorage.controller;
+
+import com.safalifter.filestorage.exc.GeneralExceptionHandler;
+import com.safalifter.filestorage.model.File;
+import com.safalifter.filestorage.service.AccessTracker;
+import com.safalifter.filestorage.service.DerivativeService;
+import com.safalifter.filestorage.service.FileStreamingService;
+import com.safalifter.filestorage.service.OrphanReconciler;
+import com.safalifter.filestorage.service.SignedUrlService;
+import com.safalifter.filestorage.service.StorageService;
+import com.safalifter.filestorage.service.TextPreviewService;
+import com.safalifter.filestorage.service.ZipArchiveService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.head;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+class StorageControllerTest {
+
+    private static final String SECURE_ID = "secure-1";
+
+    private StorageService storageService;
+    private DerivativeService derivativeService;
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        File secureRecord = File.builder()
+                .id(SECURE_ID)
+                .originalFileName("report.pdf")
+                .filePath("/data/secure-attachments/" + SECURE_ID)
+                .wrappedKey("wrapped")
+                .keyVersion(1)
+                .size(1234L)
+                .build();
+
+        storageService = mock(StorageService.class);
+        when(storageService.findFileById(SECURE_ID)).thenReturn(secureRecord);
+        when(storageService.findPlainFileById(SECURE_ID)).thenCallRealMethod();
+        derivativeService = mock(DerivativeService.class);
+
+        StorageController controller = new StorageController(storageService, mock(FileStreamingService.class),
+                mock(ZipArchiveService.class), derivativeService, mock(TextPreviewService.class),
+                mock(OrphanReconciler.class), mock(SignedUrlService.class), mock(AccessTracker.class));
+        ReflectionTestUtils.setField(controller, "streamingDownloads", true);
+
+        mockMvc = MockMvcBuilders.standaloneSetup(controller)
+                .setControllerAdvice(new GeneralExceptionHandler())
+                .build();
+    }
+
+    @Test
+    void downloadOfSecureFileIsNotFound() throws Exception {
+        mockMvc.perform(get("/api/v1/file-storage/download/{id}", SECURE_ID))
+                .andExpect(status().isNotFound())
+                .andExpect(header().doesNotExist("ETag"));
+
+        verify(storageService, never()).resolveBlob(any());
+        verify(storageService, never()).ensureValidators(any());
+        verify(derivativeService, never()).scheduleThumbnail(any());
+    }
+
+    @Test
+    void thumbnailOfSecureFileIsNotFound() throws Exception {
+        mockMvc.perform(get("/api/v1/file-storage/download/{id}", SECURE_ID).param("variant", DerivativeService.THUMBNAIL))
+                .andExpect(status().isNotFound());
+
+        verify(derivativeService, never()).scheduleThumbnail(any());
+    }
+
+    @Test
+    void headOfSecureFileIsNotFound() throws Exception {
+        mockMvc.perform(head("/api/v1/file-storage/download/{id}", SECURE_ID))
+                .andExpect(status().isNotFound())
+                .andExpect(header().doesNotExist("ETag"));
+
+        verify(storageService, never()).ensureValidators(any());
+    }
+}
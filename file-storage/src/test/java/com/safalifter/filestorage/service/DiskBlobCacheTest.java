@@ -0,0 +1,82 @@
+package com.safalifter.filestorage.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DiskBlobCacheTest {
+
+    @TempDir
+    Path tempDir;
+
+    private DiskBlobCache cache;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        cache = new DiskBlobCache(tempDir.resolve("cache"), 10);
+        cache.init();
+    }
+
+    @Test
+    void fillsAndLooksUpCopies() throws Exception {
+        assertNull(cache.lookup("a"));
+
+        BlobRegion filled = cache.fill("a", content(4));
+
+        assertEquals(4, filled.getLength());
+        assertEquals(filled.getPath(), cache.lookup("a").getPath());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedCopiesPastTheGracePeriod() throws Exception {
+        cache.fill("old", content(6));
+        cache.fill("older", content(6));
+        age("older", 2 * DiskBlobCache.EVICT_GRACE_MILLIS);
+        age("old", DiskBlobCache.EVICT_GRACE_MILLIS + 1000);
+
+        cache.fill("new", content(4));
+
+        assertNull(cache.lookup("older"));
+        assertNotNull(cache.lookup("old"));
+        assertNotNull(cache.lookup("new"));
+    }
+
+    @Test
+    void keepsRecentlyUsedCopiesEvenOverTheLimit() throws Exception {
+        cache.fill("a", content(6));
+        cache.fill("b", content(6));
+
+        // Both were handed out moments ago and may still be opened by name
+        assertTrue(Files.exists(tempDir.resolve("cache").resolve("a")));
+        assertTrue(Files.exists(tempDir.resolve("cache").resolve("b")));
+    }
+
+    @Test
+    void removeDeletesTheCopy() throws Exception {
+        cache.fill("a", content(4));
+
+        cache.remove("a");
+
+        assertFalse(Files.exists(tempDir.resolve("cache").resolve("a")));
+    }
+
+    private ByteArrayInputStream content(int length) {
+        return new ByteArrayInputStream(new byte[length]);
+    }
+
+    private void age(String name, long millis) throws Exception {
+        Files.setLastModifiedTime(tempDir.resolve("cache").resolve(name),
+                FileTime.fromMillis(System.currentTimeMillis() - millis));
+    }
+}
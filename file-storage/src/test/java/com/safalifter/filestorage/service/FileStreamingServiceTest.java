@@ -0,0 +1,205 @@
+package com.safalifter.filestorage.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FileStreamingServiceTest {
+
+    private static final String CONTENT = "0123456789abcdefghijklmnopqrstuvwxyz";
+    private static final long SIZE = CONTENT.length();
+    private static final String ETAG = "\"abc123\"";
+    private static final long LAST_MODIFIED = 1_700_000_000_000L;
+
+    @TempDir
+    Path tempDir;
+
+    private FileStreamingService service;
+    private BlobRegion blob;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        service = new FileStreamingService(new HotContentCache(new SimpleMeterRegistry(), false, 0, 0, false));
+        ReflectionTestUtils.setField(service, "maxRanges", 4);
+        ReflectionTestUtils.setField(service, "sendfileThreshold", Long.MAX_VALUE);
+
+        Path file = tempDir.resolve("blob");
+        Files.write(file, CONTENT.getBytes(StandardCharsets.US_ASCII));
+        blob = BlobRegion.of(file, SIZE);
+    }
+
+    @Test
+    void noRangeHeaderSendsWholeFile() {
+        assertTrue(service.resolveRanges(new MockHttpServletRequest(), SIZE, ETAG, LAST_MODIFIED).isEmpty());
+    }
+
+    @Test
+    void resolvesSuffixAndOpenEndedRanges() {
+        List<HttpRange> ranges = service.resolveRanges(withRange("bytes=-5,30-"), SIZE, ETAG, LAST_MODIFIED);
+
+        assertEquals(2, ranges.size());
+        assertEquals(31, ranges.get(0).getRangeStart(SIZE));
+        assertEquals(35, ranges.get(0).getRangeEnd(SIZE));
+        assertEquals(30, ranges.get(1).getRangeStart(SIZE));
+        assertEquals(35, ranges.get(1).getRangeEnd(SIZE));
+    }
+
+    @Test
+    void malformedOrTooManyRangesAreIgnored() {
+        assertTrue(service.resolveRanges(withRange("bytes=abc"), SIZE, ETAG, LAST_MODIFIED).isEmpty());
+        assertTrue(service.resolveRanges(withRange("bytes=0-1,2-3,4-5,6-7,8-9"), SIZE, ETAG, LAST_MODIFIED).isEmpty());
+    }
+
+    @Test
+    void overlappingRangesLargerThanFileAreIgnored() {
+        assertTrue(service.resolveRanges(withRange("bytes=0-30,5-35"), SIZE, ETAG, LAST_MODIFIED).isEmpty());
+    }
+
+    @Test
+    void unsatisfiableRangesAreRejected() {
+        assertThrows(IllegalArgumentException.class,
+                () -> service.resolveRanges(withRange("bytes=100-200"), SIZE, ETAG, LAST_MODIFIED));
+    }
+
+    @Test
+    void rangesStartingAtEndOfFileAreRejected() {
+        assertThrows(IllegalArgumentException.class,
+                () -> service.resolveRanges(withRange("bytes=36-"), SIZE, ETAG, LAST_MODIFIED));
+        assertThrows(IllegalArgumentException.class,
+                () -> service.resolveRanges(withRange("bytes=-0"), SIZE, ETAG, LAST_MODIFIED));
+    }
+
+    @Test
+    void everyRangeOfEmptyFileIsRejected() {
+        assertThrows(IllegalArgumentException.class,
+                () -> service.resolveRanges(withRange("bytes=0-"), 0, ETAG, LAST_MODIFIED));
+        assertThrows(IllegalArgumentException.class,
+                () -> service.resolveRanges(withRange("bytes=-5"), 0, ETAG, LAST_MODIFIED));
+    }
+
+    @Test
+    void unsatisfiableRangesAreSkippedWhenOthersFit() {
+        List<HttpRange> ranges = service.resolveRanges(withRange("bytes=0-1,100-200"), SIZE, ETAG, LAST_MODIFIED);
+
+        assertEquals(1, ranges.size());
+        assertEquals(1, ranges.get(0).getRangeEnd(SIZE));
+    }
+
+    @Test
+    void ifRangeWithMatchingEtagKeepsRanges() {
+        MockHttpServletRequest request = withRange("bytes=0-9");
+        request.addHeader(HttpHeaders.IF_RANGE, ETAG);
+
+        assertEquals(1, service.resolveRanges(request, SIZE, ETAG, LAST_MODIFIED).size());
+    }
+
+    @Test
+    void ifRangeWithStaleOrWeakEtagSendsWholeFile() {
+        MockHttpServletRequest stale = withRange("bytes=0-9");
+        stale.addHeader(HttpHeaders.IF_RANGE, "\"other\"");
+        MockHttpServletRequest weak = withRange("bytes=0-9");
+        weak.addHeader(HttpHeaders.IF_RANGE, "W/" + ETAG);
+
+        assertTrue(service.resolveRanges(stale, SIZE, ETAG, LAST_MODIFIED).isEmpty());
+        assertTrue(service.resolveRanges(weak, SIZE, ETAG, LAST_MODIFIED).isEmpty());
+    }
+
+    @Test
+    void ifRangeWithDateMatchesToTheSecond() {
+        MockHttpServletRequest current = withRange("bytes=0-9");
+        current.addHeader(HttpHeaders.IF_RANGE, httpDate(LAST_MODIFIED));
+        MockHttpServletRequest older = withRange("bytes=0-9");
+        older.addHeader(HttpHeaders.IF_RANGE, httpDate(LAST_MODIFIED - 60_000));
+
+        assertEquals(1, service.resolveRanges(current, SIZE, ETAG, LAST_MODIFIED + 500).size());
+        assertTrue(service.resolveRanges(older, SIZE, ETAG, LAST_MODIFIED).isEmpty());
+    }
+
+    @Test
+    void servesSingleRange() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        service.serve(withRange("bytes=10-15"), response, blob, SIZE, "text/plain", ETAG, LAST_MODIFIED);
+
+        assertEquals(206, response.getStatus());
+        assertEquals("bytes 10-15/36", response.getHeader(HttpHeaders.CONTENT_RANGE));
+        assertEquals("abcdef", response.getContentAsString());
+    }
+
+    @Test
+    void servesUnsatisfiableRangeAs416() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        service.serve(withRange("bytes=50-"), response, blob, SIZE, "text/plain", ETAG, LAST_MODIFIED);
+
+        assertEquals(416, response.getStatus());
+        assertEquals("bytes */36", response.getHeader(HttpHeaders.CONTENT_RANGE));
+    }
+
+    @Test
+    void servesMultipleRangesAsMultipartByteranges() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        service.serve(withRange("bytes=0-3,-4"), response, blob, SIZE, "text/plain", ETAG, LAST_MODIFIED);
+
+        assertEquals(206, response.getStatus());
+        String contentType = response.getContentType();
+        assertTrue(contentType.startsWith("multipart/byteranges; boundary="));
+        String boundary = contentType.substring(contentType.indexOf("boundary=") + "boundary=".length());
+
+        String expected = "\r\n--" + boundary + "\r\n"
+                + "Content-Type: text/plain\r\n"
+                + "Content-Range: bytes 0-3/36\r\n\r\n"
+                + "0123"
+                + "\r\n--" + boundary + "\r\n"
+                + "Content-Type: text/plain\r\n"
+                + "Content-Range: bytes 32-35/36\r\n\r\n"
+                + "wxyz"
+                + "\r\n--" + boundary + "--\r\n";
+        byte[] body = response.getContentAsByteArray();
+        assertArrayEquals(expected.getBytes(StandardCharsets.US_ASCII), body);
+        assertEquals(body.length, response.getContentLengthLong());
+    }
+
+    @Test
+    void servesRangesOfPackedRegion() throws Exception {
+        BlobRegion packed = new BlobRegion(blob.getPath(), 10, 6);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        service.serve(withRange("bytes=2-3"), response, packed, 6, "text/plain", ETAG, LAST_MODIFIED);
+
+        assertEquals("bytes 2-3/6", response.getHeader(HttpHeaders.CONTENT_RANGE));
+        assertEquals("cd", response.getContentAsString());
+    }
+
+    private MockHttpServletRequest withRange(String range) {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader(HttpHeaders.RANGE, range);
+        return request;
+    }
+
+    private String httpDate(long millis) {
+        return DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                ZonedDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneOffset.UTC));
+    }
+}
@@ -0,0 +1,282 @@
+package com.safalifter.filestorage.service;
+
+import com.safalifter.filestorage.model.PackEntry;
+import com.safalifter.filestorage.repository.FileRepository;
+import com.safalifter.filestorage.repository.PackEntryRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.data.domain.Pageable;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class PackFileStorageBackendTest {
+
+    // Records of a two-character blob name and ten bytes of data: 16 bytes of header plus data
+    private static final int RECORD_SIZE = 26;
+    private static final String FIRST_SEGMENT = "segment-00000001.pack";
+    private static final String SECOND_SEGMENT = "segment-00000002.pack";
+
+    @TempDir
+    Path tempDir;
+
+    // Stands in for the pack_entries table; holds copies so the backend cannot mutate rows directly
+    private final Map<String, PackEntry> table = new TreeMap<>();
+    private FileRepository fileRepository;
+    private PackFileStorageBackend backend;
+
+    @BeforeEach
+    void setUp() {
+        fileRepository = mock(FileRepository.class);
+        // Three records fill a segment
+        backend = new PackFileStorageBackend(packEntryRepository(), fileRepository, new BlobLocks(),
+                tempDir.resolve("packs").toString(), 1024, 3 * RECORD_SIZE - 1, 100);
+        ReflectionTestUtils.setField(backend, "compactionEnabled", true);
+        ReflectionTestUtils.setField(backend, "minDeadRatio", 0.5);
+        ReflectionTestUtils.setField(backend, "minSegmentAge", 60_000L);
+        ReflectionTestUtils.setField(backend, "gracePeriodHours", 1L);
+        ReflectionTestUtils.setField(backend, "batchSize", 100);
+        backend.init();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        backend.close();
+    }
+
+    @Test
+    void storesAndResolvesBlobs() throws Exception {
+        String first = store("a1", "0123456789");
+        String second = store("a2", "abcdefghij");
+
+        assertEquals("pack:a1", first);
+        assertTrue(backend.owns(first));
+        assertFalse(backend.owns("/data/attachments/a1"));
+        assertEquals("0123456789", read(first));
+        assertEquals("abcdefghij", read(second));
+
+        BlobRegion region = backend.resolve(second);
+        assertEquals(tempDir.resolve("packs").resolve(FIRST_SEGMENT), region.getPath());
+        assertEquals(RECORD_SIZE + 16, region.getOffset());
+        assertEquals(10, region.getLength());
+    }
+
+    @Test
+    void writesSelfDescribingRecords() throws Exception {
+        store("a1", "0123456789");
+
+        byte[] segment = Files.readAllBytes(tempDir.resolve("packs").resolve(FIRST_SEGMENT));
+        assertEquals(RECORD_SIZE, segment.length);
+        assertEquals("OSPK", new String(segment, 0, 4, StandardCharsets.US_ASCII));
+        assertEquals("a1", new String(segment, 6, 2, StandardCharsets.US_ASCII));
+        assertEquals("0123456789", new String(segment, 16, 10, StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    void rollsOverToNewSegmentWhenFull() throws Exception {
+        store("a1", "0123456789");
+        store("a2", "0123456789");
+        store("a3", "0123456789");
+        String fourth = store("a4", "abcdefghij");
+
+        assertEquals(tempDir.resolve("packs").resolve(SECOND_SEGMENT), backend.resolve(fourth).getPath());
+        assertEquals(16, backend.resolve(fourth).getOffset());
+        assertEquals("abcdefghij", read(fourth));
+    }
+
+    @Test
+    void deleteDropsOnlyTheIndexEntry() throws Exception {
+        String location = store("a1", "0123456789");
+
+        assertTrue(backend.delete(location));
+        assertFalse(backend.exists(location));
+        assertFalse(backend.delete(location));
+        assertEquals(RECORD_SIZE, Files.size(tempDir.resolve("packs").resolve(FIRST_SEGMENT)));
+    }
+
+    @Test
+    void compactionMovesLiveBlobsAndDropsUnreferencedOnes() throws Exception {
+        String kept = store("a1", "0123456789");
+        String deleted = store("a2", "abcdefghij");
+        String orphan = store("a3", "klmnopqrst");
+        backend.delete(deleted);
+        ageEntry("a3");
+        ageSegment(FIRST_SEGMENT);
+        when(fileRepository.findReferencedFilePaths(anyCollection())).thenReturn(List.of(kept));
+
+        backend.compact();
+
+        assertEquals(tempDir.resolve("packs").resolve(SECOND_SEGMENT), backend.resolve(kept).getPath());
+        assertEquals("0123456789", read(kept));
+        assertEquals(SECOND_SEGMENT, table.get("a1").getSegment());
+        assertFalse(backend.exists(orphan));
+        assertFalse(table.containsKey("a3"));
+
+        // Nothing lives in the old segment any more, so the next run removes it
+        backend.compact();
+        assertFalse(Files.exists(tempDir.resolve("packs").resolve(FIRST_SEGMENT)));
+        assertEquals("0123456789", read(kept));
+    }
+
+    @Test
+    void compactionKeepsBlobsReferencedAgainUnderTheLock() throws Exception {
+        store("a1", "0123456789");
+        store("a2", "abcdefghij");
+        String reuploaded = store("a3", "klmnopqrst");
+        backend.delete("pack:a1");
+        backend.delete("pack:a2");
+        ageEntry("a3");
+        ageSegment(FIRST_SEGMENT);
+        // Unreferenced when the page is checked, referenced by the time the blob lock is held
+        when(fileRepository.findReferencedFilePaths(anyCollection())).thenReturn(List.of());
+        when(fileRepository.countByFilePath(reuploaded)).thenReturn(1L);
+
+        backend.compact();
+
+        assertEquals(tempDir.resolve("packs").resolve(SECOND_SEGMENT), backend.resolve(reuploaded).getPath());
+        assertEquals("klmnopqrst", read(reuploaded));
+    }
+
+    @Test
+    void compactionLeavesRecentUnreferencedBlobs() throws Exception {
+        store("a1", "0123456789");
+        store("a2", "abcdefghij");
+        String inFlight = store("a3", "klmnopqrst");
+        backend.delete("pack:a1");
+        backend.delete("pack:a2");
+        ageSegment(FIRST_SEGMENT);
+        when(fileRepository.findReferencedFilePaths(anyCollection())).thenReturn(List.of());
+
+        backend.compact();
+
+        assertEquals("klmnopqrst", read(inFlight));
+        assertEquals(SECOND_SEGMENT, table.get("a3").getSegment());
+    }
+
+    @Test
+    void compactionSkipsSegmentsBelowTheDeadRatio() throws Exception {
+        store("a1", "0123456789");
+        store("a2", "abcdefghij");
+        store("a3", "klmnopqrst");
+        backend.delete("pack:a2");
+        ageSegment(FIRST_SEGMENT);
+        // Record headers count as dead bytes, so this segment is about three quarters dead
+        ReflectionTestUtils.setField(backend, "minDeadRatio", 0.8);
+
+        backend.compact();
+
+        assertEquals(FIRST_SEGMENT, table.get("a1").getSegment());
+        assertEquals(FIRST_SEGMENT, table.get("a3").getSegment());
+    }
+
+    private String store(String blobName, String content) throws Exception {
+        Path source = Files.createTempFile(tempDir, blobName, ".upload");
+        Files.write(source, content.getBytes(StandardCharsets.US_ASCII));
+        return backend.store(blobName, source, content.length());
+    }
+
+    private String read(String location) throws Exception {
+        try (InputStream in = backend.resolve(location).openStream()) {
+            return new String(in.readAllBytes(), StandardCharsets.US_ASCII);
+        }
+    }
+
+    private void ageEntry(String blobName) {
+        table.get(blobName).setCreatedAt(Instant.now().minus(Duration.ofDays(2)));
+    }
+
+    private void ageSegment(String segment) throws Exception {
+        Files.setLastModifiedTime(tempDir.resolve("packs").resolve(segment),
+                FileTime.from(Instant.now().minus(Duration.ofDays(1))));
+    }
+
+    private PackEntryRepository packEntryRepository() {
+        PackEntryRepository repository = mock(PackEntryRepository.class);
+        when(repository.save(any(PackEntry.class))).thenAnswer(invocation -> {
+            PackEntry entry = invocation.getArgument(0);
+            table.put(entry.getBlobName(), copy(entry));
+            return entry;
+        });
+        when(repository.findById(anyString()))
+                .thenAnswer(invocation -> Optional.ofNullable(table.get(invocation.<String>getArgument(0)))
+                        .map(PackFileStorageBackendTest::copy));
+        when(repository.existsById(anyString()))
+                .thenAnswer(invocation -> table.containsKey(invocation.<String>getArgument(0)));
+        doAnswer(invocation -> table.remove(invocation.<String>getArgument(0)))
+                .when(repository).deleteById(anyString());
+        when(repository.sumLengthBySegment()).thenAnswer(invocation -> table.values().stream()
+                .collect(Collectors.groupingBy(PackEntry::getSegment, Collectors.summingLong(PackEntry::getLength)))
+                .entrySet().stream()
+                .map(sum -> new Object[]{sum.getKey(), sum.getValue()})
+                .collect(Collectors.toList()));
+        when(repository.findBySegmentAndBlobNameGreaterThanOrderByBlobNameAsc(anyString(), anyString(),
+                any(Pageable.class))).thenAnswer(invocation -> {
+            String segment = invocation.getArgument(0);
+            String after = invocation.getArgument(1);
+            Pageable page = invocation.getArgument(2);
+            List<PackEntry> entries = new ArrayList<>();
+            for (PackEntry entry : table.values()) {
+                if (entry.getSegment().equals(segment) && entry.getBlobName().compareTo(after) > 0
+                        && entries.size() < page.getPageSize()) {
+                    entries.add(copy(entry));
+                }
+            }
+            return entries;
+        });
+        when(repository.moveEntry(anyString(), anyString(), anyString(), anyLong())).thenAnswer(invocation -> {
+            PackEntry entry = table.get(invocation.<String>getArgument(0));
+            if (entry == null || !entry.getSegment().equals(invocation.getArgument(1))) {
+                return 0;
+            }
+            entry.setSegment(invocation.getArgument(2));
+            entry.setDataOffset(invocation.getArgument(3));
+            return 1;
+        });
+        when(repository.deleteEntry(anyString(), anyString(), anyLong())).thenAnswer(invocation -> {
+            PackEntry entry = table.get(invocation.<String>getArgument(0));
+            if (entry == null || !entry.getSegment().equals(invocation.getArgument(1))
+                    || entry.getDataOffset() != invocation.<Long>getArgument(2)) {
+                return 0;
+            }
+            table.remove(entry.getBlobName());
+            return 1;
+        });
+        return repository;
+    }
+
+    private static PackEntry copy(PackEntry entry) {
+        return PackEntry.builder()
+                .blobName(entry.getBlobName())
+                .segment(entry.getSegment())
+                .dataOffset(entry.getDataOffset())
+                .length(entry.getLength())
+                .createdAt(entry.getCreatedAt())
+                .build();
+    }
+}
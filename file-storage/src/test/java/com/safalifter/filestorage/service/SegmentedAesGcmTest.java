@@ -0,0 +1,176 @@
+package com.safalifter.filestorage.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SegmentedAesGcmTest {
+
+    private static final int SEGMENT_SIZE = 16;
+    private static final byte[] FILE_ID = "file-1".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NONCE_PREFIX = {1, 2, 3, 4, 5, 6, 7};
+
+    @TempDir
+    Path tempDir;
+
+    private SecretKey key;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        KeyGenerator generator = KeyGenerator.getInstance("AES");
+        generator.init(256);
+        key = generator.generateKey();
+    }
+
+    @Test
+    void roundTripsAcrossSegments() throws Exception {
+        byte[] plaintext = plaintext(40);
+        Path file = write(encrypt(plaintext));
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            SegmentedAesGcm.Header header = SegmentedAesGcm.readHeader(channel);
+            assertEquals(SEGMENT_SIZE, header.segmentSize);
+            assertEquals(40, header.plaintextLength);
+            assertEquals(3, header.segmentCount());
+            assertArrayEquals(plaintext, decryptAll(header, FILE_ID, channel));
+        }
+    }
+
+    @Test
+    void roundTripsEmptyFile() throws Exception {
+        Path file = write(encrypt(new byte[0]));
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            SegmentedAesGcm.Header header = SegmentedAesGcm.readHeader(channel);
+            assertEquals(1, header.segmentCount());
+            assertArrayEquals(new byte[0], decryptAll(header, FILE_ID, channel));
+        }
+    }
+
+    @Test
+    void decryptsSingleSegmentForRanges() throws Exception {
+        byte[] plaintext = plaintext(40);
+        Path file = write(encrypt(plaintext));
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            SegmentedAesGcm.Header header = SegmentedAesGcm.readHeader(channel);
+            byte[] segment = SegmentedAesGcm.decryptSegment(key, header, FILE_ID, 1, channel);
+            assertArrayEquals(Arrays.copyOfRange(plaintext, 16, 32), segment);
+        }
+    }
+
+    @Test
+    void rejectsTamperedCiphertext() throws Exception {
+        byte[] encrypted = encrypt(plaintext(40));
+        encrypted[SegmentedAesGcm.HEADER_LENGTH + SEGMENT_SIZE + SegmentedAesGcm.TAG_LENGTH + 3] ^= 1;
+
+        assertThrows(AEADBadTagException.class, () -> decryptFile(write(encrypted), FILE_ID));
+    }
+
+    @Test
+    void rejectsSegmentsOfAnotherFile() throws Exception {
+        Path file = write(encrypt(plaintext(40)));
+
+        assertThrows(AEADBadTagException.class,
+                () -> decryptFile(file, "file-2".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void rejectsReorderedSegments() throws Exception {
+        byte[] encrypted = encrypt(plaintext(48));
+        int segment = SEGMENT_SIZE + SegmentedAesGcm.TAG_LENGTH;
+        int first = SegmentedAesGcm.HEADER_LENGTH;
+        byte[] swapped = encrypted.clone();
+        System.arraycopy(encrypted, first, swapped, first + segment, segment);
+        System.arraycopy(encrypted, first + segment, swapped, first, segment);
+
+        assertThrows(AEADBadTagException.class, () -> decryptFile(write(swapped), FILE_ID));
+    }
+
+    @Test
+    void rejectsTruncatedFile() throws Exception {
+        byte[] encrypted = encrypt(plaintext(40));
+        byte[] truncated = Arrays.copyOf(encrypted, encrypted.length - 5);
+
+        IOException error = assertThrows(IOException.class, () -> decryptFile(write(truncated), FILE_ID));
+        assertEquals("Encrypted file is truncated at segment 2", error.getMessage());
+    }
+
+    @Test
+    void rejectsDroppedSegmentsWithRewrittenLength() throws Exception {
+        byte[] encrypted = encrypt(plaintext(40));
+        // Claim the file ends after two full segments and cut the third away
+        byte[] shortened = Arrays.copyOf(encrypted,
+                SegmentedAesGcm.HEADER_LENGTH + 2 * (SEGMENT_SIZE + SegmentedAesGcm.TAG_LENGTH));
+        byte[] header = new SegmentedAesGcm.Header(SEGMENT_SIZE, 32, NONCE_PREFIX).encoded;
+        System.arraycopy(header, 0, shortened, 0, header.length);
+
+        assertThrows(AEADBadTagException.class, () -> decryptFile(write(shortened), FILE_ID));
+    }
+
+    @Test
+    void rejectsFilesWithoutHeader() throws Exception {
+        Path file = write("plain text, not encrypted".getBytes(StandardCharsets.UTF_8));
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            assertThrows(IOException.class, () -> SegmentedAesGcm.readHeader(channel));
+        }
+    }
+
+    private byte[] encrypt(byte[] plaintext) throws Exception {
+        SegmentedAesGcm.Header header = new SegmentedAesGcm.Header(SEGMENT_SIZE, plaintext.length, NONCE_PREFIX);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(header.encoded);
+        for (long index = 0; index < header.segmentCount(); index++) {
+            int from = (int) (index * SEGMENT_SIZE);
+            byte[] segment = Arrays.copyOfRange(plaintext, from, from + header.plaintextSize(index));
+            out.write(SegmentedAesGcm.encryptSegment(key, header, FILE_ID, index, segment));
+        }
+        return out.toByteArray();
+    }
+
+    private byte[] decryptFile(Path file, byte[] associatedData) throws Exception {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return decryptAll(SegmentedAesGcm.readHeader(channel), associatedData, channel);
+        }
+    }
+
+    private byte[] decryptAll(SegmentedAesGcm.Header header, byte[] associatedData, FileChannel channel)
+            throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (long index = 0; index < header.segmentCount(); index++) {
+            out.write(SegmentedAesGcm.decryptSegment(key, header, associatedData, index, channel));
+        }
+        return out.toByteArray();
+    }
+
+    private Path write(byte[] content) throws IOException {
+        Path file = Files.createTempFile(tempDir, "secure", ".enc");
+        Files.write(file, content);
+        return file;
+    }
+
+    private static byte[] plaintext(int length) {
+        byte[] plaintext = new byte[length];
+        for (int i = 0; i < length; i++) {
+            plaintext[i] = (byte) ('a' + i % 26);
+        }
+        return plaintext;
+    }
+}
@@ -0,0 +1,157 @@
+package com.safalifter.filestorage.service;
+
+import com.safalifter.filestorage.exc.GenericErrorResponse;
+import com.safalifter.filestorage.model.File;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpStatus;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class TextPreviewServiceTest {
+
+    private static final String ID = "file-1";
+
+    @TempDir
+    Path tempDir;
+
+    private StorageService storageService;
+    private TextPreviewService service;
+
+    @BeforeEach
+    void setUp() {
+        storageService = mock(StorageService.class);
+        // A checkpoint every three lines, so most windows start between checkpoints
+        service = new TextPreviewService(storageService, 3, 16, 100, 1024);
+    }
+
+    @Test
+    void readsWindowBetweenCheckpoints() throws Exception {
+        store(numberedLines("line", 10).getBytes(StandardCharsets.UTF_8));
+
+        Map<String, Object> window = service.readLines(ID, 7, 2);
+
+        assertEquals(List.of("line7", "line8"), window.get("lines"));
+        assertEquals(10L, window.get("totalLines"));
+        assertEquals(9L, window.get("nextLineOffset"));
+        assertEquals("UTF-8", window.get("charset"));
+    }
+
+    @Test
+    void readsWindowStartingOnCheckpoint() throws Exception {
+        store(numberedLines("line", 10).getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(List.of("line6"), service.readLines(ID, 6, 1).get("lines"));
+        assertEquals(List.of("line0", "line1"), service.readLines(ID, 0, 2).get("lines"));
+    }
+
+    @Test
+    void lastWindowHasNoNextOffset() throws Exception {
+        store(numberedLines("line", 10).getBytes(StandardCharsets.UTF_8));
+
+        Map<String, Object> window = service.readLines(ID, 8, 5);
+
+        assertEquals(List.of("line8", "line9"), window.get("lines"));
+        assertNull(window.get("nextLineOffset"));
+        assertEquals(List.of(), service.readLines(ID, 20, 5).get("lines"));
+    }
+
+    @Test
+    void countsLastLineWithoutLineFeedAndStripsCarriageReturns() throws Exception {
+        store("first\r\nsecond\r\nthird".getBytes(StandardCharsets.UTF_8));
+
+        Map<String, Object> window = service.readLines(ID, 0, 10);
+
+        assertEquals(3L, window.get("totalLines"));
+        assertEquals(List.of("first", "second", "third"), window.get("lines"));
+    }
+
+    @Test
+    void indexesUtf16WithByteOrderMark() throws Exception {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        content.write(0xFF);
+        content.write(0xFE);
+        content.write(numberedLines("zeileä", 8).getBytes(StandardCharsets.UTF_16LE));
+        store(content.toByteArray());
+
+        Map<String, Object> window = service.readLines(ID, 4, 2);
+
+        assertEquals("UTF-16LE", window.get("charset"));
+        assertEquals(8L, window.get("totalLines"));
+        assertEquals(List.of("zeileä4", "zeileä5"), window.get("lines"));
+    }
+
+    @Test
+    void fallsBackToWindows1252ForInvalidUtf8() throws Exception {
+        store(new byte[]{'c', 'a', 'f', (byte) 0xE9, '\n'});
+
+        Map<String, Object> window = service.readLines(ID, 0, 1);
+
+        assertEquals("windows-1252", window.get("charset"));
+        assertEquals(List.of("café"), window.get("lines"));
+    }
+
+    @Test
+    void truncatesLinesLongerThanTheByteBudget() throws Exception {
+        service = new TextPreviewService(storageService, 3, 16, 100, 4);
+        store("abcdefgh\nnext\n".getBytes(StandardCharsets.UTF_8));
+
+        Map<String, Object> window = service.readLines(ID, 0, 2);
+
+        assertEquals(List.of("abcd"), window.get("lines"));
+        assertEquals(true, window.get("truncated"));
+        assertNull(window.get("nextLineOffset"));
+    }
+
+    @Test
+    void rejectsBinaryContent() throws Exception {
+        store(new byte[]{'a', 0, 'b', '\n'});
+
+        GenericErrorResponse error = assertThrows(GenericErrorResponse.class, () -> service.readLines(ID, 0, 1));
+        assertEquals(HttpStatus.UNSUPPORTED_MEDIA_TYPE, error.getHttpStatus());
+    }
+
+    @Test
+    void byteWindowsStayOnCharacterBoundaries() throws Exception {
+        // 'a', then the two bytes of e-acute, then " b"
+        store("aé b".getBytes(StandardCharsets.UTF_8));
+
+        Map<String, Object> head = service.readBytes(ID, 0, 2);
+        assertEquals("a", head.get("text"));
+        assertEquals(1L, head.get("nextByteOffset"));
+
+        Map<String, Object> middle = service.readBytes(ID, 2, 10);
+        assertEquals(3L, middle.get("byteOffset"));
+        assertEquals(" b", middle.get("text"));
+        assertTrue((Boolean) middle.get("endOfFile"));
+    }
+
+    private void store(byte[] content) throws Exception {
+        Path path = tempDir.resolve(ID);
+        Files.write(path, content);
+        File fileRecord = File.builder().id(ID).originalFileName("notes.txt").filePath(path.toString()).build();
+        when(storageService.findPlainFileById(ID)).thenReturn(fileRecord);
+        when(storageService.resolveBlob(fileRecord)).thenReturn(BlobRegion.of(path, content.length));
+    }
+
+    private static String numberedLines(String prefix, int count) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            text.append(prefix).append(i).append('\n');
+        }
+        return text.toString();
+    }
+}
@@ -24,6 +24,9 @@ public class SecurityConfig {
                 .csrf().disable()
                 .authorizeExchange(exchanges -> exchanges
                         .pathMatchers(HttpMethod.OPTIONS, "/**").permitAll() // allow preflight without auth
+                        // signed download links carry their own HMAC, checked by file-storage
+                        .pathMatchers(HttpMethod.GET, "/api/v1/file-storage/signed/**").permitAll()
+                        .pathMatchers(HttpMethod.HEAD, "/api/v1/file-storage/signed/**").permitAll()
                         .anyExchange().authenticated()
                 )
                 .oauth2ResourceServer(oauth2 -> oauth2